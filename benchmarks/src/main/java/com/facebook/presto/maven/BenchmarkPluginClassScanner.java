@@ -0,0 +1,127 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.maven;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Scanning a classes directory of synthetic class files for plugin
+ * implementations, as {@code generate-service-descriptor} does, from scratch
+ * and incrementally with nothing changed. In the flat hierarchy every class
+ * extends {@code Object} and one in a hundred implements the plugin type. In
+ * the deep hierarchy classes form chains of fifty, each rooted at a class
+ * implementing the plugin type.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class BenchmarkPluginClassScanner
+{
+    private static final String PLUGIN_TYPE = "bench.spi.Plugin";
+    private static final int CHAIN_LENGTH = 50;
+    private static final int CLASSES_PER_PACKAGE = 500;
+
+    public enum Hierarchy
+    {
+        FLAT, DEEP
+    }
+
+    @Param({"10", "1000", "10000", "50000"})
+    private int classCount;
+
+    @Param({"FLAT", "DEEP"})
+    private Hierarchy hierarchy;
+
+    private File directory;
+    private PluginClassScanner scanner;
+    private ServiceDescriptorState previous;
+
+    @Setup(Level.Trial)
+    public void setup()
+            throws Exception
+    {
+        directory = Files.createTempDirectory("benchmark-scanner").toFile();
+        File classes = new File(directory, "classes");
+        File spi = new File(directory, "spi.jar");
+        SyntheticClassFiles.writeInterfaceJar(spi, PLUGIN_TYPE);
+
+        for (int i = 0; i < classCount; i++) {
+            String name = className(i);
+            if (hierarchy == Hierarchy.FLAT) {
+                List<String> interfaces = (i % 100 == 0) ? ImmutableList.of(PLUGIN_TYPE) : ImmutableList.<String>of();
+                SyntheticClassFiles.writeClass(classes, name, "java.lang.Object", interfaces);
+            }
+            else if (i % CHAIN_LENGTH == 0) {
+                SyntheticClassFiles.writeClass(classes, name, "java.lang.Object", ImmutableList.of(PLUGIN_TYPE));
+            }
+            else {
+                SyntheticClassFiles.writeClass(classes, name, className(i - 1), ImmutableList.<String>of());
+            }
+        }
+
+        scanner = new PluginClassScanner(classes, ImmutableList.of(spi), ImmutableSet.of(PLUGIN_TYPE), Runtime.getRuntime().availableProcessors());
+        PluginClassScanner.Result result = scanner.scan(ServiceDescriptorState.EMPTY);
+        previous = new ServiceDescriptorState(result.getDependenciesFingerprint(), result.getClasses(), ImmutableMap.<String, String>of());
+    }
+
+    private static String className(int i)
+    {
+        return "bench.p" + (i / CLASSES_PER_PACKAGE) + ".C" + i;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+            throws Exception
+    {
+        SyntheticClassFiles.deleteRecursively(directory);
+    }
+
+    @Benchmark
+    public PluginClassScanner.Result fullScan()
+            throws Exception
+    {
+        return scanner.scan(ServiceDescriptorState.EMPTY);
+    }
+
+    @Benchmark
+    public PluginClassScanner.Result incrementalScan()
+            throws Exception
+    {
+        return scanner.scan(previous);
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.maven;
+
+import com.google.common.collect.ImmutableSet;
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.DefaultArtifact;
+import org.apache.maven.artifact.handler.DefaultArtifactHandler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+
+/**
+ * The work of {@code check-spi-dependencies} for a project with the given
+ * number of dependencies, half of which belong to the SPI: determining the
+ * SPI dependencies from the presto-spi POM in a local repository, which is a
+ * directory written by the benchmark, and checking the project artifacts
+ * against them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class BenchmarkSpiDependencyChecker
+{
+    private static final String SPI_VERSION = "0.0";
+
+    @Param({"1", "10", "100", "500"})
+    private int artifactCount;
+
+    private File localRepository;
+    private Artifact spiArtifact;
+    private List<Artifact> artifacts;
+    private Set<String> spiDependencies;
+
+    @Setup(Level.Trial)
+    public void setup()
+            throws Exception
+    {
+        localRepository = Files.createTempDirectory("benchmark-repository").toFile();
+        File spiDirectory = new File(localRepository, "com/facebook/presto/presto-spi/" + SPI_VERSION);
+        Files.createDirectories(spiDirectory.toPath());
+
+        StringBuilder dependencies = new StringBuilder();
+        artifacts = new ArrayList<>();
+        for (int i = 0; i < artifactCount; i++) {
+            boolean partOfSpi = (i % 2 == 0);
+            String groupId = partOfSpi ? "bench.spi" : "bench.plugin";
+            if (partOfSpi) {
+                dependencies.append(format("        <dependency><groupId>%s</groupId><artifactId>a%s</artifactId><version>1</version></dependency>%n", groupId, i));
+            }
+            artifacts.add(artifact(groupId, "a" + i, "1", partOfSpi ? "provided" : "compile", null));
+        }
+        String pom = format("<project>%n" +
+                "    <modelVersion>4.0.0</modelVersion>%n" +
+                "    <groupId>com.facebook.presto</groupId>%n" +
+                "    <artifactId>presto-spi</artifactId>%n" +
+                "    <version>%s</version>%n" +
+                "    <dependencies>%n%s    </dependencies>%n" +
+                "</project>%n", SPI_VERSION, dependencies);
+        Files.write(new File(spiDirectory, "presto-spi-" + SPI_VERSION + ".pom").toPath(), pom.getBytes(UTF_8));
+        File spiJar = new File(spiDirectory, "presto-spi-" + SPI_VERSION + ".jar");
+        SyntheticClassFiles.writeInterfaceJar(spiJar, "com.facebook.presto.spi.Plugin");
+
+        spiArtifact = artifact("com.facebook.presto", "presto-spi", SPI_VERSION, "provided", spiJar);
+        artifacts.add(spiArtifact);
+        spiDependencies = readSpiDependencies();
+    }
+
+    private static Artifact artifact(String groupId, String artifactId, String version, String scope, File file)
+    {
+        Artifact artifact = new DefaultArtifact(groupId, artifactId, version, scope, "jar", null, new DefaultArtifactHandler("jar"));
+        artifact.setFile(file);
+        return artifact;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+            throws Exception
+    {
+        SyntheticClassFiles.deleteRecursively(localRepository);
+    }
+
+    @Benchmark
+    public Set<String> readSpiDependencies()
+            throws IOException
+    {
+        Set<String> dependencies = new LocalPomDependencyReader(localRepository).readDependencies(spiArtifact);
+        if (dependencies == null) {
+            throw new IllegalStateException("The POM reader fell back to dependency collection");
+        }
+        return dependencies;
+    }
+
+    @Benchmark
+    public void checkArtifacts()
+            throws Exception
+    {
+        SpiDependencyChecker.checkArtifacts(artifacts, spiDependencies, ImmutableSet.<String>of());
+    }
+}
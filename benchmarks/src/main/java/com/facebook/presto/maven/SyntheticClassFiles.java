@@ -0,0 +1,131 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.maven;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes minimal class files, with a name, a superclass and interfaces but no
+ * members, which is all the scanner reads.
+ */
+final class SyntheticClassFiles
+{
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_SUPER = 0x0020;
+    private static final int ACC_INTERFACE = 0x0200;
+    private static final int ACC_ABSTRACT = 0x0400;
+
+    private SyntheticClassFiles() {}
+
+    /**
+     * Returns a class file. Names use dots.
+     */
+    public static byte[] classFile(String name, String superName, List<String> interfaces, boolean isInterface)
+            throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(bytes);
+        data.writeInt(0xCAFEBABE);
+        data.writeShort(0);
+        data.writeShort(52);
+
+        // a UTF-8 entry and a class entry for each referenced class
+        data.writeShort(1 + 2 * (2 + interfaces.size()));
+        writeClassConstant(data, name, 0);
+        writeClassConstant(data, superName, 1);
+        for (int i = 0; i < interfaces.size(); i++) {
+            writeClassConstant(data, interfaces.get(i), 2 + i);
+        }
+
+        data.writeShort(isInterface ? ACC_PUBLIC | ACC_INTERFACE | ACC_ABSTRACT : ACC_PUBLIC | ACC_SUPER);
+        data.writeShort(2);
+        data.writeShort(4);
+        data.writeShort(interfaces.size());
+        for (int i = 0; i < interfaces.size(); i++) {
+            data.writeShort(6 + 2 * i);
+        }
+        data.writeShort(0);
+        data.writeShort(0);
+        data.writeShort(0);
+        data.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Writes the UTF-8 entry at index {@code 1 + 2 * position} and the class entry referring to it right after.
+     */
+    private static void writeClassConstant(DataOutputStream data, String name, int position)
+            throws IOException
+    {
+        data.writeByte(1);
+        data.writeUTF(name.replace('.', '/'));
+        data.writeByte(7);
+        data.writeShort(1 + 2 * position);
+    }
+
+    public static void writeClass(File classesDirectory, String name, String superName, List<String> interfaces)
+            throws IOException
+    {
+        File file = new File(classesDirectory, name.replace('.', '/') + ".class");
+        Files.createDirectories(file.getParentFile().toPath());
+        Files.write(file.toPath(), classFile(name, superName, interfaces, false));
+    }
+
+    public static void writeInterfaceJar(File jar, String name)
+            throws IOException
+    {
+        try (OutputStream output = Files.newOutputStream(jar.toPath());
+                ZipOutputStream zip = new ZipOutputStream(output)) {
+            zip.putNextEntry(new ZipEntry(name.replace('.', '/') + ".class"));
+            zip.write(classFile(name, "java.lang.Object", Collections.<String>emptyList(), true));
+            zip.closeEntry();
+        }
+    }
+
+    public static void deleteRecursively(File directory)
+            throws IOException
+    {
+        Files.walkFileTree(directory.toPath(), new SimpleFileVisitor<Path>()
+        {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes)
+                    throws IOException
+            {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path directory, IOException e)
+                    throws IOException
+            {
+                Files.delete(directory);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
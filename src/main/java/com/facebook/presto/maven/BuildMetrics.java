@@ -0,0 +1,276 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.maven;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.project.MavenProject;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Timings and counters of one goal execution. Counters are {@link LongAdder}s,
+ * so worker threads can update them without contention, and callers on hot
+ * paths look a counter up once and keep it. Phases accumulate wall time in
+ * nanoseconds; a phase timed more than once, or by several threads, adds up.
+ * <p>
+ * Each goal writes its metrics as a small tab separated text file to
+ * {@code target/presto-maven-plugin/metrics/<goal>.metrics}, where the
+ * {@code build-report} goal picks them up and writes the only JSON. Phases
+ * and counters are written with the most expensive or largest first.
+ */
+final class BuildMetrics
+{
+    public static final String FILE_SUFFIX = ".metrics";
+
+    private static final String HEADER = "# presto-maven-plugin build metrics";
+    private static final int VERSION = 1;
+
+    private static final Joiner TAB_JOINER = Joiner.on('\t');
+    private static final Splitter TAB_SPLITTER = Splitter.on('\t');
+
+    private final long start = System.nanoTime();
+    private final ConcurrentMap<String, LongAdder> phases = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+
+    public LongAdder counter(String name)
+    {
+        // a plain lookup first, computeIfAbsent locks even when the counter exists on Java 8
+        LongAdder counter = counters.get(name);
+        if (counter == null) {
+            counter = counters.computeIfAbsent(name, key -> new LongAdder());
+        }
+        return counter;
+    }
+
+    public void add(String counter, long value)
+    {
+        counter(counter).add(value);
+    }
+
+    /**
+     * Starts timing the phase until the returned timer is closed.
+     */
+    public Timer time(String phase)
+    {
+        return new Timer(phases.computeIfAbsent(phase, key -> new LongAdder()));
+    }
+
+    /**
+     * Adds time that was measured elsewhere, such as in a forked JVM, to the phase.
+     */
+    public void addTime(String phase, long nanos)
+    {
+        phases.computeIfAbsent(phase, key -> new LongAdder()).add(nanos);
+    }
+
+    public Snapshot snapshot(String project, String goal)
+    {
+        return new Snapshot(project, goal, System.nanoTime() - start, sum(phases), sum(counters));
+    }
+
+    private static Map<String, Long> sum(Map<String, LongAdder> values)
+    {
+        Map<String, Long> sums = new LinkedHashMap<>();
+        for (Map.Entry<String, LongAdder> entry : values.entrySet()) {
+            sums.put(entry.getKey(), entry.getValue().sum());
+        }
+        return sums;
+    }
+
+    /**
+     * Writes the metrics of the goal to the metrics directory of the project. Metrics
+     * are never worth failing the build for, so a failure to write them is only logged.
+     */
+    public void write(MavenProject project, String goal, Log log)
+    {
+        File file = new File(getMetricsDirectory(project), goal + FILE_SUFFIX);
+        try {
+            snapshot(project.getId(), goal).write(file);
+        }
+        catch (IOException e) {
+            log.warn("Failed to write build metrics to " + file, e);
+        }
+    }
+
+    public static File getMetricsDirectory(MavenProject project)
+    {
+        return new File(project.getBuild().getDirectory(), "presto-maven-plugin/metrics");
+    }
+
+    static final class Timer
+            implements AutoCloseable
+    {
+        private final LongAdder phase;
+        private final long start = System.nanoTime();
+
+        private Timer(LongAdder phase)
+        {
+            this.phase = phase;
+        }
+
+        @Override
+        public void close()
+        {
+            phase.add(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * The metrics of a goal execution as written to, or read from, its metrics file.
+     */
+    static final class Snapshot
+    {
+        private final String project;
+        private final String goal;
+        private final long wallNanos;
+        private final Map<String, Long> phases;
+        private final Map<String, Long> counters;
+
+        public Snapshot(String project, String goal, long wallNanos, Map<String, Long> phases, Map<String, Long> counters)
+        {
+            this.project = checkNotNull(project, "project is null");
+            this.goal = checkNotNull(goal, "goal is null");
+            this.wallNanos = wallNanos;
+            this.phases = sortDescending(phases);
+            this.counters = sortDescending(counters);
+        }
+
+        public String getProject()
+        {
+            return project;
+        }
+
+        public String getGoal()
+        {
+            return goal;
+        }
+
+        public long getWallNanos()
+        {
+            return wallNanos;
+        }
+
+        /**
+         * Nanoseconds per phase, most expensive first.
+         */
+        public Map<String, Long> getPhases()
+        {
+            return phases;
+        }
+
+        /**
+         * Counter values, largest first.
+         */
+        public Map<String, Long> getCounters()
+        {
+            return counters;
+        }
+
+        public void write(File file)
+                throws IOException
+        {
+            StringBuilder text = new StringBuilder();
+            text.append(HEADER).append('\n');
+            text.append(TAB_JOINER.join("version", VERSION)).append('\n');
+            text.append(TAB_JOINER.join("project", project)).append('\n');
+            text.append(TAB_JOINER.join("goal", goal)).append('\n');
+            text.append(TAB_JOINER.join("wallNanos", wallNanos)).append('\n');
+            for (Map.Entry<String, Long> phase : phases.entrySet()) {
+                text.append(TAB_JOINER.join("phase", phase.getKey(), phase.getValue())).append('\n');
+            }
+            for (Map.Entry<String, Long> counter : counters.entrySet()) {
+                text.append(TAB_JOINER.join("counter", counter.getKey(), counter.getValue())).append('\n');
+            }
+            CacheFiles.write(file, text.toString().getBytes(UTF_8));
+        }
+
+        public static Snapshot read(File file)
+                throws IOException
+        {
+            List<String> lines = Files.readAllLines(file.toPath(), UTF_8);
+            if (lines.isEmpty() || !HEADER.equals(lines.get(0))) {
+                throw new IOException(format("%s is not a build metrics file", file));
+            }
+            String project = null;
+            String goal = null;
+            Long wallNanos = null;
+            Map<String, Long> phases = new LinkedHashMap<>();
+            Map<String, Long> counters = new LinkedHashMap<>();
+            try {
+                for (String line : lines.subList(1, lines.size())) {
+                    List<String> fields = ImmutableList.copyOf(TAB_SPLITTER.split(line));
+                    switch (fields.get(0)) {
+                        case "version":
+                            if (Integer.parseInt(fields.get(1)) != VERSION) {
+                                throw new IOException(format("%s was written by an incompatible version", file));
+                            }
+                            break;
+                        case "project":
+                            project = fields.get(1);
+                            break;
+                        case "goal":
+                            goal = fields.get(1);
+                            break;
+                        case "wallNanos":
+                            wallNanos = Long.parseLong(fields.get(1));
+                            break;
+                        case "phase":
+                            phases.put(fields.get(1), Long.parseLong(fields.get(2)));
+                            break;
+                        case "counter":
+                            counters.put(fields.get(1), Long.parseLong(fields.get(2)));
+                            break;
+                        default:
+                            throw new IOException(format("%s has an unknown line: %s", file, line));
+                    }
+                }
+            }
+            catch (RuntimeException e) {
+                throw new IOException(format("%s is not a build metrics file", file), e);
+            }
+            if (project == null || goal == null || wallNanos == null) {
+                throw new IOException(format("%s is incomplete", file));
+            }
+            return new Snapshot(project, goal, wallNanos, phases, counters);
+        }
+    }
+
+    static Map<String, Long> sortDescending(Map<String, Long> values)
+    {
+        List<Map.Entry<String, Long>> entries = new ArrayList<>(values.entrySet());
+        entries.sort(Map.Entry.<String, Long>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()));
+        ImmutableMap.Builder<String, Long> sorted = ImmutableMap.builder();
+        for (Map.Entry<String, Long> entry : entries) {
+            sorted.put(entry.getKey(), entry.getValue());
+        }
+        return sorted.build();
+    }
+}
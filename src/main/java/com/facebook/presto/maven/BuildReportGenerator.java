@@ -0,0 +1,223 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.maven;
+
+import com.facebook.presto.maven.BuildMetrics.Snapshot;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.project.MavenProject;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Mojo that merges the metrics written by the goals of every project in the
+ * reactor into one JSON report. The report totals the phases and counters of each
+ * goal across projects, and lists every goal execution, both sorted by wall
+ * time with the most expensive first. Run it after the build, for example
+ * {@code mvn package presto:build-report}.
+ */
+@Mojo(name = "build-report", aggregator = true, threadSafe = true)
+public class BuildReportGenerator
+        extends AbstractMojo
+{
+    private static final int VERSION = 1;
+    private static final int SUMMARY_LINES = 10;
+
+    @Parameter(property = "presto.report.file", defaultValue = "${project.build.directory}/presto-maven-plugin/build-report.json")
+    private File reportFile;
+
+    @Parameter(defaultValue = "${reactorProjects}", readonly = true)
+    private List<MavenProject> reactorProjects;
+
+    @Override
+    public void execute()
+            throws MojoExecutionException, MojoFailureException
+    {
+        List<Snapshot> executions = new ArrayList<>();
+        for (MavenProject project : reactorProjects) {
+            File[] files = BuildMetrics.getMetricsDirectory(project).listFiles((directory, name) -> name.endsWith(BuildMetrics.FILE_SUFFIX));
+            if (files == null) {
+                continue;
+            }
+            for (File file : files) {
+                try {
+                    executions.add(Snapshot.read(file));
+                }
+                catch (IOException e) {
+                    getLog().warn(format("Ignoring unreadable build metrics %s: %s", file, e.getMessage()));
+                }
+            }
+        }
+        if (executions.isEmpty()) {
+            getLog().info("No build metrics found in the reactor");
+            return;
+        }
+        executions.sort(Comparator.comparingLong(Snapshot::getWallNanos).reversed()
+                .thenComparing(Snapshot::getProject)
+                .thenComparing(Snapshot::getGoal));
+
+        List<GoalTotals> goals = mergeByGoal(executions);
+        try {
+            writeReport(goals, executions);
+        }
+        catch (IOException e) {
+            throw new MojoExecutionException(format("%n%nFailed to write %s.", reportFile), e);
+        }
+
+        getLog().info(format("Build report of %s goal executions written to %s", executions.size(), reportFile));
+        for (GoalTotals goal : goals) {
+            getLog().info(format("  %-32s %10s ms in %s projects", goal.goal, millis(goal.wallNanos), goal.projects));
+        }
+        for (Snapshot execution : executions.subList(0, Math.min(SUMMARY_LINES, executions.size()))) {
+            getLog().info(format("  %-32s %10s ms  %s", execution.getGoal(), millis(execution.getWallNanos()), execution.getProject()));
+        }
+    }
+
+    private static List<GoalTotals> mergeByGoal(List<Snapshot> executions)
+    {
+        Map<String, GoalTotals> goals = new TreeMap<>();
+        for (Snapshot execution : executions) {
+            goals.computeIfAbsent(execution.getGoal(), GoalTotals::new).add(execution);
+        }
+        List<GoalTotals> sorted = new ArrayList<>(goals.values());
+        sorted.sort(Comparator.comparingLong((GoalTotals goal) -> goal.wallNanos).reversed());
+        return sorted;
+    }
+
+    private void writeReport(List<GoalTotals> goals, List<Snapshot> executions)
+            throws IOException
+    {
+        long totalNanos = 0;
+        for (Snapshot execution : executions) {
+            totalNanos += execution.getWallNanos();
+        }
+
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append(format("  \"version\": %s,\n", VERSION));
+        json.append(format("  \"wallNanos\": %s,\n", totalNanos));
+        json.append("  \"goals\": [");
+        for (int i = 0; i < goals.size(); i++) {
+            GoalTotals goal = goals.get(i);
+            json.append(i == 0 ? "\n" : ",\n");
+            json.append("    {\n");
+            json.append(format("      \"goal\": %s,\n", quote(goal.goal)));
+            json.append(format("      \"projects\": %s,\n", goal.projects));
+            json.append(format("      \"wallNanos\": %s,\n", goal.wallNanos));
+            json.append("      \"phases\": ");
+            appendObject(json, BuildMetrics.sortDescending(goal.phases), "      ");
+            json.append(",\n");
+            json.append("      \"counters\": ");
+            appendObject(json, BuildMetrics.sortDescending(goal.counters), "      ");
+            json.append("\n    }");
+        }
+        json.append("\n  ],\n");
+        json.append("  \"executions\": [");
+        for (int i = 0; i < executions.size(); i++) {
+            json.append(i == 0 ? "\n    " : ",\n    ");
+            Snapshot execution = executions.get(i);
+            json.append("{\n");
+            json.append(format("      \"project\": %s,\n", quote(execution.getProject())));
+            json.append(format("      \"goal\": %s,\n", quote(execution.getGoal())));
+            json.append(format("      \"wallNanos\": %s,\n", execution.getWallNanos()));
+            json.append("      \"phases\": ");
+            appendObject(json, execution.getPhases(), "      ");
+            json.append(",\n");
+            json.append("      \"counters\": ");
+            appendObject(json, execution.getCounters(), "      ");
+            json.append("\n    }");
+        }
+        json.append("\n  ]\n");
+        json.append("}\n");
+
+        CacheFiles.write(reportFile, json.toString().getBytes(UTF_8));
+    }
+
+    private static void appendObject(StringBuilder json, Map<String, Long> values, String indent)
+    {
+        if (values.isEmpty()) {
+            json.append("{}");
+            return;
+        }
+        json.append("{\n");
+        int remaining = values.size();
+        for (Map.Entry<String, Long> entry : values.entrySet()) {
+            json.append(indent).append("  ").append(quote(entry.getKey())).append(": ").append(entry.getValue());
+            json.append(--remaining > 0 ? ",\n" : "\n");
+        }
+        json.append(indent).append('}');
+    }
+
+    private static String quote(String value)
+    {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            }
+            else if (c < 0x20) {
+                quoted.append(format("\\u%04x", (int) c));
+            }
+            else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    private static String millis(long nanos)
+    {
+        return format("%.1f", nanos / (double) MILLISECONDS.toNanos(1));
+    }
+
+    /**
+     * The executions of one goal, summed across projects.
+     */
+    private static final class GoalTotals
+    {
+        private final String goal;
+        private final Map<String, Long> phases = new HashMap<>();
+        private final Map<String, Long> counters = new HashMap<>();
+        private int projects;
+        private long wallNanos;
+
+        private GoalTotals(String goal)
+        {
+            this.goal = goal;
+        }
+
+        private void add(Snapshot execution)
+        {
+            projects++;
+            wallNanos += execution.getWallNanos();
+            execution.getPhases().forEach((phase, nanos) -> phases.merge(phase, nanos, Long::sum));
+            execution.getCounters().forEach((counter, value) -> counters.merge(counter, value, Long::sum));
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.maven;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+final class CacheFiles
+{
+    private CacheFiles() {}
+
+    /**
+     * Replaces the file with the contents in one step, so concurrent builds
+     * sharing a cache directory never see a partially written file.
+     */
+    public static void write(File file, byte[] contents)
+            throws IOException
+    {
+        Path temporary = createTemporary(file);
+        try {
+            Files.write(temporary, contents);
+            replace(temporary, file.toPath());
+        }
+        finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * Replaces the target with a copy of the source in one step.
+     */
+    public static void copy(File source, File target)
+            throws IOException
+    {
+        Path temporary = createTemporary(target);
+        try {
+            Files.copy(source.toPath(), temporary, StandardCopyOption.REPLACE_EXISTING);
+            replace(temporary, target.toPath());
+        }
+        finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * Moves a file over the target, atomically where the file system supports it.
+     */
+    public static void replace(Path source, Path target)
+            throws IOException
+    {
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static Path createTemporary(File file)
+            throws IOException
+    {
+        Path directory = file.getAbsoluteFile().getParentFile().toPath();
+        Files.createDirectories(directory);
+        return Files.createTempFile(directory, file.getName(), ".tmp");
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.maven;
+
+import com.google.common.collect.ImmutableList;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.lang.String.format;
+
+/**
+ * The name, superclass and interfaces of a class, read directly from the
+ * class file without defining the class in the JVM.
+ */
+final class ClassFileHeader
+{
+    static final int MAGIC = 0xCAFEBABE;
+
+    static final int CONSTANT_UTF8 = 1;
+    static final int CONSTANT_INTEGER = 3;
+    static final int CONSTANT_FLOAT = 4;
+    static final int CONSTANT_LONG = 5;
+    static final int CONSTANT_DOUBLE = 6;
+    static final int CONSTANT_CLASS = 7;
+    static final int CONSTANT_STRING = 8;
+    static final int CONSTANT_FIELD_REF = 9;
+    static final int CONSTANT_METHOD_REF = 10;
+    static final int CONSTANT_INTERFACE_METHOD_REF = 11;
+    static final int CONSTANT_NAME_AND_TYPE = 12;
+    static final int CONSTANT_METHOD_HANDLE = 15;
+    static final int CONSTANT_METHOD_TYPE = 16;
+    static final int CONSTANT_DYNAMIC = 17;
+    static final int CONSTANT_INVOKE_DYNAMIC = 18;
+    static final int CONSTANT_MODULE = 19;
+    static final int CONSTANT_PACKAGE = 20;
+
+    private final String name;
+    private final String superName;
+    private final List<String> interfaces;
+
+    ClassFileHeader(String name, String superName, List<String> interfaces)
+    {
+        this.name = checkNotNull(name, "name is null");
+        this.superName = superName;
+        this.interfaces = ImmutableList.copyOf(checkNotNull(interfaces, "interfaces is null"));
+    }
+
+    /**
+     * Binary name of the class, e.g. {@code com.example.ExamplePlugin}.
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * Binary name of the superclass, or {@code null} for {@code java.lang.Object} and modules.
+     */
+    public String getSuperName()
+    {
+        return superName;
+    }
+
+    public List<String> getInterfaces()
+    {
+        return interfaces;
+    }
+
+    public static ClassFileHeader read(byte[] classFile)
+            throws IOException
+    {
+        ByteArrayInputStream buffer = new ByteArrayInputStream(classFile);
+        DataInputStream input = new DataInputStream(buffer);
+
+        if (input.readInt() != MAGIC) {
+            throw new IOException("Not a class file: bad magic number");
+        }
+        input.readUnsignedShort(); // minor_version
+        input.readUnsignedShort(); // major_version
+
+        // Only Utf8 and Class entries matter for the header, so every other entry is skipped by size
+        int constantPoolCount = input.readUnsignedShort();
+        String[] utf8 = new String[constantPoolCount];
+        int[] classNameIndex = new int[constantPoolCount];
+        for (int i = 1; i < constantPoolCount; i++) {
+            int tag = input.readUnsignedByte();
+            switch (tag) {
+                case CONSTANT_UTF8:
+                    utf8[i] = input.readUTF();
+                    break;
+                case CONSTANT_CLASS:
+                    classNameIndex[i] = input.readUnsignedShort();
+                    break;
+                case CONSTANT_STRING:
+                case CONSTANT_METHOD_TYPE:
+                case CONSTANT_MODULE:
+                case CONSTANT_PACKAGE:
+                    skip(input, 2);
+                    break;
+                case CONSTANT_METHOD_HANDLE:
+                    skip(input, 3);
+                    break;
+                case CONSTANT_INTEGER:
+                case CONSTANT_FLOAT:
+                case CONSTANT_FIELD_REF:
+                case CONSTANT_METHOD_REF:
+                case CONSTANT_INTERFACE_METHOD_REF:
+                case CONSTANT_NAME_AND_TYPE:
+                case CONSTANT_DYNAMIC:
+                case CONSTANT_INVOKE_DYNAMIC:
+                    skip(input, 4);
+                    break;
+                case CONSTANT_LONG:
+                case CONSTANT_DOUBLE:
+                    skip(input, 8);
+                    // eight-byte constants take up two entries in the pool
+                    i++;
+                    break;
+                default:
+                    throw new IOException(format("Not a class file: unknown constant pool tag %s at index %s", tag, i));
+            }
+        }
+
+        input.readUnsignedShort(); // access_flags
+        String name = className(utf8, classNameIndex, input.readUnsignedShort());
+        int superIndex = input.readUnsignedShort();
+        String superName = (superIndex == 0) ? null : className(utf8, classNameIndex, superIndex);
+
+        int interfaceCount = input.readUnsignedShort();
+        ImmutableList.Builder<String> interfaces = ImmutableList.builder();
+        for (int i = 0; i < interfaceCount; i++) {
+            interfaces.add(className(utf8, classNameIndex, input.readUnsignedShort()));
+        }
+
+        return new ClassFileHeader(name, superName, interfaces.build());
+    }
+
+    private static String className(String[] utf8, int[] classNameIndex, int index)
+            throws IOException
+    {
+        if (index <= 0 || index >= classNameIndex.length || classNameIndex[index] == 0 || utf8[classNameIndex[index]] == null) {
+            throw new IOException(format("Not a class file: invalid class reference %s", index));
+        }
+        return utf8[classNameIndex[index]].replace('/', '.');
+    }
+
+    static void skip(DataInputStream input, int bytes)
+            throws IOException
+    {
+        if (input.skipBytes(bytes) != bytes) {
+            throw new IOException("Not a class file: truncated constant pool");
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return format("%s extends %s implements %s", name, superName, interfaces);
+    }
+}
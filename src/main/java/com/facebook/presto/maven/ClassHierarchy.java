@@ -0,0 +1,225 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.maven;
+
+import com.facebook.presto.maven.SharedJarCache.SharedJar;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Files;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Classifies classes of a project against a fixed set of candidate types
+ * by reading the class file headers of the project and its dependencies.
+ * No class is ever defined, so a class whose optional dependencies are
+ * absent is simply not a subtype of anything it cannot reach.
+ * <p>
+ * Dependency jars come from the {@link SharedJarCache}, so this class only
+ * holds what is specific to one module. Instances are safe for use by
+ * concurrent scanning threads.
+ * <p>
+ * Lookups answered from memory, lookups in dependencies, and dependency
+ * classes read are counted in the {@link BuildMetrics} of the goal.
+ */
+class ClassHierarchy
+        implements Closeable
+{
+    private final File classesDirectory;
+    private final List<File> dependencies;
+    private final Set<String> types;
+    private final Map<File, SharedJar> jars = new HashMap<>();
+    private final Map<String, ClassFileHeader> headers = new ConcurrentHashMap<>();
+    private final Set<String> missing = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final Map<String, Set<String>> supertypes = new ConcurrentHashMap<>();
+    private final BuildMetrics metrics;
+    private final LongAdder cacheHits;
+    private final LongAdder dependencyLookups;
+    private final LongAdder dependencyClassesRead;
+
+    /**
+     * @param classesDirectory the classes directory of the project, or a jar holding its classes
+     */
+    public ClassHierarchy(File classesDirectory, List<File> dependencies, Set<String> types, BuildMetrics metrics)
+    {
+        this.classesDirectory = checkNotNull(classesDirectory, "classesDirectory is null");
+        this.dependencies = ImmutableList.copyOf(checkNotNull(dependencies, "dependencies is null"));
+        this.types = ImmutableSet.copyOf(checkNotNull(types, "types is null"));
+        this.metrics = checkNotNull(metrics, "metrics is null");
+        this.cacheHits = metrics.counter("hierarchyCacheHits");
+        this.dependencyLookups = metrics.counter("dependencyLookups");
+        this.dependencyClassesRead = metrics.counter("dependencyClassesRead");
+    }
+
+    /**
+     * Reads the header of a class file in the classes directory.
+     */
+    public ClassFileHeader readProjectClass(File classFile)
+            throws IOException
+    {
+        ClassFileHeader header = ClassFileHeader.read(Files.toByteArray(classFile));
+        addProjectClass(header);
+        return header;
+    }
+
+    /**
+     * Registers the already known header of a class in the classes directory.
+     */
+    public void addProjectClass(ClassFileHeader header)
+    {
+        headers.put(header.getName(), header);
+    }
+
+    /**
+     * Returns the subset of the candidate types that the class is, or inherits
+     * from, in the sense of {@link Class#isAssignableFrom}. Each class in the
+     * hierarchy is visited once no matter how many candidate types there are.
+     * Supertypes that cannot be found in the classes directory or dependencies
+     * are treated as unrelated.
+     */
+    public Set<String> findSupertypes(String className)
+            throws IOException
+    {
+        return findSupertypes(className, new HashSet<String>());
+    }
+
+    private Set<String> findSupertypes(String className, Set<String> visiting)
+            throws IOException
+    {
+        Set<String> matched = supertypes.get(className);
+        if (matched != null) {
+            cacheHits.increment();
+            return matched;
+        }
+        // guards against circular hierarchies in malformed class files
+        if (!visiting.add(className)) {
+            return ImmutableSet.of();
+        }
+
+        ImmutableSet.Builder<String> builder = ImmutableSet.builder();
+        if (types.contains(className)) {
+            builder.add(className);
+        }
+        ClassFileHeader header = getHeader(className);
+        if (header != null) {
+            if (header.getSuperName() != null) {
+                builder.addAll(findSupertypes(header.getSuperName(), visiting));
+            }
+            for (String interfaceName : header.getInterfaces()) {
+                builder.addAll(findSupertypes(interfaceName, visiting));
+            }
+        }
+        visiting.remove(className);
+
+        // concurrent callers may compute the same class twice, but always to the same result
+        matched = builder.build();
+        supertypes.put(className, matched);
+        return matched;
+    }
+
+    private ClassFileHeader getHeader(String className)
+            throws IOException
+    {
+        ClassFileHeader header = headers.get(className);
+        if (header != null || missing.contains(className)) {
+            cacheHits.increment();
+            return header;
+        }
+
+        // JDK types can never inherit from a Presto SPI type
+        if (className.startsWith("java.")) {
+            missing.add(className);
+            return null;
+        }
+
+        String resourceName = className.replace('.', '/') + ".class";
+        header = readHeader(classesDirectory, resourceName, false);
+        for (int i = 0; header == null && i < dependencies.size(); i++) {
+            dependencyLookups.increment();
+            header = readHeader(dependencies.get(i), resourceName, true);
+        }
+        if (header == null) {
+            missing.add(className);
+            return null;
+        }
+
+        headers.put(className, header);
+        return header;
+    }
+
+    private ClassFileHeader readHeader(File location, String resourceName, boolean dependency)
+            throws IOException
+    {
+        if (location.isDirectory()) {
+            File file = new File(location, resourceName);
+            if (!file.isFile()) {
+                return null;
+            }
+            byte[] classFile = Files.toByteArray(file);
+            if (dependency) {
+                dependencyClassesRead.increment();
+                metrics.add("dependencyBytesRead", classFile.length);
+            }
+            return ClassFileHeader.read(classFile);
+        }
+        if (!location.isFile()) {
+            return null;
+        }
+        return acquireJar(location).getHeader(resourceName, metrics);
+    }
+
+    private synchronized SharedJar acquireJar(File location)
+            throws IOException
+    {
+        SharedJar jar = jars.get(location);
+        if (jar == null) {
+            jar = SharedJarCache.acquire(location);
+            jars.put(location, jar);
+        }
+        return jar;
+    }
+
+    @Override
+    public synchronized void close()
+            throws IOException
+    {
+        IOException failure = null;
+        for (SharedJar jar : jars.values()) {
+            try {
+                jar.close();
+            }
+            catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        jars.clear();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.maven;
+
+import com.facebook.presto.spi.CoordinatorPlugin;
+import com.facebook.presto.spi.Plugin;
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+import org.apache.maven.project.MavenProject;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Mojo that records the classes a Presto server loads for this plugin. The
+ * plugin found by {@code generate-service-descriptor} is instantiated in a
+ * forked JVM, through a child-first class loader like the one the server
+ * uses, and its factories are enumerated. The JVM writes the classes it
+ * loaded from the JDK and the SPI to {@code classlist}, in the format of
+ * {@code -XX:SharedClassListFile}, and the classes the plugin loader defined
+ * go to {@code plugin-classes.txt}. Optionally the JVM also writes a dynamic
+ * CDS archive, {@code plugin.jsa}, which needs JDK 13 or later and is only
+ * usable by a server running with the same JDK and class path.
+ * <p>
+ * The files are written to the plugin archive extras directory, which the
+ * {@code package-plugin} goal adds to the archive.
+ */
+@Mojo(name = "generate-class-list", defaultPhase = LifecyclePhase.PREPARE_PACKAGE, requiresDependencyResolution = ResolutionScope.COMPILE_PLUS_RUNTIME, threadSafe = true)
+public class ClassListGenerator
+        extends AbstractMojo
+{
+    private static final List<String> PLUGIN_TYPES = ImmutableList.of(Plugin.class.getName(), CoordinatorPlugin.class.getName());
+
+    static final List<String> PARENT_FIRST_PACKAGES = ImmutableList.of(
+            "com.facebook.presto.spi.",
+            "com.facebook.presto.common.",
+            "com.fasterxml.jackson.annotation.",
+            "io.airlift.slice.",
+            "io.airlift.units.",
+            "org.openjdk.jol.",
+            "com.facebook.drift.annotations.",
+            "com.facebook.drift.TException",
+            "com.facebook.drift.TApplicationException");
+
+    @Parameter(property = "presto.classList.skip", defaultValue = "false")
+    private boolean skipClassList;
+
+    /**
+     * Also write a dynamic CDS archive with {@code -XX:ArchiveClassesAtExit}.
+     */
+    @Parameter(property = "presto.classList.archive", defaultValue = "false")
+    private boolean createArchive;
+
+    @Parameter(defaultValue = "${project.build.outputDirectory}")
+    private File classesDirectory;
+
+    @Parameter(defaultValue = "${project.build.directory}/presto-plugin/archive/cds")
+    private File outputDirectory;
+
+    @Parameter(defaultValue = "${project.build.directory}/presto-maven-plugin/class-list.classpath")
+    private File classPathFile;
+
+    /**
+     * Packages loaded from the SPI rather than the plugin, as in the Presto plugin class loader.
+     */
+    @Parameter
+    private List<String> parentFirstPackages = PARENT_FIRST_PACKAGES;
+
+    /**
+     * The java launcher of the forked JVM. Defaults to the one running Maven.
+     */
+    @Parameter(property = "presto.classList.java")
+    private String javaExecutable;
+
+    @Parameter
+    private final List<String> jvmArguments = new ArrayList<>();
+
+    @Parameter(property = "presto.classList.timeout", defaultValue = "300")
+    private int timeoutSeconds;
+
+    @Parameter(defaultValue = "${project}")
+    private MavenProject project;
+
+    @Override
+    public void execute()
+            throws MojoExecutionException, MojoFailureException
+    {
+        if (skipClassList) {
+            getLog().info("Skipping class list generation");
+            return;
+        }
+
+        ForkedPlugin plugin = ForkedPlugin.of(project, classesDirectory, PLUGIN_TYPES);
+        List<String> pluginClasses = plugin.getPluginClasses();
+        if (pluginClasses.isEmpty()) {
+            getLog().info("No service descriptor for a Presto plugin, skipping class list generation");
+            return;
+        }
+
+        File classList = new File(outputDirectory, "classlist");
+        File pluginClassList = new File(outputDirectory, "plugin-classes.txt");
+        File archive = new File(outputDirectory, "plugin.jsa");
+        List<String> jvmOptions = new ArrayList<>(jvmArguments);
+        jvmOptions.add("-XX:DumpLoadedClassList=" + classList.getAbsolutePath());
+        if (createArchive) {
+            jvmOptions.add("-XX:ArchiveClassesAtExit=" + archive.getAbsolutePath());
+        }
+
+        try {
+            Files.createDirectories(outputDirectory.toPath());
+            Files.deleteIfExists(classList.toPath());
+            Files.deleteIfExists(pluginClassList.toPath());
+            Files.deleteIfExists(archive.toPath());
+            CacheFiles.write(classPathFile, Joiner.on('\n').join(plugin.getPluginClassPath()).getBytes(UTF_8));
+        }
+        catch (IOException e) {
+            throw new MojoExecutionException(format("Failed to prepare %s", outputDirectory), e);
+        }
+
+        new ForkedJvm(javaExecutable, jvmOptions, timeoutSeconds, getLog()).run(
+                plugin.getParentClassPath(),
+                PluginClassListProbe.class,
+                ImmutableList.of(
+                        Joiner.on(',').join(pluginClasses),
+                        classPathFile.getAbsolutePath(),
+                        Joiner.on(',').join(parentFirstPackages),
+                        pluginClassList.getAbsolutePath()));
+
+        if (!classList.isFile() || !pluginClassList.isFile() || (createArchive && !archive.isFile())) {
+            throw new MojoExecutionException(format("%n%nThe forked JVM did not write the class list to %s. Check that %s supports %s.", outputDirectory, javaExecutable == null ? "the JDK running Maven" : javaExecutable, Joiner.on(" and ").join(jvmOptions.subList(jvmArguments.size(), jvmOptions.size()))));
+        }
+        getLog().info(format("Wrote class list for %s to %s", Joiner.on(", ").join(pluginClasses), outputDirectory));
+    }
+}
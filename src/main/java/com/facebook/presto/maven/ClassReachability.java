@@ -0,0 +1,302 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.maven;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Finds the classes of a class path that can be reached from a set of root
+ * classes by following {@link ClassReferences}. A class is found where the
+ * class loader would find it, in the first source that has it; classes
+ * outside the class path, such as the JDK and the SPI, end the walk.
+ * <p>
+ * Two kinds of edges that bytecode does not show can be followed as well.
+ * Reaching a type that has {@code META-INF/services} providers on the class
+ * path reaches the providers, as {@link java.util.ServiceLoader} would. And
+ * with string edges, a string constant that is the name of a class on the
+ * class path reaches that class, which covers most {@link Class#forName} use.
+ * <p>
+ * The {@code META-INF/versions} variants of a class in a multi-release jar
+ * are part of that class: reaching it follows the references of every one.
+ */
+final class ClassReachability
+        implements Closeable
+{
+    private static final String SERVICES = "META-INF/services/";
+
+    private final List<Source> sources;
+    private final Map<String, Source> owners = new HashMap<>();
+    // the entries of each class in its owner: the class file and any multi-release variants
+    private final Map<String, List<String>> classEntries = new HashMap<>();
+    private final Map<String, List<Source>> serviceFiles = new HashMap<>();
+    private final Map<Source, ZipFile> openJars = new HashMap<>();
+
+    public ClassReachability(List<Source> sources)
+    {
+        this.sources = ImmutableList.copyOf(checkNotNull(sources, "sources is null"));
+        for (Source source : this.sources) {
+            Set<String> classes = new HashSet<>();
+            for (int i = 0; i < source.index.size(); i++) {
+                String name = source.index.getName(i);
+                if (name.startsWith(SERVICES) && name.indexOf('/', SERVICES.length()) < 0 && name.length() > SERVICES.length()) {
+                    serviceFiles.computeIfAbsent(name.substring(SERVICES.length()), key -> new ArrayList<>()).add(source);
+                }
+                String className = JarIndex.toClassName(name);
+                if (className != null) {
+                    if (classes.add(className)) {
+                        source.classCount++;
+                    }
+                    if (owners.computeIfAbsent(className, key -> source) == source) {
+                        classEntries.computeIfAbsent(className, key -> new ArrayList<>()).add(name);
+                    }
+                }
+            }
+        }
+    }
+
+    public List<Source> getSources()
+    {
+        return sources;
+    }
+
+    /**
+     * Returns the classes on the class path whose names, with dots replaced by
+     * slashes, match the pattern. A {@code null} pattern matches nothing.
+     */
+    public Set<String> findClasses(Pattern pattern)
+    {
+        Set<String> classes = new HashSet<>();
+        if (pattern != null) {
+            for (String className : owners.keySet()) {
+                if (pattern.matcher(className.replace('.', '/')).matches()) {
+                    classes.add(className);
+                }
+            }
+        }
+        return classes;
+    }
+
+    /**
+     * Walks the class path from the roots, counting the classes reached in each
+     * source. Roots that are not on the class path are ignored. Returns the
+     * classes reached.
+     */
+    public Set<String> walk(Collection<String> roots, boolean followServiceProviders, boolean followStrings, BuildMetrics metrics)
+            throws IOException
+    {
+        for (Source source : sources) {
+            source.reachedCount = 0;
+        }
+        Set<String> reached = new HashSet<>();
+        Deque<String> pending = new ArrayDeque<>();
+        for (String root : roots) {
+            reach(root, reached, pending);
+        }
+
+        while (!pending.isEmpty()) {
+            String className = pending.removeFirst();
+            Source source = owners.get(className);
+            // the JVM picks the variant of a multi-release jar at runtime, so follow all of them
+            for (String entryName : classEntries.get(className)) {
+                ClassReferences references;
+                try {
+                    references = ClassReferences.read(readEntry(source, entryName));
+                }
+                catch (IOException e) {
+                    throw new IOException(format("Failed to read %s from %s", entryName, source.location), e);
+                }
+                metrics.add("classFilesParsed", 1);
+                for (String referenced : references.getClasses()) {
+                    reach(referenced, reached, pending);
+                }
+                if (followStrings) {
+                    for (String value : references.getStrings()) {
+                        if (reach(value.replace('/', '.'), reached, pending)) {
+                            metrics.add("stringEdges", 1);
+                        }
+                    }
+                }
+            }
+            if (followServiceProviders && serviceFiles.containsKey(className)) {
+                for (Source provider : serviceFiles.get(className)) {
+                    for (String providerClass : readServiceFile(provider, className)) {
+                        if (reach(providerClass, reached, pending)) {
+                            metrics.add("serviceEdges", 1);
+                        }
+                    }
+                }
+            }
+        }
+        metrics.add("classesReached", reached.size());
+        return reached;
+    }
+
+    /**
+     * Returns the providers registered for service types that are not on the class
+     * path, such as JDK or SPI types. A walk never reaches these types, but the
+     * platform or the server may load their providers.
+     */
+    public Set<String> findExternalServiceProviders()
+            throws IOException
+    {
+        Set<String> providers = new HashSet<>();
+        for (Map.Entry<String, List<Source>> entry : serviceFiles.entrySet()) {
+            if (owners.containsKey(entry.getKey())) {
+                continue;
+            }
+            for (Source source : entry.getValue()) {
+                providers.addAll(readServiceFile(source, entry.getKey()));
+            }
+        }
+        return providers;
+    }
+
+    private boolean reach(String className, Set<String> reached, Deque<String> pending)
+    {
+        Source source = owners.get(className);
+        if (source == null || !reached.add(className)) {
+            return false;
+        }
+        source.reachedCount++;
+        pending.addLast(className);
+        return true;
+    }
+
+    private List<String> readServiceFile(Source source, String serviceType)
+            throws IOException
+    {
+        List<String> providers = new ArrayList<>();
+        for (String line : new String(readEntry(source, SERVICES + serviceType), UTF_8).split("\n")) {
+            int comment = line.indexOf('#');
+            String provider = ((comment < 0) ? line : line.substring(0, comment)).trim();
+            if (!provider.isEmpty()) {
+                providers.add(provider);
+            }
+        }
+        return providers;
+    }
+
+    private byte[] readEntry(Source source, String entryName)
+            throws IOException
+    {
+        if (source.location.isDirectory()) {
+            return Files.readAllBytes(new File(source.location, entryName).toPath());
+        }
+        ZipFile zip = openJars.get(source);
+        if (zip == null) {
+            zip = new ZipFile(source.location);
+            openJars.put(source, zip);
+        }
+        ZipEntry entry = zip.getEntry(entryName);
+        if (entry == null) {
+            throw new IOException(format("%s is listed in the index of %s but missing from it", entryName, source.location));
+        }
+        try (InputStream input = zip.getInputStream(entry)) {
+            return ByteStreams.toByteArray(input);
+        }
+    }
+
+    @Override
+    public void close()
+            throws IOException
+    {
+        IOException failure = null;
+        for (ZipFile zip : openJars.values()) {
+            try {
+                zip.close();
+            }
+            catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        openJars.clear();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * A jar or classes directory on the class path, with the number of classes
+     * it holds and, after a walk, the number of them that were reached.
+     */
+    static final class Source
+    {
+        private final String name;
+        private final File location;
+        private final JarIndex index;
+        private int classCount;
+        private int reachedCount;
+
+        public Source(String name, File location, JarIndex index)
+        {
+            this.name = checkNotNull(name, "name is null");
+            this.location = checkNotNull(location, "location is null");
+            this.index = checkNotNull(index, "index is null");
+        }
+
+        public String getName()
+        {
+            return name;
+        }
+
+        public File getLocation()
+        {
+            return location;
+        }
+
+        public JarIndex getIndex()
+        {
+            return index;
+        }
+
+        public int getClassCount()
+        {
+            return classCount;
+        }
+
+        /**
+         * Number of classes reached in this source. Classes shadowed by an
+         * earlier source count towards the total but are never reached.
+         */
+        public int getReachedCount()
+        {
+            return reachedCount;
+        }
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.maven;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static com.facebook.presto.maven.ClassFileHeader.CONSTANT_CLASS;
+import static com.facebook.presto.maven.ClassFileHeader.CONSTANT_DOUBLE;
+import static com.facebook.presto.maven.ClassFileHeader.CONSTANT_DYNAMIC;
+import static com.facebook.presto.maven.ClassFileHeader.CONSTANT_FIELD_REF;
+import static com.facebook.presto.maven.ClassFileHeader.CONSTANT_FLOAT;
+import static com.facebook.presto.maven.ClassFileHeader.CONSTANT_INTEGER;
+import static com.facebook.presto.maven.ClassFileHeader.CONSTANT_INTERFACE_METHOD_REF;
+import static com.facebook.presto.maven.ClassFileHeader.CONSTANT_INVOKE_DYNAMIC;
+import static com.facebook.presto.maven.ClassFileHeader.CONSTANT_LONG;
+import static com.facebook.presto.maven.ClassFileHeader.CONSTANT_METHOD_HANDLE;
+import static com.facebook.presto.maven.ClassFileHeader.CONSTANT_METHOD_REF;
+import static com.facebook.presto.maven.ClassFileHeader.CONSTANT_METHOD_TYPE;
+import static com.facebook.presto.maven.ClassFileHeader.CONSTANT_MODULE;
+import static com.facebook.presto.maven.ClassFileHeader.CONSTANT_NAME_AND_TYPE;
+import static com.facebook.presto.maven.ClassFileHeader.CONSTANT_PACKAGE;
+import static com.facebook.presto.maven.ClassFileHeader.CONSTANT_STRING;
+import static com.facebook.presto.maven.ClassFileHeader.CONSTANT_UTF8;
+import static com.facebook.presto.maven.ClassFileHeader.MAGIC;
+import static com.facebook.presto.maven.ClassFileHeader.skip;
+import static java.lang.String.format;
+
+/**
+ * The classes a class file refers to, read from its constant pool: class
+ * entries, which cover supertypes, instantiation, casts and static access,
+ * and every type in a field, method or annotation descriptor. Generic
+ * signatures are not followed, since erased types are already in the
+ * descriptors. String constants are kept apart, as they may name classes
+ * loaded by reflection.
+ */
+final class ClassReferences
+{
+    private final String name;
+    private final Set<String> classes;
+    private final List<String> strings;
+
+    private ClassReferences(String name, Set<String> classes, List<String> strings)
+    {
+        this.name = name;
+        this.classes = ImmutableSet.copyOf(classes);
+        this.strings = ImmutableList.copyOf(strings);
+    }
+
+    /**
+     * Binary name of the class itself.
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * Binary names of the referenced classes, without the class itself.
+     */
+    public Set<String> getClasses()
+    {
+        return classes;
+    }
+
+    public List<String> getStrings()
+    {
+        return strings;
+    }
+
+    public static ClassReferences read(byte[] classFile)
+            throws IOException
+    {
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(classFile));
+        if (input.readInt() != MAGIC) {
+            throw new IOException("Not a class file: bad magic number");
+        }
+        input.readUnsignedShort(); // minor_version
+        input.readUnsignedShort(); // major_version
+
+        int constantPoolCount = input.readUnsignedShort();
+        String[] utf8 = new String[constantPoolCount];
+        int[] classNameIndex = new int[constantPoolCount];
+        int[] stringIndex = new int[constantPoolCount];
+        for (int i = 1; i < constantPoolCount; i++) {
+            int tag = input.readUnsignedByte();
+            switch (tag) {
+                case CONSTANT_UTF8:
+                    utf8[i] = input.readUTF();
+                    break;
+                case CONSTANT_CLASS:
+                    classNameIndex[i] = input.readUnsignedShort();
+                    break;
+                case CONSTANT_STRING:
+                    stringIndex[i] = input.readUnsignedShort();
+                    break;
+                case CONSTANT_METHOD_TYPE:
+                case CONSTANT_MODULE:
+                case CONSTANT_PACKAGE:
+                    skip(input, 2);
+                    break;
+                case CONSTANT_METHOD_HANDLE:
+                    skip(input, 3);
+                    break;
+                case CONSTANT_INTEGER:
+                case CONSTANT_FLOAT:
+                case CONSTANT_FIELD_REF:
+                case CONSTANT_METHOD_REF:
+                case CONSTANT_INTERFACE_METHOD_REF:
+                case CONSTANT_NAME_AND_TYPE:
+                case CONSTANT_DYNAMIC:
+                case CONSTANT_INVOKE_DYNAMIC:
+                    skip(input, 4);
+                    break;
+                case CONSTANT_LONG:
+                case CONSTANT_DOUBLE:
+                    skip(input, 8);
+                    // eight-byte constants take up two entries in the pool
+                    i++;
+                    break;
+                default:
+                    throw new IOException(format("Not a class file: unknown constant pool tag %s at index %s", tag, i));
+            }
+        }
+
+        input.readUnsignedShort(); // access_flags
+        int thisClass = input.readUnsignedShort();
+        if (thisClass <= 0 || thisClass >= constantPoolCount || classNameIndex[thisClass] == 0 || utf8[classNameIndex[thisClass]] == null) {
+            throw new IOException(format("Not a class file: invalid class reference %s", thisClass));
+        }
+        String name = utf8[classNameIndex[thisClass]];
+
+        // Utf8 entries that hold class names or string values, rather than descriptors
+        boolean[] names = new boolean[constantPoolCount];
+        Set<String> classes = new HashSet<>();
+        ImmutableList.Builder<String> strings = ImmutableList.builder();
+        for (int i = 1; i < constantPoolCount; i++) {
+            if (isUtf8(utf8, classNameIndex[i])) {
+                String className = utf8[classNameIndex[i]];
+                names[classNameIndex[i]] = true;
+                if (className.startsWith("[")) {
+                    addDescriptorTypes(className, classes);
+                }
+                else {
+                    classes.add(className);
+                }
+            }
+            else if (isUtf8(utf8, stringIndex[i])) {
+                strings.add(utf8[stringIndex[i]]);
+                names[stringIndex[i]] = true;
+            }
+        }
+        // descriptors are only referenced from members and attributes, which are not parsed, so
+        // every other Utf8 entry that is a well-formed descriptor is taken as one
+        for (int i = 1; i < constantPoolCount; i++) {
+            if (utf8[i] != null && !names[i]) {
+                addDescriptorTypes(utf8[i], classes);
+            }
+        }
+
+        classes.remove(name);
+        ImmutableSet.Builder<String> binaryNames = ImmutableSet.builder();
+        for (String className : classes) {
+            binaryNames.add(className.replace('/', '.'));
+        }
+        return new ClassReferences(name.replace('/', '.'), binaryNames.build(), strings.build());
+    }
+
+    private static boolean isUtf8(String[] utf8, int index)
+    {
+        return index > 0 && index < utf8.length && utf8[index] != null;
+    }
+
+    /**
+     * Adds the class types of a field or method descriptor, if the value is one.
+     */
+    private static void addDescriptorTypes(String value, Set<String> classes)
+    {
+        if (value.isEmpty() || (value.charAt(0) != '(' && value.charAt(0) != '[' && value.charAt(0) != 'L')) {
+            return;
+        }
+        Set<String> types = new HashSet<>();
+        int position = 0;
+        boolean method = value.charAt(0) == '(';
+        if (method) {
+            position++;
+        }
+        while (position < value.length()) {
+            char c = value.charAt(position);
+            if (method && c == ')') {
+                method = false;
+                position++;
+                continue;
+            }
+            while (c == '[' && position + 1 < value.length()) {
+                c = value.charAt(++position);
+            }
+            if (c == 'L') {
+                int end = value.indexOf(';', position);
+                if (end < 0 || end == position + 1) {
+                    return;
+                }
+                String type = value.substring(position + 1, end);
+                if (type.indexOf('.') >= 0 || type.indexOf('<') >= 0) {
+                    return;
+                }
+                types.add(type);
+                position = end + 1;
+            }
+            else if ("BCDFIJSZV".indexOf(c) >= 0) {
+                position++;
+            }
+            else {
+                return;
+            }
+        }
+        if (!method) {
+            classes.addAll(types);
+        }
+    }
+}
@@ -0,0 +1,372 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.maven;
+
+import com.facebook.presto.maven.ClassReachability.Source;
+import com.google.common.io.ByteStreams;
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+import org.apache.maven.project.MavenProject;
+import org.eclipse.aether.RepositorySystemSession;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static java.lang.String.format;
+
+/**
+ * Mojo that writes copies of the jars bundled with a Presto plugin that only
+ * hold the classes the plugin can reach. The walk is the one of
+ * {@link ReachabilityAnalyzer}: it starts at the classes listed in the service
+ * descriptors of the project and at the classes matching a keep rule, and
+ * follows class references, service providers and class names in string
+ * constants. Providers registered for service types outside the bundled jars,
+ * such as JDK types, are kept as well, since the platform may load them.
+ * <p>
+ * Resources and the manifest are kept as they are, so signatures of signed
+ * jars stay valid for the entries that remain. The copies are written to the
+ * {@linkplain PluginLayout#getMinimizedDirectory minimized directory}, with
+ * entries sorted by name and a fixed timestamp, and goals that lay out the
+ * plugin read a dependency from its copy. Jars of which every class is
+ * reached get no copy.
+ * <p>
+ * The copies are used by the {@code presto-plugin-native} packaging, and by
+ * deploy-exploded and watch. The provisio assembly of the
+ * {@code presto-plugin} packaging bundles the resolved artifacts as they are,
+ * so the goal fails there instead of writing copies nothing reads.
+ */
+@Mojo(name = "minimize-dependencies",
+        defaultPhase = LifecyclePhase.PREPARE_PACKAGE,
+        requiresDependencyResolution = ResolutionScope.RUNTIME,
+        threadSafe = true)
+public class DependencyMinimizer
+        extends AbstractMojo
+{
+    private static final String MANIFEST = "META-INF/MANIFEST.MF";
+    private static final String PROVISIO_PACKAGING = "presto-plugin";
+
+    @Parameter(property = "presto.minimize.skip", defaultValue = "false")
+    private boolean skip;
+
+    /**
+     * Classes that are always kept, as binary names that may use {@code *}
+     * within a package and {@code **} across packages, e.g. {@code org.postgresql.**}.
+     */
+    @Parameter
+    private final Set<String> keepRules = new HashSet<>();
+
+    /**
+     * Dependencies, as {@code groupId:artifactId}, that are bundled as they are.
+     */
+    @Parameter
+    private final Set<String> excludes = new HashSet<>();
+
+    /**
+     * Whether reaching a service type reaches the providers registered for it in {@code META-INF/services}.
+     */
+    @Parameter(defaultValue = "true")
+    private boolean followServiceProviders;
+
+    /**
+     * Whether a string constant that names a class reaches that class.
+     */
+    @Parameter(defaultValue = "true")
+    private boolean followStringConstants;
+
+    /**
+     * Whether providers of service types that are not bundled with the plugin, such as JDK types, are kept.
+     */
+    @Parameter(defaultValue = "true")
+    private boolean keepExternalServiceProviders;
+
+    /**
+     * Timestamp of every entry of the minimized jars, as ISO-8601 or seconds since the epoch.
+     * Defaults to the earliest time a zip can record.
+     */
+    @Parameter(defaultValue = "${project.build.outputTimestamp}")
+    private String outputTimestamp;
+
+    /**
+     * Number of threads writing minimized jars. Zero uses one thread per available processor,
+     * divided among the modules a parallel build runs at once.
+     */
+    @Parameter(property = "presto.minimize.parallelism", defaultValue = "0")
+    private int parallelism;
+
+    @Parameter(defaultValue = "${project.build.outputDirectory}")
+    private File classesDirectory;
+
+    @Parameter(defaultValue = "${project}")
+    private MavenProject project;
+
+    @Parameter(defaultValue = "${session}", readonly = true)
+    private MavenSession session;
+
+    @Parameter(defaultValue = "${repositorySystemSession}")
+    private RepositorySystemSession repositorySession;
+
+    @Override
+    public void execute()
+            throws MojoExecutionException, MojoFailureException
+    {
+        if (skip) {
+            getLog().info("Skipping dependency minimization");
+            return;
+        }
+        if (PROVISIO_PACKAGING.equals(project.getPackaging())) {
+            throw new MojoExecutionException(format("%n%nminimize-dependencies has no effect on %s: the %s packaging bundles dependencies with provisio, which does not read minimized copies. Use the presto-plugin-native packaging.", project.getArtifactId(), PROVISIO_PACKAGING));
+        }
+
+        BuildMetrics metrics = new BuildMetrics();
+        try {
+            minimize(metrics);
+        }
+        finally {
+            metrics.write(project, "minimize-dependencies", getLog());
+        }
+    }
+
+    private void minimize(BuildMetrics metrics)
+            throws MojoExecutionException
+    {
+        Instant timestamp = PluginPackager.parseTimestamp(outputTimestamp);
+        Set<String> roots = ReachabilityAnalyzer.readServiceProviders(classesDirectory, "minimize-dependencies");
+        List<Source> sources;
+        try (BuildMetrics.Timer ignored = metrics.time("index")) {
+            sources = ReachabilityAnalyzer.indexSources(project, classesDirectory, repositorySession);
+        }
+
+        Set<String> reached;
+        try (ClassReachability reachability = new ClassReachability(sources);
+                BuildMetrics.Timer ignored = metrics.time("walk")) {
+            Set<String> start = ReachabilityAnalyzer.getStartClasses(reachability, roots, keepRules);
+            if (keepExternalServiceProviders) {
+                start.addAll(reachability.findExternalServiceProviders());
+            }
+            reached = reachability.walk(start, followServiceProviders, followStringConstants, metrics);
+        }
+        catch (IOException e) {
+            throw new MojoExecutionException("Failed to analyze the classes reachable from the plugin.", e);
+        }
+
+        Map<File, Artifact> artifacts = new HashMap<>();
+        for (Artifact artifact : project.getArtifacts()) {
+            if (artifact.getFile() != null) {
+                artifacts.put(artifact.getFile(), artifact);
+            }
+        }
+
+        File directory = PluginLayout.getMinimizedDirectory(project);
+        List<MinimizedJar> jars = new ArrayList<>();
+        Set<String> written = new HashSet<>();
+        try (BuildMetrics.Timer ignored = metrics.time("write")) {
+            Files.createDirectories(directory.toPath());
+            ForkJoinPool pool = new ForkJoinPool(getParallelism());
+            try {
+                List<ForkJoinTask<MinimizedJar>> tasks = new ArrayList<>();
+                for (Source source : sources.subList(1, sources.size())) {
+                    Artifact artifact = artifacts.get(source.getLocation());
+                    if (artifact == null || !source.getLocation().isFile() || source.getClassCount() == 0 || excludes.contains(artifact.getGroupId() + ":" + artifact.getArtifactId())) {
+                        continue;
+                    }
+                    File target = new File(directory, PluginLayout.getFileName(artifact));
+                    tasks.add(pool.submit(() -> minimize(source, reached, target, timestamp)));
+                }
+                for (ForkJoinTask<MinimizedJar> task : tasks) {
+                    MinimizedJar jar = task.get();
+                    jars.add(jar);
+                    if (jar.isWritten()) {
+                        written.add(jar.target.getName());
+                    }
+                }
+            }
+            finally {
+                pool.shutdownNow();
+                pool.awaitTermination(1, TimeUnit.MINUTES);
+            }
+
+            // copies left from earlier builds would otherwise replace dependencies that are now bundled as they are
+            File[] stale = directory.listFiles(file -> !written.contains(file.getName()));
+            for (File file : (stale == null) ? new File[0] : stale) {
+                Files.delete(file.toPath());
+            }
+        }
+        catch (ExecutionException e) {
+            throw new MojoExecutionException("Failed to write minimized plugin dependencies.", e.getCause());
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException("Interrupted while writing minimized plugin dependencies.", e);
+        }
+        catch (IOException e) {
+            throw new MojoExecutionException(format("%n%nFailed to write minimized plugin dependencies to %s.", directory), e);
+        }
+
+        report(jars, metrics);
+    }
+
+    private static MinimizedJar minimize(Source source, Set<String> reached, File target, Instant timestamp)
+            throws IOException
+    {
+        JarIndex index = source.getIndex();
+        List<String> names = new ArrayList<>();
+        // multi-release variants share the name of their base class, so they are kept or pruned with it
+        Set<String> classes = new HashSet<>();
+        Set<String> kept = new HashSet<>();
+        for (int i = 0; i < index.size(); i++) {
+            String name = index.getName(i);
+            if (name.endsWith("/")) {
+                continue;
+            }
+            String className = JarIndex.toClassName(name);
+            if (className != null) {
+                classes.add(className);
+                if (!reached.contains(className)) {
+                    continue;
+                }
+                kept.add(className);
+            }
+            names.add(name);
+        }
+        MinimizedJar jar = new MinimizedJar(target.getName(), target, classes.size(), kept.size(), source.getLocation().length());
+        if (kept.size() == classes.size()) {
+            return jar;
+        }
+
+        // the manifest comes first so that JarInputStream finds it
+        names.sort(Comparator.comparing((String name) -> !name.equals(MANIFEST)).thenComparing(Comparator.naturalOrder()));
+        Path temporary = Files.createTempFile(target.getParentFile().toPath(), target.getName(), ".tmp");
+        try {
+            try (ZipFile zip = new ZipFile(source.getLocation());
+                    PluginZipWriter writer = new PluginZipWriter(temporary, timestamp)) {
+                for (String name : names) {
+                    ZipEntry entry = zip.getEntry(name);
+                    if (entry == null) {
+                        throw new IOException(format("%s is listed in the index of %s but missing from it", name, source.getLocation()));
+                    }
+                    try (InputStream input = zip.getInputStream(entry)) {
+                        writer.writeDeflated(name, PluginZipWriter.deflate(ByteStreams.toByteArray(input)));
+                    }
+                }
+            }
+            jar.minimizedBytes = Files.size(temporary);
+            // leave an identical copy untouched so later incremental steps see no change
+            if (target.isFile() && Arrays.equals(Files.readAllBytes(temporary), Files.readAllBytes(target.toPath()))) {
+                jar.unchanged = true;
+            }
+            else {
+                CacheFiles.replace(temporary, target.toPath());
+            }
+        }
+        finally {
+            Files.deleteIfExists(temporary);
+        }
+        return jar;
+    }
+
+    private void report(List<MinimizedJar> jars, BuildMetrics metrics)
+    {
+        jars.sort(Comparator.comparingLong(MinimizedJar::getSavedBytes).reversed().thenComparing(jar -> jar.name));
+        long originalBytes = 0;
+        long minimizedBytes = 0;
+        int minimized = 0;
+        StringBuilder details = new StringBuilder();
+        for (MinimizedJar jar : jars) {
+            originalBytes += jar.originalBytes;
+            if (!jar.isWritten()) {
+                minimizedBytes += jar.originalBytes;
+                details.append(format("%n  %6s of %6s classes  %28s  %s", jar.keptCount, jar.classCount, "every class reached", jar.name));
+                continue;
+            }
+            minimized++;
+            minimizedBytes += jar.minimizedBytes;
+            details.append(format("%n  %6s of %6s classes  %8s -> %8s KB  %5.1f%% saved  %s%s",
+                    jar.keptCount,
+                    jar.classCount,
+                    jar.originalBytes / 1024,
+                    jar.minimizedBytes / 1024,
+                    100.0 * jar.getSavedBytes() / jar.originalBytes,
+                    jar.name,
+                    jar.unchanged ? " (unchanged)" : ""));
+        }
+        metrics.add("jarsMinimized", minimized);
+        metrics.add("bytesSaved", originalBytes - minimizedBytes);
+
+        // one message, so that modules of a parallel build do not interleave their reports
+        getLog().info(format("Minimized %s of %s bundled jars from %s KB to %s KB:%s", minimized, jars.size(), originalBytes / 1024, minimizedBytes / 1024, details));
+    }
+
+    private int getParallelism()
+    {
+        if (parallelism > 0) {
+            return parallelism;
+        }
+        return Math.max(1, Runtime.getRuntime().availableProcessors() / Math.max(1, session.getRequest().getDegreeOfConcurrency()));
+    }
+
+    private static final class MinimizedJar
+    {
+        private final String name;
+        private final File target;
+        private final int classCount;
+        private final int keptCount;
+        private final long originalBytes;
+        private long minimizedBytes;
+        private boolean unchanged;
+
+        private MinimizedJar(String name, File target, int classCount, int keptCount, long originalBytes)
+        {
+            this.name = name;
+            this.target = target;
+            this.classCount = classCount;
+            this.keptCount = keptCount;
+            this.originalBytes = originalBytes;
+        }
+
+        private boolean isWritten()
+        {
+            return keptCount < classCount;
+        }
+
+        private long getSavedBytes()
+        {
+            return isWritten() ? originalBytes - minimizedBytes : 0;
+        }
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.maven;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Component;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+import org.apache.maven.project.MavenProject;
+import org.eclipse.aether.RepositorySystem;
+import org.eclipse.aether.RepositorySystemSession;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+import static java.lang.String.format;
+
+/**
+ * Mojo that finds classes and resources packaged more than once in the runtime
+ * classpath of a Presto plugin, and classes in it that shadow classes provided
+ * to the plugin at runtime. Only presto-spi and its dependencies, as
+ * determined for check-spi-dependencies, are provided by the server; other
+ * provided dependencies are neither bundled nor loaded parent-first.
+ */
+@Mojo(name = "check-duplicate-classes",
+        defaultPhase = LifecyclePhase.PROCESS_CLASSES,
+        requiresDependencyResolution = ResolutionScope.COMPILE_PLUS_RUNTIME,
+        threadSafe = true)
+public class DuplicateClassChecker
+        extends AbstractMojo
+{
+    private static final int MAX_LISTED_ENTRIES = 10;
+    private static final List<String> DEFAULT_IGNORED_RESOURCES = ImmutableList.of(
+            "module-info.class",
+            "META-INF/versions/*/module-info.class",
+            "META-INF/MANIFEST.MF",
+            "META-INF/INDEX.LIST",
+            "META-INF/*.SF",
+            "META-INF/*.DSA",
+            "META-INF/*.RSA",
+            "META-INF/*.EC",
+            "META-INF/maven/**",
+            "META-INF/services/**",
+            "META-INF/LICENSE*",
+            "META-INF/NOTICE*",
+            "META-INF/DEPENDENCIES*",
+            "LICENSE*",
+            "NOTICE*");
+
+    @Parameter(defaultValue = "false")
+    private boolean skipCheckDuplicateClasses;
+
+    @Parameter(defaultValue = "true")
+    private boolean failOnDuplicates;
+
+    /**
+     * Additional entries to ignore, as paths that may use {@code *} within a
+     * path segment and {@code **} across segments.
+     */
+    @Parameter
+    private final Set<String> ignoredResources = new HashSet<>();
+
+    @Parameter(defaultValue = "${project.build.outputDirectory}")
+    private File classesDirectory;
+
+    @Parameter(defaultValue = "${project}")
+    private MavenProject project;
+
+    @Parameter(defaultValue = "${repositorySystemSession}")
+    private RepositorySystemSession repositorySession;
+
+    @Component
+    private RepositorySystem repositorySystem;
+
+    @Override
+    public void execute()
+            throws MojoExecutionException, MojoFailureException
+    {
+        if (skipCheckDuplicateClasses) {
+            getLog().info("Skipping duplicate class checks");
+            return;
+        }
+
+        BuildMetrics metrics = new BuildMetrics();
+        try {
+            check(metrics);
+        }
+        finally {
+            metrics.write(project, "check-duplicate-classes", getLog());
+        }
+    }
+
+    private void check(BuildMetrics metrics)
+            throws MojoExecutionException
+    {
+        Set<String> spiDependencies;
+        try (BuildMetrics.Timer ignored = metrics.time("spiDependencies")) {
+            spiDependencies = new SpiDependencyResolver(repositorySystem, repositorySession, getLog()).getSpiDependencies(project, metrics);
+        }
+
+        Pattern ignored = Globs.compile(ImmutableList.<String>builder().addAll(DEFAULT_IGNORED_RESOURCES).addAll(ignoredResources).build());
+        JarIndexCache cache = JarIndexCache.forSession(repositorySession);
+
+        // entry name to every source on the plugin runtime classpath that contains it
+        Map<String, List<IndexedSource>> owners = new HashMap<>();
+        List<IndexedSource> providedSources = new ArrayList<>();
+        try {
+            if (classesDirectory.isDirectory()) {
+                addOwners(owners, new IndexedSource("project classes", JarIndex.ofDirectory(classesDirectory)), ignored);
+            }
+            for (Artifact artifact : project.getArtifacts()) {
+                if (artifact.getFile() == null) {
+                    continue;
+                }
+                if (!"provided".equals(artifact.getScope())) {
+                    addOwners(owners, new IndexedSource(artifact.getId(), cache.get(artifact.getFile())), ignored);
+                }
+                else if (SpiDependencyResolver.isSpiArtifact(artifact) || spiDependencies.contains(artifact.getGroupId() + ":" + artifact.getArtifactId())) {
+                    providedSources.add(new IndexedSource(artifact.getId(), cache.get(artifact.getFile())));
+                }
+            }
+        }
+        catch (IOException e) {
+            throw new MojoExecutionException("Failed to index plugin dependencies.", e);
+        }
+
+        int duplicates = reportDuplicates(owners);
+        int shadowed = reportShadowedClasses(owners, providedSources);
+
+        if (failOnDuplicates && (duplicates > 0 || shadowed > 0)) {
+            throw new MojoExecutionException(format("%n%nPresto plugin %s has %s duplicate classes or resources and %s classes that shadow provided classes. See the warnings above for details.", project.getArtifactId(), duplicates, shadowed));
+        }
+    }
+
+    private int reportDuplicates(Map<String, List<IndexedSource>> owners)
+    {
+        // group by the set of sources, so one conflicting pair of jars is reported once
+        Map<String, List<String>> groups = new TreeMap<>();
+        Map<String, Boolean> identical = new HashMap<>();
+        for (Map.Entry<String, List<IndexedSource>> entry : owners.entrySet()) {
+            List<IndexedSource> sources = entry.getValue();
+            if (sources.size() < 2) {
+                continue;
+            }
+            List<String> names = new ArrayList<>();
+            for (IndexedSource source : sources) {
+                names.add(source.name);
+            }
+            String group = Joiner.on(", ").join(names);
+            List<String> entries = groups.get(group);
+            if (entries == null) {
+                entries = new ArrayList<>();
+                groups.put(group, entries);
+                identical.put(group, true);
+            }
+            entries.add(entry.getKey());
+            identical.put(group, identical.get(group) && haveSameContent(entry.getKey(), sources));
+        }
+
+        int count = 0;
+        for (Map.Entry<String, List<String>> group : groups.entrySet()) {
+            List<String> entries = group.getValue();
+            count += entries.size();
+            getLog().warn(format("%s entries are packaged more than once%s, in %s:%s",
+                    entries.size(),
+                    identical.get(group.getKey()) ? " with identical content" : "",
+                    group.getKey(),
+                    describeEntries(entries)));
+        }
+        return count;
+    }
+
+    private int reportShadowedClasses(Map<String, List<IndexedSource>> owners, List<IndexedSource> providedSources)
+    {
+        int count = 0;
+        for (IndexedSource provided : providedSources) {
+            Map<String, List<String>> shadowing = new TreeMap<>();
+            for (int i = 0; i < provided.index.size(); i++) {
+                String name = provided.index.getName(i);
+                List<IndexedSource> sources = owners.get(name);
+                if (sources == null || !name.endsWith(".class")) {
+                    continue;
+                }
+                for (IndexedSource source : sources) {
+                    List<String> classes = shadowing.get(source.name);
+                    if (classes == null) {
+                        classes = new ArrayList<>();
+                        shadowing.put(source.name, classes);
+                    }
+                    classes.add(name);
+                }
+            }
+            for (Map.Entry<String, List<String>> entry : shadowing.entrySet()) {
+                count += entry.getValue().size();
+                getLog().warn(format("%s classes in %s shadow classes provided by %s:%s", entry.getValue().size(), entry.getKey(), provided.name, describeEntries(entry.getValue())));
+            }
+        }
+        return count;
+    }
+
+    private static boolean haveSameContent(String name, List<IndexedSource> sources)
+    {
+        JarIndex first = sources.get(0).index;
+        int firstEntry = first.find(name);
+        for (IndexedSource source : sources.subList(1, sources.size())) {
+            int entry = source.index.find(name);
+            if (first.getCrc(firstEntry) == -1 ||
+                    source.index.getCrc(entry) != first.getCrc(firstEntry) ||
+                    source.index.getSize(entry) != first.getSize(firstEntry)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String describeEntries(List<String> entries)
+    {
+        List<String> sorted = new ArrayList<>(entries);
+        sorted.sort(null);
+        StringBuilder description = new StringBuilder();
+        int listed = getLog().isDebugEnabled() ? sorted.size() : Math.min(sorted.size(), MAX_LISTED_ENTRIES);
+        for (String entry : sorted.subList(0, listed)) {
+            description.append(format("%n    %s", entry));
+        }
+        if (listed < sorted.size()) {
+            description.append(format("%n    ... and %s more", sorted.size() - listed));
+        }
+        return description.toString();
+    }
+
+    private static void addOwners(Map<String, List<IndexedSource>> owners, IndexedSource source, Pattern ignored)
+    {
+        for (int i = 0; i < source.index.size(); i++) {
+            String name = source.index.getName(i);
+            if (ignored.matcher(name).matches()) {
+                continue;
+            }
+            List<IndexedSource> sources = owners.get(name);
+            if (sources == null) {
+                sources = new ArrayList<>(1);
+                owners.put(name, sources);
+            }
+            sources.add(source);
+        }
+    }
+
+    private static class IndexedSource
+    {
+        private final String name;
+        private final JarIndex index;
+
+        private IndexedSource(String name, JarIndex index)
+        {
+            this.name = name;
+            this.index = index;
+        }
+    }
+}
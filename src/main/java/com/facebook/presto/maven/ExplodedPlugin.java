@@ -0,0 +1,178 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.maven;
+
+import org.apache.maven.plugin.logging.Log;
+import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.repository.LocalRepository;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystemException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.lang.String.format;
+
+/**
+ * A Presto plugin deployed as a directory of files rather than an archive.
+ * Release artifacts from the local repository are hard linked rather than
+ * copied, since Maven downloads a release once and leaves it alone. Every
+ * other file is copied with its modification time: the project jar, files on
+ * another file system, and SNAPSHOT artifacts, which each install overwrites
+ * and which a link would let a write to the deployed file reach. A sync only
+ * writes the entries that changed since the last one, and removes files the
+ * plugin no longer has. Nothing writes to a deployed file in place.
+ */
+final class ExplodedPlugin
+{
+    private final Path directory;
+    private final Path localRepository;
+    private final Log log;
+
+    public ExplodedPlugin(File directory, RepositorySystemSession repositorySession, Log log)
+    {
+        this.directory = checkNotNull(directory, "directory is null").toPath();
+        LocalRepository repository = repositorySession.getLocalRepository();
+        this.localRepository = (repository == null || repository.getBasedir() == null) ? null : repository.getBasedir().toPath().toAbsolutePath();
+        this.log = checkNotNull(log, "log is null");
+    }
+
+    public Path getDirectory()
+    {
+        return directory;
+    }
+
+    /**
+     * Makes the directory hold exactly the entries, counting the {@code linked},
+     * {@code copied}, {@code unchanged} and {@code removed} entries in the metrics.
+     */
+    public void sync(Map<String, File> entries, BuildMetrics metrics)
+            throws IOException
+    {
+        for (Map.Entry<String, File> entry : entries.entrySet()) {
+            Path source = entry.getValue().toPath();
+            Path target = directory.resolve(entry.getKey());
+            boolean linkable = isLinkable(source);
+            if (isUpToDate(source, target, linkable)) {
+                metrics.add("unchanged", 1);
+            }
+            else if (linkable && link(source, target)) {
+                metrics.add("linked", 1);
+            }
+            else {
+                copy(source, target);
+                metrics.add("copied", 1);
+            }
+        }
+
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>()
+        {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes)
+                    throws IOException
+            {
+                if (!entries.containsKey(directory.relativize(file).toString().replace(File.separatorChar, '/'))) {
+                    Files.delete(file);
+                    metrics.add("removed", 1);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path path, IOException e)
+                    throws IOException
+            {
+                if (e != null) {
+                    throw e;
+                }
+                if (!path.equals(directory)) {
+                    try (DirectoryStream<Path> children = Files.newDirectoryStream(path)) {
+                        if (!children.iterator().hasNext()) {
+                            Files.delete(path);
+                        }
+                    }
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Returns whether the source is a release in the local repository. The version
+     * directory of a SNAPSHOT ends with {@code -SNAPSHOT}, even for timestamped files.
+     */
+    private boolean isLinkable(Path source)
+    {
+        Path file = source.toAbsolutePath();
+        if (localRepository == null || !file.startsWith(localRepository)) {
+            return false;
+        }
+        Path version = file.getParent();
+        return version != null && !version.getFileName().toString().endsWith("-SNAPSHOT");
+    }
+
+    /**
+     * A deployed entry is current if it is a link to a linkable source, or a copy with the same size
+     * and modification time. A link to any other source, left by an earlier sync, is replaced by a copy.
+     */
+    private static boolean isUpToDate(Path source, Path target, boolean linkable)
+            throws IOException
+    {
+        if (!Files.isRegularFile(target)) {
+            return false;
+        }
+        if (Files.isSameFile(source, target)) {
+            return linkable;
+        }
+        return Files.size(source) == Files.size(target) && Files.getLastModifiedTime(source).equals(Files.getLastModifiedTime(target));
+    }
+
+    /**
+     * Replaces the target with a hard link to the source, or returns {@code false} if the file system cannot link them.
+     */
+    private boolean link(Path source, Path target)
+            throws IOException
+    {
+        Files.createDirectories(target.getParent());
+        // link under a temporary name, so a running server never sees the entry missing
+        Path temporary = target.resolveSibling(target.getFileName() + ".link.tmp");
+        Files.deleteIfExists(temporary);
+        try {
+            Files.createLink(temporary, source);
+        }
+        catch (UnsupportedOperationException | FileSystemException e) {
+            log.debug(format("Copying %s, since it cannot be linked: %s", target, e));
+            return false;
+        }
+        CacheFiles.replace(temporary, target);
+        return true;
+    }
+
+    private static void copy(Path source, Path target)
+            throws IOException
+    {
+        CacheFiles.copy(source.toFile(), target.toFile());
+        Files.setLastModifiedTime(target, Files.getLastModifiedTime(source));
+    }
+}
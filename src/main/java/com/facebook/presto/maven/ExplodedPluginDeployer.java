@@ -0,0 +1,99 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.maven;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+import org.apache.maven.project.MavenProject;
+import org.eclipse.aether.RepositorySystemSession;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+import static java.lang.String.format;
+
+/**
+ * Mojo that deploys a Presto plugin to the {@code plugin} directory of a
+ * local server as an exploded directory, for a quick edit, build and restart
+ * loop. The directory holds the files the plugin archive would, laid out by
+ * {@link PluginLayout}, and is synced as an {@link ExplodedPlugin}, so
+ * release dependencies are hard linked from the local repository and only
+ * changed entries are written.
+ */
+@Mojo(name = "deploy-exploded", defaultPhase = LifecyclePhase.PACKAGE, requiresDependencyResolution = ResolutionScope.RUNTIME, threadSafe = true)
+public class ExplodedPluginDeployer
+        extends AbstractMojo
+{
+    /**
+     * The plugin directory of the server. The plugin is deployed to a subdirectory named {@code pluginName}.
+     */
+    @Parameter(property = "presto.deploy.directory", required = true)
+    private File deployDirectory;
+
+    @Parameter(property = "presto.deploy.pluginName", defaultValue = "${project.artifactId}")
+    private String pluginName;
+
+    @Parameter(defaultValue = "${project.build.directory}/${project.build.finalName}.jar")
+    private File jarFile;
+
+    @Parameter(defaultValue = "${project}")
+    private MavenProject project;
+
+    @Parameter(defaultValue = "${repositorySystemSession}")
+    private RepositorySystemSession repositorySession;
+
+    @Override
+    public void execute()
+            throws MojoExecutionException, MojoFailureException
+    {
+        BuildMetrics metrics = new BuildMetrics();
+        try {
+            deploy(metrics);
+        }
+        finally {
+            metrics.write(project, "deploy-exploded", getLog());
+        }
+    }
+
+    private void deploy(BuildMetrics metrics)
+            throws MojoExecutionException
+    {
+        Map<String, File> entries;
+        try (BuildMetrics.Timer ignored = metrics.time("layout")) {
+            entries = PluginLayout.getRuntimeClasspath(project, jarFile);
+        }
+
+        ExplodedPlugin plugin = new ExplodedPlugin(new File(deployDirectory, pluginName), repositorySession, getLog());
+        try (BuildMetrics.Timer ignored = metrics.time("sync")) {
+            plugin.sync(entries, metrics);
+        }
+        catch (IOException e) {
+            throw new MojoExecutionException(format("Failed to deploy Presto plugin to %s", plugin.getDirectory()), e);
+        }
+
+        getLog().info(format("Deployed %s to %s: %s linked, %s copied, %s unchanged, %s removed",
+                pluginName,
+                plugin.getDirectory(),
+                metrics.counter("linked").sum(),
+                metrics.counter("copied").sum(),
+                metrics.counter("unchanged").sum(),
+                metrics.counter("removed").sum()));
+    }
+}
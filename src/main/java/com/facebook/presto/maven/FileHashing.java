@@ -0,0 +1,47 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.maven;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+
+final class FileHashing
+{
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private FileHashing() {}
+
+    /**
+     * Hashes the contents of a file without holding all of it in memory.
+     */
+    public static HashCode hash(File file, HashFunction function)
+            throws IOException
+    {
+        Hasher hasher = function.newHasher();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream input = Files.newInputStream(file.toPath())) {
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                hasher.putBytes(buffer, 0, read);
+            }
+        }
+        return hasher.hash();
+    }
+}
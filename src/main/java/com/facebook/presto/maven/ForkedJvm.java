@@ -0,0 +1,132 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.maven;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URISyntaxException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Runs a main class of this plugin in a separate JVM, for work that must not
+ * see the classes loaded into the Maven JVM.
+ */
+final class ForkedJvm
+{
+    private static final int OUTPUT_LINES_KEPT = 20;
+
+    private final String javaExecutable;
+    private final List<String> jvmArguments;
+    private final long timeoutSeconds;
+    private final Log log;
+
+    /**
+     * @param javaExecutable the java launcher to use, or {@code null} for the one running Maven
+     */
+    public ForkedJvm(String javaExecutable, List<String> jvmArguments, long timeoutSeconds, Log log)
+    {
+        this.javaExecutable = (javaExecutable == null) ? new File(System.getProperty("java.home"), "bin/java").getPath() : javaExecutable;
+        this.jvmArguments = ImmutableList.copyOf(jvmArguments);
+        this.timeoutSeconds = timeoutSeconds;
+        this.log = log;
+    }
+
+    /**
+     * Returns the jar or directory holding the classes of this plugin, for the class path of a forked JVM.
+     */
+    public static File getPluginClassPath()
+    {
+        try {
+            return new File(ForkedJvm.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        }
+        catch (URISyntaxException e) {
+            throw new IllegalStateException("Cannot locate the classes of presto-maven-plugin", e);
+        }
+    }
+
+    /**
+     * Runs the main class and fails unless it exits normally. The output of the JVM is logged at debug level.
+     */
+    public void run(List<File> classPath, Class<?> mainClass, List<String> arguments)
+            throws MojoExecutionException
+    {
+        List<String> command = ImmutableList.<String>builder()
+                .add(javaExecutable)
+                .addAll(jvmArguments)
+                .add("-cp", Joiner.on(File.pathSeparatorChar).join(classPath))
+                .add(mainClass.getName())
+                .addAll(arguments)
+                .build();
+        log.debug("Running " + Joiner.on(' ').join(command));
+
+        Deque<String> lastLines = new ArrayDeque<>();
+        int exitCode;
+        try {
+            Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+            process.getOutputStream().close();
+            Thread reader = new Thread(() -> {
+                try (BufferedReader output = new BufferedReader(new InputStreamReader(process.getInputStream(), UTF_8))) {
+                    String line;
+                    while ((line = output.readLine()) != null) {
+                        log.debug(line);
+                        synchronized (lastLines) {
+                            lastLines.addLast(line);
+                            if (lastLines.size() > OUTPUT_LINES_KEPT) {
+                                lastLines.removeFirst();
+                            }
+                        }
+                    }
+                }
+                catch (IOException ignored) {
+                    // the process is gone
+                }
+            }, "presto-maven-plugin-forked-jvm-output");
+            reader.setDaemon(true);
+            reader.start();
+
+            if (!process.waitFor(timeoutSeconds, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+                throw new MojoExecutionException(format("%n%n%s did not finish within %s seconds.", mainClass.getSimpleName(), timeoutSeconds));
+            }
+            reader.join(TimeUnit.SECONDS.toMillis(10));
+            exitCode = process.exitValue();
+        }
+        catch (IOException e) {
+            throw new MojoExecutionException(format("Failed to start %s", javaExecutable), e);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException("Interrupted while waiting for forked JVM", e);
+        }
+
+        if (exitCode != 0) {
+            synchronized (lastLines) {
+                throw new MojoExecutionException(format("%n%n%s failed with exit code %s:%n%n%s", mainClass.getSimpleName(), exitCode, Joiner.on(format("%n")).join(lastLines)));
+            }
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.maven;
+
+import com.google.common.collect.ImmutableList;
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.project.MavenProject;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * The plugin classes of a project and the class paths a forked JVM loads them
+ * from. The JVM class path holds the classes of this plugin and the provided
+ * dependencies, such as the SPI. The plugin class path holds the project
+ * classes followed by the compile and runtime dependencies, as bundled with
+ * the plugin.
+ */
+final class ForkedPlugin
+{
+    private final List<String> pluginClasses;
+    private final List<File> parentClassPath;
+    private final List<String> pluginClassPath;
+
+    private ForkedPlugin(List<String> pluginClasses, List<File> parentClassPath, List<String> pluginClassPath)
+    {
+        this.pluginClasses = pluginClasses;
+        this.parentClassPath = parentClassPath;
+        this.pluginClassPath = pluginClassPath;
+    }
+
+    /**
+     * Reads the plugin classes from the service descriptors of the plugin types in the classes directory.
+     */
+    public static ForkedPlugin of(MavenProject project, File classesDirectory, List<String> pluginTypes)
+            throws MojoExecutionException
+    {
+        ImmutableList.Builder<String> pluginClasses = ImmutableList.builder();
+        try {
+            for (String pluginType : pluginTypes) {
+                File servicesFile = new File(classesDirectory, "META-INF/services/" + pluginType);
+                if (servicesFile.isFile()) {
+                    pluginClasses.add(ServiceDescriptorState.readDescriptor(servicesFile));
+                }
+            }
+        }
+        catch (IOException e) {
+            throw new MojoExecutionException("Failed to read service descriptors", e);
+        }
+
+        ImmutableList.Builder<File> parentClassPath = ImmutableList.builder();
+        parentClassPath.add(ForkedJvm.getPluginClassPath());
+        ImmutableList.Builder<String> pluginClassPath = ImmutableList.builder();
+        pluginClassPath.add(classesDirectory.getAbsolutePath());
+        for (Artifact artifact : project.getArtifacts()) {
+            if (artifact.getFile() == null) {
+                continue;
+            }
+            if (Artifact.SCOPE_PROVIDED.equals(artifact.getScope())) {
+                parentClassPath.add(artifact.getFile());
+            }
+            else if (Artifact.SCOPE_COMPILE.equals(artifact.getScope()) || Artifact.SCOPE_RUNTIME.equals(artifact.getScope())) {
+                pluginClassPath.add(artifact.getFile().getAbsolutePath());
+            }
+        }
+        return new ForkedPlugin(pluginClasses.build(), parentClassPath.build(), pluginClassPath.build());
+    }
+
+    /**
+     * The classes named in the service descriptors, empty if the project is not a Presto plugin.
+     */
+    public List<String> getPluginClasses()
+    {
+        return pluginClasses;
+    }
+
+    public List<File> getParentClassPath()
+    {
+        return parentClassPath;
+    }
+
+    public List<String> getPluginClassPath()
+    {
+        return pluginClassPath;
+    }
+}
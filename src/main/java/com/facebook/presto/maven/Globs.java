@@ -0,0 +1,56 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.maven;
+
+import com.google.common.base.Joiner;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.regex.Pattern;
+
+final class Globs
+{
+    private Globs() {}
+
+    /**
+     * Returns a pattern matching any of the paths, which may use {@code *} and
+     * {@code ?} within a path segment and {@code **} across segments.
+     */
+    public static Pattern compile(Collection<String> globs)
+    {
+        List<String> regexes = new ArrayList<>();
+        for (String glob : globs) {
+            StringBuilder regex = new StringBuilder();
+            for (int i = 0; i < glob.length(); i++) {
+                char c = glob.charAt(i);
+                if (c == '*' && i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                    regex.append(".*");
+                    i++;
+                }
+                else if (c == '*') {
+                    regex.append("[^/]*");
+                }
+                else if (c == '?') {
+                    regex.append("[^/]");
+                }
+                else {
+                    regex.append(Pattern.quote(String.valueOf(c)));
+                }
+            }
+            regexes.add(regex.toString());
+        }
+        return Pattern.compile(Joiner.on('|').join(regexes));
+    }
+}
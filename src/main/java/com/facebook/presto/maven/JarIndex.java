@@ -0,0 +1,250 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.maven;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * The file entries of a jar, or of a classes directory, as recorded in its
+ * central directory: name, uncompressed size and CRC-32. Entries are sorted
+ * by name. The index has a compact binary form that is read back through a
+ * memory mapping.
+ */
+final class JarIndex
+{
+    private static final int MAGIC = 0x504A4958; // "PJIX"
+    private static final int VERSION = 1;
+    private static final Pattern VERSIONED = Pattern.compile("META-INF/versions/[0-9]+/");
+
+    private final String[] names;
+    private final long[] sizes;
+    private final long[] crcs;
+
+    private JarIndex(String[] names, long[] sizes, long[] crcs)
+    {
+        checkArgument(names.length == sizes.length && names.length == crcs.length, "arrays differ in length");
+        this.names = names;
+        this.sizes = sizes;
+        this.crcs = crcs;
+    }
+
+    public int size()
+    {
+        return names.length;
+    }
+
+    public String getName(int entry)
+    {
+        return names[entry];
+    }
+
+    public long getSize(int entry)
+    {
+        return sizes[entry];
+    }
+
+    /**
+     * CRC-32 of the entry contents, or -1 if unknown, which is the case for directories.
+     */
+    public long getCrc(int entry)
+    {
+        return crcs[entry];
+    }
+
+    /**
+     * Rough retained size of the index, for {@link LruCache}.
+     */
+    public long getEstimatedBytes()
+    {
+        return LruCache.estimateBytes(Arrays.asList(names)) + 16L * names.length;
+    }
+
+    /**
+     * Returns the position of the entry with the given name, or a negative value if there is none.
+     */
+    public int find(String name)
+    {
+        return Arrays.binarySearch(names, name);
+    }
+
+    /**
+     * Returns the binary name for a class file entry, or {@code null} if the entry is not a loadable class.
+     * The variants of a multi-release jar, {@code META-INF/versions/N/a/B.class}, have the name of their
+     * base class, {@code a.B}.
+     */
+    public static String toClassName(String entryName)
+    {
+        Matcher versioned = VERSIONED.matcher(entryName);
+        String baseName = versioned.lookingAt() ? entryName.substring(versioned.end()) : entryName;
+        if (!baseName.endsWith(".class") || baseName.startsWith("META-INF/") || baseName.endsWith("module-info.class") || baseName.endsWith("package-info.class")) {
+            return null;
+        }
+        return baseName.substring(0, baseName.length() - ".class".length()).replace('/', '.');
+    }
+
+    /**
+     * Indexes a jar by reading its central directory only.
+     */
+    public static JarIndex ofJar(File jar)
+            throws IOException
+    {
+        List<Entry> entries = new ArrayList<>();
+        try (ZipFile zip = new ZipFile(jar)) {
+            Enumeration<? extends ZipEntry> zipEntries = zip.entries();
+            while (zipEntries.hasMoreElements()) {
+                ZipEntry entry = zipEntries.nextElement();
+                if (!entry.isDirectory()) {
+                    entries.add(new Entry(entry.getName(), entry.getSize(), entry.getCrc()));
+                }
+            }
+        }
+        return fromEntries(entries);
+    }
+
+    /**
+     * Indexes the files of a directory. CRCs are not computed for directories.
+     */
+    public static JarIndex ofDirectory(File directory)
+            throws IOException
+    {
+        List<Entry> entries = new ArrayList<>();
+        Path root = directory.toPath();
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>()
+        {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes)
+            {
+                if (attributes.isRegularFile()) {
+                    String name = root.relativize(file).toString().replace(File.separatorChar, '/');
+                    entries.add(new Entry(name, attributes.size(), -1));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return fromEntries(entries);
+    }
+
+    private static JarIndex fromEntries(List<Entry> entries)
+    {
+        Entry[] sorted = entries.toArray(new Entry[entries.size()]);
+        Arrays.sort(sorted, (left, right) -> left.name.compareTo(right.name));
+
+        // a malformed jar can repeat a name, keep the first occurrence
+        int count = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (count == 0 || !sorted[count - 1].name.equals(sorted[i].name)) {
+                sorted[count++] = sorted[i];
+            }
+        }
+
+        String[] names = new String[count];
+        long[] sizes = new long[count];
+        long[] crcs = new long[count];
+        for (int i = 0; i < count; i++) {
+            names[i] = sorted[i].name;
+            sizes[i] = sorted[i].size;
+            crcs[i] = sorted[i].crc;
+        }
+        return new JarIndex(names, sizes, crcs);
+    }
+
+    public void write(OutputStream output)
+            throws IOException
+    {
+        DataOutputStream data = new DataOutputStream(output);
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeInt(names.length);
+        for (int i = 0; i < names.length; i++) {
+            byte[] name = names[i].getBytes(UTF_8);
+            data.writeInt(name.length);
+            data.write(name);
+            data.writeLong(sizes[i]);
+            data.writeLong(crcs[i]);
+        }
+        data.flush();
+    }
+
+    /**
+     * Reads an index written by {@link #write} through a read-only memory mapping of the file.
+     */
+    public static JarIndex read(File file)
+            throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < 12 || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                throw new IOException(format("%s is not a jar index", file));
+            }
+            int count = buffer.getInt();
+            String[] names = new String[count];
+            long[] sizes = new long[count];
+            long[] crcs = new long[count];
+            for (int i = 0; i < count; i++) {
+                names[i] = readString(buffer);
+                sizes[i] = buffer.getLong();
+                crcs[i] = buffer.getLong();
+            }
+            return new JarIndex(names, sizes, crcs);
+        }
+        catch (RuntimeException e) {
+            throw new IOException(format("%s is not a valid jar index", file), e);
+        }
+    }
+
+    private static String readString(ByteBuffer buffer)
+    {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private static class Entry
+    {
+        private final String name;
+        private final long size;
+        private final long crc;
+
+        private Entry(String name, long size, long crc)
+        {
+            this.name = name;
+            this.size = size;
+            this.crc = crc;
+        }
+    }
+}
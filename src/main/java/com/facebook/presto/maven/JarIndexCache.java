@@ -0,0 +1,143 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.maven;
+
+import com.google.common.hash.Hashing;
+import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.repository.LocalRepository;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.regex.Pattern;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+/**
+ * Indexes jars once and reuses the result. Indexes are kept in a bounded
+ * {@link LruCache} for the life of the plugin, keyed by path, size and
+ * modification time, and on disk next to the local repository, keyed by the
+ * SHA-1 of the jar. For a release, the SHA-1 is taken from the {@code .sha1}
+ * file Maven stores next to downloaded artifacts when there is one, so a
+ * cache hit never reads the jar itself. Snapshots, and jars written after
+ * their {@code .sha1} file, as {@code mvn install} or a hand-replaced jar
+ * leave them, are hashed instead.
+ */
+final class JarIndexCache
+{
+    private static final Pattern SHA1 = Pattern.compile("[0-9a-f]{40}");
+    private static final LruCache<String, JarIndex> memory = new LruCache<>("jarIndex", 64 * 1024 * 1024, JarIndex::getEstimatedBytes);
+
+    private final File directory;
+
+    /**
+     * @param directory where indexes are stored on disk, or {@code null} to keep them in memory only
+     */
+    public JarIndexCache(File directory)
+    {
+        this.directory = directory;
+    }
+
+    /**
+     * Returns a cache that stores indexes under the local repository of the session, if it has one.
+     */
+    public static JarIndexCache forSession(RepositorySystemSession session)
+    {
+        LocalRepository localRepository = (session == null) ? null : session.getLocalRepository();
+        if (localRepository == null || localRepository.getBasedir() == null) {
+            return new JarIndexCache(null);
+        }
+        return new JarIndexCache(new File(localRepository.getBasedir(), ".cache/presto-maven-plugin/jar-index"));
+    }
+
+    /**
+     * Returns the index of a jar or, for a reactor module that was not packaged, of a classes directory.
+     */
+    public JarIndex get(File file)
+            throws IOException
+    {
+        if (file.isDirectory()) {
+            return JarIndex.ofDirectory(file);
+        }
+
+        String memoryKey = file.getAbsolutePath() + ":" + file.length() + ":" + file.lastModified();
+        JarIndex index = memory.get(memoryKey);
+        if (index != null) {
+            return index;
+        }
+
+        if (directory == null) {
+            index = JarIndex.ofJar(file);
+        }
+        else {
+            File cached = new File(directory, sha1(file) + ".idx");
+            if (cached.isFile()) {
+                try {
+                    index = JarIndex.read(cached);
+                }
+                catch (IOException ignored) {
+                    // rebuilt and replaced below
+                }
+            }
+            if (index == null) {
+                index = JarIndex.ofJar(file);
+                store(index, cached);
+            }
+        }
+        memory.put(memoryKey, index);
+        return index;
+    }
+
+    /**
+     * Forgets the indexes of a jar that is about to be rewritten in place. The indexes
+     * stored under the local repository are keyed by content and need no invalidation.
+     */
+    public static void invalidate(File file)
+    {
+        String prefix = file.getAbsolutePath() + ":";
+        memory.removeIf(key -> key.startsWith(prefix));
+    }
+
+    private static String sha1(File file)
+            throws IOException
+    {
+        File checksumFile = new File(file.getPath() + ".sha1");
+        if (checksumFile.isFile() && !isSnapshot(file) && file.lastModified() <= checksumFile.lastModified()) {
+            String checksum = new String(Files.readAllBytes(checksumFile.toPath()), US_ASCII).trim().toLowerCase();
+            if (checksum.length() >= 40 && SHA1.matcher(checksum.substring(0, 40)).matches()) {
+                return checksum.substring(0, 40);
+            }
+        }
+        return FileHashing.hash(file, Hashing.sha1()).toString();
+    }
+
+    /**
+     * Whether the jar is a snapshot, by the version directory of the local repository
+     * or by its own name, which may carry a timestamped snapshot version instead.
+     */
+    private static boolean isSnapshot(File file)
+    {
+        File versionDirectory = file.getAbsoluteFile().getParentFile();
+        return file.getName().contains("SNAPSHOT") || (versionDirectory != null && versionDirectory.getName().endsWith("-SNAPSHOT"));
+    }
+
+    private static void store(JarIndex index, File file)
+            throws IOException
+    {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        index.write(output);
+        CacheFiles.write(file, output.toByteArray());
+    }
+}
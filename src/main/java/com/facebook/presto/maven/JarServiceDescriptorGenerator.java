@@ -0,0 +1,281 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.maven;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+import org.apache.maven.project.MavenProject;
+import org.eclipse.aether.RepositorySystemSession;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Mojo that generates the service descriptor of a Presto plugin whose
+ * classes come as prebuilt jars, such as a third-party connector that is
+ * repackaged, rather than as a classes directory. Nothing is extracted: the
+ * class entries are listed from the central directory of each jar through
+ * the {@link JarIndexCache}, and class file headers are streamed from the
+ * zip when a class is classified. The jars come first on the class path,
+ * in the order given, followed by the compile dependencies of the project.
+ * <p>
+ * The descriptor is written to the output directory or, with
+ * {@code writeToJar}, into the jar that holds the plugin class.
+ */
+@Mojo(name = "generate-jar-service-descriptor",
+        defaultPhase = LifecyclePhase.PACKAGE,
+        requiresDependencyResolution = ResolutionScope.COMPILE,
+        threadSafe = true)
+public class JarServiceDescriptorGenerator
+        extends AbstractMojo
+{
+    /**
+     * The jars holding the plugin classes.
+     */
+    @Parameter(property = "presto.jars", required = true)
+    private final List<File> jars = new ArrayList<>();
+
+    /**
+     * The directory the {@code META-INF/services} descriptors are written under, unless {@code writeToJar} is set.
+     */
+    @Parameter(defaultValue = "${project.build.outputDirectory}")
+    private File outputDirectory;
+
+    /**
+     * Whether to write the descriptor into the jar that holds the plugin class
+     * instead. A descriptor the jar already has for the plugin type is kept if
+     * it names the plugin class, and fails the build otherwise.
+     */
+    @Parameter(property = "presto.jars.writeToJar", defaultValue = "false")
+    private boolean writeToJar;
+
+    /**
+     * Additional SPI interfaces, by binary name, to generate service descriptors for.
+     */
+    @Parameter
+    private final List<String> additionalPluginTypes = new ArrayList<>();
+
+    /**
+     * Number of threads that classify classes. Zero uses one thread per available processor,
+     * divided among the modules a parallel build runs at once.
+     */
+    @Parameter(property = "presto.generator.parallelism", defaultValue = "0")
+    private int parallelism;
+
+    @Parameter(defaultValue = "${project}")
+    private MavenProject project;
+
+    @Parameter(defaultValue = "${session}", readonly = true)
+    private MavenSession session;
+
+    @Parameter(defaultValue = "${repositorySystemSession}")
+    private RepositorySystemSession repositorySession;
+
+    @Override
+    public void execute()
+            throws MojoExecutionException, MojoFailureException
+    {
+        BuildMetrics metrics = new BuildMetrics();
+        try {
+            generate(metrics);
+        }
+        finally {
+            metrics.write(project, "generate-jar-service-descriptor", getLog());
+        }
+    }
+
+    private void generate(BuildMetrics metrics)
+            throws MojoExecutionException
+    {
+        for (File jar : jars) {
+            if (!jar.isFile()) {
+                throw new MojoExecutionException(format("%n%nPlugin jar %s does not exist.", jar));
+            }
+        }
+
+        // the first jar on the class path that has a class is the one it is loaded from
+        Map<String, File> classJars = new LinkedHashMap<>();
+        try (BuildMetrics.Timer ignored = metrics.time("index")) {
+            JarIndexCache cache = JarIndexCache.forSession(repositorySession);
+            for (File jar : jars) {
+                JarIndex index = cache.get(jar);
+                for (int i = 0; i < index.size(); i++) {
+                    String className = JarIndex.toClassName(index.getName(i));
+                    if (className != null) {
+                        classJars.putIfAbsent(className, jar);
+                    }
+                }
+            }
+        }
+        catch (IOException e) {
+            throw new MojoExecutionException("Failed to index plugin jars.", e);
+        }
+        metrics.add("jars", jars.size());
+        metrics.add("classFiles", classJars.size());
+
+        List<String> pluginTypes = ServiceDescriptorGenerator.getPluginTypes(additionalPluginTypes);
+        Map<String, List<String>> pluginClassMap;
+        try (BuildMetrics.Timer ignored = metrics.time("classify")) {
+            pluginClassMap = classify(classJars.keySet(), pluginTypes, metrics);
+        }
+        catch (ExecutionException e) {
+            throw new MojoExecutionException(format("%n%nError scanning %s for classes implementing %s.", jars, ServiceDescriptorGenerator.describeTypes(pluginTypes, "and")), e.getCause());
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException("Interrupted while scanning for plugin classes.", e);
+        }
+        catch (IOException e) {
+            throw new MojoExecutionException(format("%n%nError scanning %s for classes implementing %s.", jars, ServiceDescriptorGenerator.describeTypes(pluginTypes, "and")), e);
+        }
+        ServiceDescriptorGenerator.checkPluginImplementations(pluginClassMap, pluginTypes);
+
+        try (BuildMetrics.Timer ignored = metrics.time("writeDescriptors")) {
+            for (Map.Entry<String, List<String>> entry : pluginClassMap.entrySet()) {
+                if (entry.getValue().isEmpty()) {
+                    continue;
+                }
+                String pluginClass = entry.getValue().get(0);
+                if (writeToJar) {
+                    writeToJar(classJars.get(pluginClass), entry.getKey(), pluginClass);
+                }
+                else {
+                    writeToDirectory(entry.getKey(), pluginClass);
+                }
+            }
+        }
+    }
+
+    private Map<String, List<String>> classify(Set<String> classNames, List<String> pluginTypes, BuildMetrics metrics)
+            throws IOException, InterruptedException, ExecutionException
+    {
+        List<File> dependencies = new ArrayList<>(jars.subList(1, jars.size()));
+        for (Artifact artifact : project.getArtifacts()) {
+            if (artifact.getFile() != null) {
+                dependencies.add(artifact.getFile());
+            }
+        }
+
+        try (ClassHierarchy hierarchy = new ClassHierarchy(jars.get(0), dependencies, ImmutableSet.copyOf(pluginTypes), metrics)) {
+            ForkJoinPool pool = new ForkJoinPool(getParallelism());
+            try {
+                Map<String, ForkJoinTask<Set<String>>> classifications = new LinkedHashMap<>();
+                for (String className : classNames) {
+                    classifications.put(className, pool.submit(() -> hierarchy.findSupertypes(className)));
+                }
+
+                Map<String, Set<String>> implementations = new HashMap<>();
+                for (Map.Entry<String, ForkJoinTask<Set<String>>> classification : classifications.entrySet()) {
+                    for (String pluginType : classification.getValue().get()) {
+                        implementations.computeIfAbsent(pluginType, type -> new TreeSet<>()).add(classification.getKey());
+                    }
+                }
+                metrics.add("classesClassified", classNames.size());
+
+                ImmutableMap.Builder<String, List<String>> result = ImmutableMap.builder();
+                for (String pluginType : pluginTypes) {
+                    result.put(pluginType, ImmutableList.copyOf(implementations.getOrDefault(pluginType, ImmutableSet.of())));
+                }
+                return result.build();
+            }
+            finally {
+                // on failure, workers may still be reading classes; stop them before the jars close
+                pool.shutdownNow();
+                pool.awaitTermination(1, TimeUnit.MINUTES);
+            }
+        }
+    }
+
+    private void writeToDirectory(String pluginType, String pluginClass)
+            throws MojoExecutionException
+    {
+        File servicesFile = new File(outputDirectory, "META-INF/services/" + pluginType);
+        try {
+            // leave an identical descriptor untouched so later incremental steps see no change
+            if (servicesFile.isFile() && pluginClass.equals(ServiceDescriptorState.readDescriptor(servicesFile))) {
+                getLog().debug(format("%s is up to date", servicesFile));
+                return;
+            }
+            Files.createDirectories(servicesFile.getParentFile().toPath());
+            Files.write(servicesFile.toPath(), pluginClass.getBytes(UTF_8));
+            getLog().info(format("Wrote %s with %s", servicesFile, pluginClass));
+        }
+        catch (IOException e) {
+            throw new MojoExecutionException(format("%n%nFailed to write %s.", servicesFile), e);
+        }
+    }
+
+    private void writeToJar(File jar, String pluginType, String pluginClass)
+            throws MojoExecutionException
+    {
+        // the zip file system rewrites the jar on close, copying the other entries as they are
+        URI uri = URI.create("jar:" + jar.toURI());
+        try (FileSystem zip = FileSystems.newFileSystem(uri, ImmutableMap.<String, Object>of())) {
+            Path servicesFile = zip.getPath("META-INF/services/" + pluginType);
+            if (Files.exists(servicesFile)) {
+                String existing = new String(Files.readAllBytes(servicesFile), UTF_8).trim();
+                if (!existing.equals(pluginClass)) {
+                    throw new MojoExecutionException(format("%n%nMETA-INF/services/%s of %s names %s, but the plugin class is %s.", pluginType, jar, existing, pluginClass));
+                }
+                return;
+            }
+            // the jar is replaced when the file system closes, so no cache may keep the old version, or keep it open
+            JarIndexCache.invalidate(jar);
+            SharedJarCache.invalidate(jar);
+            Files.createDirectories(servicesFile.getParent());
+            Files.write(servicesFile, pluginClass.getBytes(UTF_8));
+            getLog().info(format("Wrote META-INF/services/%s with %s into %s", pluginType, pluginClass, jar.getName()));
+        }
+        catch (IOException e) {
+            throw new MojoExecutionException(format("%n%nFailed to write the service descriptor into %s.", jar), e);
+        }
+    }
+
+    private int getParallelism()
+    {
+        if (parallelism > 0) {
+            return parallelism;
+        }
+        return Math.max(1, Runtime.getRuntime().availableProcessors() / Math.max(1, session.getRequest().getDegreeOfConcurrency()));
+    }
+}
@@ -0,0 +1,382 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.maven;
+
+import com.google.common.collect.ImmutableSet;
+import org.apache.maven.artifact.Artifact;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Determines the direct, non-optional runtime dependencies of an artifact
+ * from its POM alone, without the resolver. The POM is read from the local
+ * repository next to the jar, or from the copy Maven embeds in the jar, and
+ * its parents are read from the local repository. Whenever the answer could
+ * depend on something that is not available locally, such as a missing
+ * parent, an unknown property, an imported BOM or a profile, the reader
+ * gives up and the caller must fall back to dependency collection.
+ */
+final class LocalPomDependencyReader
+{
+    private static final Pattern PROPERTY = Pattern.compile("\\$\\{([^}]+)}");
+    private static final int MAX_PARENTS = 16;
+    private static final int MAX_INTERPOLATION_DEPTH = 16;
+    // versions are deliberately left out, they do not affect the answer and often need properties from elsewhere
+    private static final Set<String> DEPENDENCY_FIELDS = ImmutableSet.of("groupId", "artifactId", "type", "classifier", "scope", "optional");
+
+    private final File localRepository;
+
+    /**
+     * @param localRepository base directory of the local repository, or {@code null} if there is none
+     */
+    public LocalPomDependencyReader(File localRepository)
+    {
+        this.localRepository = localRepository;
+    }
+
+    /**
+     * Returns the {@code groupId:artifactId} of every dependency that collection
+     * would place directly below the artifact, excluding optional ones, or
+     * {@code null} if that cannot be determined locally.
+     */
+    public Set<String> readDependencies(Artifact artifact)
+            throws IOException
+    {
+        File jar = artifact.getFile();
+        if (jar == null || !jar.isFile()) {
+            return null;
+        }
+
+        Pom pom = readArtifactPom(jar, artifact.getGroupId(), artifact.getArtifactId());
+        if (pom == null) {
+            return null;
+        }
+
+        // child first, so that lookups find the most specific definition
+        List<Pom> hierarchy = new ArrayList<>();
+        hierarchy.add(pom);
+        while (pom.parentGroupId != null) {
+            if (hierarchy.size() > MAX_PARENTS) {
+                return null;
+            }
+            pom = readRepositoryPom(pom.parentGroupId, pom.parentArtifactId, pom.parentVersion);
+            if (pom == null) {
+                return null;
+            }
+            hierarchy.add(pom);
+        }
+
+        // management that is not visible here only matters for dependencies without an explicit scope
+        boolean uncertainManagement = false;
+        for (Pom current : hierarchy) {
+            if (current.profileDependencies) {
+                return null;
+            }
+            uncertainManagement |= current.uncertainManagement;
+        }
+
+        Map<String, String> properties = getProperties(hierarchy);
+
+        // dependencies are inherited from parents, with the child winning on the same management key
+        Map<String, Map<String, String>> dependencies = new LinkedHashMap<>();
+        Map<String, Map<String, String>> managed = new HashMap<>();
+        for (int i = hierarchy.size() - 1; i >= 0; i--) {
+            for (Map<String, String> dependency : hierarchy.get(i).dependencies) {
+                Map<String, String> interpolated = interpolate(dependency, properties);
+                if (interpolated == null) {
+                    return null;
+                }
+                dependencies.put(managementKey(interpolated), interpolated);
+            }
+            for (Map<String, String> dependency : hierarchy.get(i).managedDependencies) {
+                Map<String, String> interpolated = interpolate(dependency, properties);
+                if (interpolated == null) {
+                    return null;
+                }
+                managed.put(managementKey(interpolated), interpolated);
+            }
+        }
+
+        ImmutableSet.Builder<String> result = ImmutableSet.builder();
+        for (Map<String, String> dependency : dependencies.values()) {
+            String scope = dependency.get("scope");
+            if (scope == null && uncertainManagement) {
+                return null;
+            }
+            if (scope == null) {
+                Map<String, String> management = managed.get(managementKey(dependency));
+                scope = (management == null) ? null : management.get("scope");
+            }
+            if (scope == null) {
+                scope = "compile";
+            }
+            if (scope.equals("test") || scope.equals("provided") || "true".equals(dependency.get("optional"))) {
+                continue;
+            }
+            result.add(dependency.get("groupId") + ":" + dependency.get("artifactId"));
+        }
+        return result.build();
+    }
+
+    private Pom readArtifactPom(File jar, String groupId, String artifactId)
+            throws IOException
+    {
+        File pomFile = new File(jar.getParentFile(), jar.getName().replaceFirst("\\.jar$", "") + ".pom");
+        if (pomFile.isFile()) {
+            try (InputStream input = new FileInputStream(pomFile)) {
+                return parse(input);
+            }
+        }
+
+        try (ZipFile zip = new ZipFile(jar)) {
+            ZipEntry entry = zip.getEntry("META-INF/maven/" + groupId + "/" + artifactId + "/pom.xml");
+            if (entry == null) {
+                return null;
+            }
+            try (InputStream input = zip.getInputStream(entry)) {
+                return parse(input);
+            }
+        }
+    }
+
+    private Pom readRepositoryPom(String groupId, String artifactId, String version)
+            throws IOException
+    {
+        if (localRepository == null || groupId == null || artifactId == null || version == null || version.contains("${")) {
+            return null;
+        }
+        File pomFile = new File(localRepository, groupId.replace('.', '/') + "/" + artifactId + "/" + version + "/" + artifactId + "-" + version + ".pom");
+        if (!pomFile.isFile()) {
+            return null;
+        }
+        try (InputStream input = new FileInputStream(pomFile)) {
+            return parse(input);
+        }
+    }
+
+    private static Map<String, String> getProperties(List<Pom> hierarchy)
+    {
+        Map<String, String> properties = new HashMap<>();
+        for (int i = hierarchy.size() - 1; i >= 0; i--) {
+            properties.putAll(hierarchy.get(i).properties);
+        }
+
+        Pom pom = hierarchy.get(0);
+        String groupId = (pom.groupId != null) ? pom.groupId : pom.parentGroupId;
+        String version = (pom.version != null) ? pom.version : pom.parentVersion;
+        putBuiltIn(properties, "groupId", groupId);
+        putBuiltIn(properties, "artifactId", pom.artifactId);
+        putBuiltIn(properties, "version", version);
+        putBuiltIn(properties, "parent.groupId", pom.parentGroupId);
+        putBuiltIn(properties, "parent.artifactId", pom.parentArtifactId);
+        putBuiltIn(properties, "parent.version", pom.parentVersion);
+        return properties;
+    }
+
+    private static void putBuiltIn(Map<String, String> properties, String name, String value)
+    {
+        if (value != null) {
+            properties.put("project." + name, value);
+            properties.put("pom." + name, value);
+        }
+    }
+
+    private static Map<String, String> interpolate(Map<String, String> dependency, Map<String, String> properties)
+    {
+        Map<String, String> interpolated = new HashMap<>();
+        for (Map.Entry<String, String> field : dependency.entrySet()) {
+            String value = interpolate(field.getValue(), properties, 0);
+            if (value == null) {
+                return null;
+            }
+            interpolated.put(field.getKey(), value);
+        }
+        if (interpolated.get("groupId") == null || interpolated.get("artifactId") == null) {
+            return null;
+        }
+        return interpolated;
+    }
+
+    private static String interpolate(String value, Map<String, String> properties, int depth)
+    {
+        if (!value.contains("${")) {
+            return value;
+        }
+        if (depth > MAX_INTERPOLATION_DEPTH) {
+            return null;
+        }
+        Matcher matcher = PROPERTY.matcher(value);
+        StringBuffer result = new StringBuffer();
+        while (matcher.find()) {
+            String property = properties.get(matcher.group(1));
+            if (property == null) {
+                // defined by the environment, settings or a system property
+                return null;
+            }
+            property = interpolate(property, properties, depth + 1);
+            if (property == null) {
+                return null;
+            }
+            matcher.appendReplacement(result, Matcher.quoteReplacement(property));
+        }
+        matcher.appendTail(result);
+        return result.toString();
+    }
+
+    private static String managementKey(Map<String, String> dependency)
+    {
+        String type = dependency.get("type");
+        String classifier = dependency.get("classifier");
+        return dependency.get("groupId") + ":" + dependency.get("artifactId") + ":" + (type == null ? "jar" : type) + ":" + (classifier == null ? "" : classifier);
+    }
+
+    private static Pom parse(InputStream input)
+            throws IOException
+    {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+
+        Pom pom = new Pom();
+        try {
+            XMLStreamReader reader = factory.createXMLStreamReader(input);
+            try {
+                String path = "";
+                StringBuilder text = new StringBuilder();
+                Map<String, String> dependency = null;
+                while (reader.hasNext()) {
+                    switch (reader.next()) {
+                        case XMLStreamConstants.START_ELEMENT:
+                            path = path + "/" + reader.getLocalName();
+                            text.setLength(0);
+                            if (path.equals("/project/dependencies/dependency") || path.equals("/project/dependencyManagement/dependencies/dependency")) {
+                                dependency = new HashMap<>();
+                            }
+                            else if (path.equals("/project/profiles/profile/dependencies")) {
+                                pom.profileDependencies = true;
+                            }
+                            else if (path.equals("/project/profiles/profile/dependencyManagement")) {
+                                pom.uncertainManagement = true;
+                            }
+                            break;
+                        case XMLStreamConstants.CHARACTERS:
+                        case XMLStreamConstants.CDATA:
+                            text.append(reader.getText());
+                            break;
+                        case XMLStreamConstants.END_ELEMENT:
+                            pom.element(path, text.toString().trim(), dependency);
+                            if (path.equals("/project/dependencies/dependency")) {
+                                pom.dependencies.add(dependency);
+                                dependency = null;
+                            }
+                            else if (path.equals("/project/dependencyManagement/dependencies/dependency")) {
+                                if ("import".equals(dependency.get("scope"))) {
+                                    pom.uncertainManagement = true;
+                                }
+                                pom.managedDependencies.add(dependency);
+                                dependency = null;
+                            }
+                            path = path.substring(0, path.lastIndexOf('/'));
+                            text.setLength(0);
+                            break;
+                        default:
+                            break;
+                    }
+                }
+            }
+            finally {
+                reader.close();
+            }
+        }
+        catch (XMLStreamException e) {
+            throw new IOException("Failed to parse POM", e);
+        }
+        return pom;
+    }
+
+    private static class Pom
+    {
+        private String groupId;
+        private String artifactId;
+        private String version;
+        private String parentGroupId;
+        private String parentArtifactId;
+        private String parentVersion;
+        private final Map<String, String> properties = new HashMap<>();
+        private final List<Map<String, String>> dependencies = new ArrayList<>();
+        private final List<Map<String, String>> managedDependencies = new ArrayList<>();
+        private boolean profileDependencies;
+        private boolean uncertainManagement;
+
+        private void element(String path, String value, Map<String, String> dependency)
+        {
+            switch (path) {
+                case "/project/groupId":
+                    groupId = value;
+                    return;
+                case "/project/artifactId":
+                    artifactId = value;
+                    return;
+                case "/project/version":
+                    version = value;
+                    return;
+                case "/project/parent/groupId":
+                    parentGroupId = value;
+                    return;
+                case "/project/parent/artifactId":
+                    parentArtifactId = value;
+                    return;
+                case "/project/parent/version":
+                    parentVersion = value;
+                    return;
+                default:
+                    break;
+            }
+            if (path.startsWith("/project/properties/") && path.indexOf('/', "/project/properties/".length()) < 0) {
+                properties.put(path.substring("/project/properties/".length()), value);
+            }
+            else if (dependency != null && isDependencyField(path)) {
+                dependency.put(path.substring(path.lastIndexOf('/') + 1), value);
+            }
+        }
+
+        private static boolean isDependencyField(String path)
+        {
+            String parent = path.substring(0, path.lastIndexOf('/'));
+            if (!DEPENDENCY_FIELDS.contains(path.substring(parent.length() + 1))) {
+                return false;
+            }
+            return parent.equals("/project/dependencies/dependency") || parent.equals("/project/dependencyManagement/dependencies/dependency");
+        }
+    }
+}
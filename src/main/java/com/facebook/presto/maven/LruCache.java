@@ -0,0 +1,177 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.maven;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.lang.String.format;
+
+/**
+ * A cache that lives as long as the plugin classes are loaded, which in the
+ * Maven daemon spans many builds. Entries are weighed by their estimated
+ * size and the least recently used ones are evicted once the total exceeds
+ * the budget of the cache. Keys must include a fingerprint, such as the size
+ * and modification time, of every file the value was computed from, so that
+ * a changed input misses instead of returning stale data.
+ * <p>
+ * Every cache counts its hits, misses and evictions for {@link #describeAll()}.
+ */
+final class LruCache<K, V>
+{
+    private static final List<LruCache<?, ?>> caches = new CopyOnWriteArrayList<>();
+
+    private final String name;
+    private final long maxBytes;
+    private final ToLongFunction<? super V> weigher;
+    private final LinkedHashMap<K, Weighed<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public LruCache(String name, long maxBytes, ToLongFunction<? super V> weigher)
+    {
+        checkArgument(maxBytes > 0, "maxBytes must be positive");
+        this.name = checkNotNull(name, "name is null");
+        this.maxBytes = maxBytes;
+        this.weigher = checkNotNull(weigher, "weigher is null");
+        caches.add(this);
+    }
+
+    /**
+     * Returns the value cached for the key, or {@code null} if there is none.
+     */
+    public synchronized V get(K key)
+    {
+        Weighed<V> entry = entries.get(key);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.value;
+    }
+
+    /**
+     * Caches the value, weighing it again if the key is already present. A
+     * value larger than the whole budget is not cached.
+     */
+    public synchronized void put(K key, V value)
+    {
+        checkNotNull(value, "value is null");
+        long weight = weigher.applyAsLong(value);
+        Weighed<V> previous = entries.remove(key);
+        if (previous != null) {
+            bytes -= previous.weight;
+        }
+        if (weight > maxBytes) {
+            return;
+        }
+        entries.put(key, new Weighed<>(value, weight));
+        bytes += weight;
+
+        Iterator<Weighed<V>> iterator = entries.values().iterator();
+        while (bytes > maxBytes) {
+            bytes -= iterator.next().weight;
+            iterator.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * Removes the values of every key that matches, such as the entries of a file that was rewritten.
+     */
+    public synchronized void removeIf(Predicate<? super K> predicate)
+    {
+        for (Iterator<Map.Entry<K, Weighed<V>>> iterator = entries.entrySet().iterator(); iterator.hasNext(); ) {
+            Map.Entry<K, Weighed<V>> entry = iterator.next();
+            if (predicate.test(entry.getKey())) {
+                bytes -= entry.getValue().weight;
+                iterator.remove();
+            }
+        }
+    }
+
+    public synchronized String describe()
+    {
+        long lookups = hits + misses;
+        return format("%s: %s of %s lookups hit (%.1f%%), %s entries, %.1f of %.1f MB, %s evicted",
+                name,
+                hits,
+                lookups,
+                (lookups == 0) ? 0.0 : 100.0 * hits / lookups,
+                entries.size(),
+                bytes / (1024.0 * 1024.0),
+                maxBytes / (1024.0 * 1024.0),
+                evictions);
+    }
+
+    /**
+     * Describes every cache that has been looked up at least once since the plugin was loaded.
+     */
+    public static List<String> describeAll()
+    {
+        ImmutableList.Builder<String> descriptions = ImmutableList.builder();
+        for (LruCache<?, ?> cache : caches) {
+            synchronized (cache) {
+                if (cache.hits + cache.misses > 0) {
+                    descriptions.add(cache.describe());
+                }
+            }
+        }
+        return descriptions.build();
+    }
+
+    /**
+     * Rough retained size of a string, for weighers.
+     */
+    static long estimateBytes(String value)
+    {
+        return 48 + 2L * value.length();
+    }
+
+    /**
+     * Rough retained size of a collection of strings, for weighers.
+     */
+    static long estimateBytes(Iterable<String> values)
+    {
+        long bytes = 64;
+        for (String value : values) {
+            bytes += 32 + estimateBytes(value);
+        }
+        return bytes;
+    }
+
+    private static final class Weighed<V>
+    {
+        private final V value;
+        private final long weight;
+
+        private Weighed(V value, long weight)
+        {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+}
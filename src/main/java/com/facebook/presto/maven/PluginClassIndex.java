@@ -0,0 +1,283 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.maven;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashCodes;
+import com.google.common.hash.Hashing;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.lang.String.format;
+
+/**
+ * Maps the packages and classes of a plugin to the jars of the plugin
+ * directory that hold them, so a class loader can go to the right jar instead
+ * of probing each in turn, much like {@code META-INF/INDEX.LIST} does for a
+ * single jar. Jars are numbered in name order, which is the order the server
+ * adds them to the class path, and a class in more than one jar maps to the
+ * first. Every jar is recorded with its size and SHA-256, so an index that no
+ * longer matches the directory is detected.
+ * <p>
+ * The binary form is a header ({@code PCIX}, version), the jars (name, size,
+ * SHA-256), the packages sorted by name with the jars holding them, and the
+ * classes sorted by name with the jar holding them. Names use dots.
+ * <p>
+ * The server adds every file and directory at the root of the plugin
+ * directory to the plugin class path, so the index sits in a directory of
+ * its own. That directory only exposes the index as a resource, and no jar
+ * is named after the index file.
+ */
+final class PluginClassIndex
+{
+    public static final String FILE_NAME = ".presto-plugin/class-index.bin";
+
+    private static final int MAGIC = 0x50434958; // "PCIX"
+    private static final int VERSION = 1;
+
+    private final List<IndexedJar> jars;
+    private final String[] packages;
+    private final int[][] packageJars;
+    private final String[] classes;
+    private final int[] classJars;
+
+    private PluginClassIndex(List<IndexedJar> jars, String[] packages, int[][] packageJars, String[] classes, int[] classJars)
+    {
+        this.jars = ImmutableList.copyOf(jars);
+        this.packages = packages;
+        this.packageJars = packageJars;
+        this.classes = classes;
+        this.classJars = classJars;
+    }
+
+    /**
+     * Builds the index of the jars, keyed by their name in the plugin directory.
+     */
+    public static PluginClassIndex build(Map<String, IndexedJar> jarsByName, Map<String, JarIndex> contents)
+    {
+        List<IndexedJar> jars = new ArrayList<>(new TreeMap<>(jarsByName).values());
+        checkArgument(jars.size() <= 0xFFFF, "too many jars: %s", jars.size());
+        Map<String, TreeSet<Integer>> packageJars = new TreeMap<>();
+        Map<String, Integer> classJars = new TreeMap<>();
+        for (int jar = 0; jar < jars.size(); jar++) {
+            JarIndex index = contents.get(jars.get(jar).name);
+            checkArgument(index != null, "no contents for %s", jars.get(jar).name);
+            for (int entry = 0; entry < index.size(); entry++) {
+                String name = index.getName(entry);
+                int slash = name.lastIndexOf('/');
+                String packageName = (slash < 0) ? "" : name.substring(0, slash).replace('/', '.');
+                TreeSet<Integer> holders = packageJars.get(packageName);
+                if (holders == null) {
+                    holders = new TreeSet<>();
+                    packageJars.put(packageName, holders);
+                }
+                holders.add(jar);
+                if (name.endsWith(".class") && !name.endsWith("module-info.class") && !classJars.containsKey(toClassName(name))) {
+                    classJars.put(toClassName(name), jar);
+                }
+            }
+        }
+
+        String[] packageNames = packageJars.keySet().toArray(new String[0]);
+        int[][] packageHolders = new int[packageNames.length][];
+        for (int i = 0; i < packageNames.length; i++) {
+            packageHolders[i] = packageJars.get(packageNames[i]).stream().mapToInt(Integer::intValue).toArray();
+        }
+        String[] classNames = classJars.keySet().toArray(new String[0]);
+        int[] classHolders = new int[classNames.length];
+        for (int i = 0; i < classNames.length; i++) {
+            classHolders[i] = classJars.get(classNames[i]);
+        }
+        return new PluginClassIndex(jars, packageNames, packageHolders, classNames, classHolders);
+    }
+
+    private static String toClassName(String entryName)
+    {
+        return entryName.substring(0, entryName.length() - ".class".length()).replace('/', '.');
+    }
+
+    public List<IndexedJar> getJars()
+    {
+        return jars;
+    }
+
+    /**
+     * Returns the names of the jars holding the package, in class path order.
+     */
+    public List<String> findJars(String packageName)
+    {
+        int position = Arrays.binarySearch(packages, packageName);
+        if (position < 0) {
+            return ImmutableList.of();
+        }
+        ImmutableList.Builder<String> names = ImmutableList.builder();
+        for (int jar : packageJars[position]) {
+            names.add(jars.get(jar).name);
+        }
+        return names.build();
+    }
+
+    /**
+     * Returns the name of the jar the class is loaded from, or {@code null} if no jar holds it.
+     */
+    public String findJar(String className)
+    {
+        int position = Arrays.binarySearch(classes, className);
+        return (position < 0) ? null : jars.get(classJars[position]).name;
+    }
+
+    /**
+     * Returns the jars of the plugin directory that the index does not describe: jars
+     * missing from the index or the directory, and jars whose size differs. With
+     * {@code verifyContents}, jars are also hashed and compared.
+     */
+    public List<String> findStaleJars(File pluginDirectory, boolean verifyContents)
+            throws IOException
+    {
+        TreeSet<String> stale = new TreeSet<>();
+        TreeSet<String> present = new TreeSet<>();
+        File[] files = pluginDirectory.listFiles((directory, name) -> name.endsWith(".jar"));
+        if (files != null) {
+            for (File file : files) {
+                present.add(file.getName());
+            }
+        }
+        for (IndexedJar jar : jars) {
+            File file = new File(pluginDirectory, jar.name);
+            if (!present.remove(jar.name) || file.length() != jar.size) {
+                stale.add(jar.name);
+            }
+            else if (verifyContents && !FileHashing.hash(file, Hashing.sha256()).equals(jar.sha256)) {
+                stale.add(jar.name);
+            }
+        }
+        stale.addAll(present);
+        return ImmutableList.copyOf(stale);
+    }
+
+    public void write(OutputStream output)
+            throws IOException
+    {
+        DataOutputStream data = new DataOutputStream(output);
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeInt(jars.size());
+        for (IndexedJar jar : jars) {
+            data.writeUTF(jar.name);
+            data.writeLong(jar.size);
+            data.write(jar.sha256.asBytes());
+        }
+        data.writeInt(packages.length);
+        for (int i = 0; i < packages.length; i++) {
+            data.writeUTF(packages[i]);
+            data.writeShort(packageJars[i].length);
+            for (int jar : packageJars[i]) {
+                data.writeShort(jar);
+            }
+        }
+        data.writeInt(classes.length);
+        for (int i = 0; i < classes.length; i++) {
+            data.writeUTF(classes[i]);
+            data.writeShort(classJars[i]);
+        }
+        data.flush();
+    }
+
+    public static PluginClassIndex read(InputStream input)
+            throws IOException
+    {
+        DataInputStream data = new DataInputStream(input);
+        if (data.readInt() != MAGIC || data.readInt() != VERSION) {
+            throw new IOException("Not a plugin class index, or written by an incompatible version");
+        }
+        int jarCount = data.readInt();
+        List<IndexedJar> jars = new ArrayList<>(jarCount);
+        for (int i = 0; i < jarCount; i++) {
+            String name = data.readUTF();
+            long size = data.readLong();
+            byte[] sha256 = new byte[32];
+            data.readFully(sha256);
+            jars.add(new IndexedJar(name, size, HashCodes.fromBytes(sha256)));
+        }
+        String[] packages = new String[data.readInt()];
+        int[][] packageJars = new int[packages.length][];
+        for (int i = 0; i < packages.length; i++) {
+            packages[i] = data.readUTF();
+            packageJars[i] = new int[data.readUnsignedShort()];
+            for (int j = 0; j < packageJars[i].length; j++) {
+                packageJars[i][j] = readJar(data, jarCount);
+            }
+        }
+        String[] classes = new String[data.readInt()];
+        int[] classJars = new int[classes.length];
+        for (int i = 0; i < classes.length; i++) {
+            classes[i] = data.readUTF();
+            classJars[i] = readJar(data, jarCount);
+        }
+        return new PluginClassIndex(jars, packages, packageJars, classes, classJars);
+    }
+
+    private static int readJar(DataInputStream data, int jarCount)
+            throws IOException
+    {
+        int jar = data.readUnsignedShort();
+        if (jar >= jarCount) {
+            throw new IOException(format("Plugin class index refers to jar %s of %s", jar, jarCount));
+        }
+        return jar;
+    }
+
+    static final class IndexedJar
+    {
+        private final String name;
+        private final long size;
+        private final HashCode sha256;
+
+        public IndexedJar(String name, long size, HashCode sha256)
+        {
+            checkArgument(sha256.bits() == 256, "not a SHA-256: %s", sha256);
+            this.name = name;
+            this.size = size;
+            this.sha256 = sha256;
+        }
+
+        public String getName()
+        {
+            return name;
+        }
+
+        public long getSize()
+        {
+            return size;
+        }
+
+        public HashCode getSha256()
+        {
+            return sha256;
+        }
+    }
+}
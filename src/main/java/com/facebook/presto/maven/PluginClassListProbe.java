@@ -0,0 +1,57 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.maven;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Loads a Presto plugin the way the server does and enumerates what it
+ * provides, so the JVM running it can record the classes this loads. Runs in
+ * a forked JVM whose class path holds the SPI, and must only use the JDK.
+ * <p>
+ * Arguments: a comma separated list of plugin classes, a file listing the plugin class path one entry
+ * per line, a comma separated list of parent-first package prefixes, and the
+ * file to write the names of the classes defined by the plugin loader to.
+ */
+final class PluginClassListProbe
+{
+    private PluginClassListProbe() {}
+
+    public static void main(String[] args)
+            throws Exception
+    {
+        if (args.length != 4) {
+            System.err.println("usage: PluginClassListProbe <plugin classes> <class path file> <parent-first prefixes> <output>");
+            System.exit(2);
+        }
+
+        PluginClassLoader loader = PluginClassLoader.create(args[1], args[2], PluginClassListProbe.class.getClassLoader());
+        Thread.currentThread().setContextClassLoader(loader);
+        for (String pluginClass : args[0].split(",")) {
+            PluginEnumeration.enumerate(loader.loadClass(pluginClass).getConstructor().newInstance());
+        }
+
+        StringBuilder classes = new StringBuilder();
+        for (String name : loader.getDefinedClasses()) {
+            classes.append(name).append('\n');
+        }
+        Files.write(Paths.get(args[3]), classes.toString().getBytes(UTF_8));
+
+        // plugins may leave non-daemon threads behind, and the JVM records its class list on exit
+        System.exit(0);
+    }
+}
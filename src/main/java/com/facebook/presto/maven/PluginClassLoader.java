@@ -0,0 +1,105 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.maven;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * A child-first class loader that defers to its parent for the SPI, as the
+ * plugin class loader in Presto does. Used by the probes that run in a
+ * forked JVM, so it must only use the JDK.
+ */
+final class PluginClassLoader
+        extends URLClassLoader
+{
+    private final List<String> parentFirst;
+    private final Set<String> definedClasses = new TreeSet<>();
+
+    private PluginClassLoader(URL[] urls, ClassLoader parent, List<String> parentFirst)
+    {
+        super(urls, parent);
+        this.parentFirst = parentFirst;
+    }
+
+    /**
+     * Creates a loader for the class path listed in the file, one entry per line,
+     * with the comma separated package prefixes loaded from the parent.
+     */
+    public static PluginClassLoader create(String classPathFile, String parentFirstPrefixes, ClassLoader parent)
+            throws IOException
+    {
+        List<URL> urls = new ArrayList<>();
+        for (String line : Files.readAllLines(Paths.get(classPathFile), UTF_8)) {
+            if (!line.trim().isEmpty()) {
+                urls.add(new File(line.trim()).toURI().toURL());
+            }
+        }
+        return new PluginClassLoader(urls.toArray(new URL[0]), parent, Arrays.asList(parentFirstPrefixes.split(",")));
+    }
+
+    @Override
+    protected Class<?> loadClass(String name, boolean resolve)
+            throws ClassNotFoundException
+    {
+        synchronized (getClassLoadingLock(name)) {
+            Class<?> loaded = findLoadedClass(name);
+            if (loaded == null) {
+                if (name.startsWith("java.") || isParentFirst(name)) {
+                    return super.loadClass(name, resolve);
+                }
+                try {
+                    loaded = findClass(name);
+                    definedClasses.add(name);
+                }
+                catch (ClassNotFoundException e) {
+                    return super.loadClass(name, resolve);
+                }
+            }
+            if (resolve) {
+                resolveClass(loaded);
+            }
+            return loaded;
+        }
+    }
+
+    private boolean isParentFirst(String name)
+    {
+        for (String prefix : parentFirst) {
+            if (!prefix.isEmpty() && name.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Names of the classes this loader defined itself, rather than delegated to its parent.
+     */
+    public synchronized Set<String> getDefinedClasses()
+    {
+        return new TreeSet<>(definedClasses);
+    }
+}
@@ -0,0 +1,297 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.maven;
+
+import com.facebook.presto.maven.ServiceDescriptorState.ClassRecord;
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Finds the classes of a classes directory that implement any of a set of
+ * plugin types. Class files are streamed from a directory walk to a pool of
+ * workers. Given the state of a previous scan, only class files that were
+ * added or changed are read, and only classes whose project supertypes
+ * changed are classified again.
+ */
+class PluginClassScanner
+{
+    private final File classesDirectory;
+    private final List<File> dependencies;
+    private final Set<String> pluginTypes;
+    private final int parallelism;
+
+    public PluginClassScanner(File classesDirectory, List<File> dependencies, Set<String> pluginTypes, int parallelism)
+    {
+        checkArgument(parallelism > 0, "parallelism must be positive");
+        this.classesDirectory = checkNotNull(classesDirectory, "classesDirectory is null");
+        this.dependencies = ImmutableList.copyOf(checkNotNull(dependencies, "dependencies is null"));
+        this.pluginTypes = ImmutableSet.copyOf(checkNotNull(pluginTypes, "pluginTypes is null"));
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Fingerprint of everything besides the class files that classification depends on.
+     */
+    public String getDependenciesFingerprint()
+    {
+        Hasher hasher = Hashing.sha256().newHasher();
+        hasher.putString(Joiner.on(',').join(new TreeSet<>(pluginTypes)), UTF_8);
+        for (File dependency : dependencies) {
+            hasher.putString(dependency.getAbsolutePath(), UTF_8)
+                    .putLong(dependency.length())
+                    .putLong(dependency.lastModified());
+        }
+        return hasher.hash().toString();
+    }
+
+    /**
+     * Scans the classes directory. The returned records are keyed by relative path,
+     * and the implementations of every plugin type are sorted by class name.
+     */
+    public Result scan(ServiceDescriptorState previous)
+            throws IOException, InterruptedException, ExecutionException
+    {
+        return scan(previous, new BuildMetrics());
+    }
+
+    /**
+     * Scans the classes directory, recording the {@code scan.read} and
+     * {@code scan.classify} phases and the class files read in the metrics.
+     */
+    public Result scan(ServiceDescriptorState previous, BuildMetrics metrics)
+            throws IOException, InterruptedException, ExecutionException
+    {
+        String dependenciesFingerprint = getDependenciesFingerprint();
+        boolean dependenciesUnchanged = dependenciesFingerprint.equals(previous.getDependenciesFingerprint());
+        LongAdder classFilesRead = metrics.counter("classFilesRead");
+        LongAdder classBytesRead = metrics.counter("classBytesRead");
+
+        try (ClassHierarchy hierarchy = new ClassHierarchy(classesDirectory, dependencies, pluginTypes, metrics)) {
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                Map<String, ScannedClass> scanned = new TreeMap<>();
+                try (BuildMetrics.Timer ignored = metrics.time("scan.read")) {
+                    // the walk stays on this thread and feeds the workers as it goes
+                    List<ForkJoinTask<ScannedClass>> reads = new ArrayList<>();
+                    Files.walkFileTree(classesDirectory.toPath(), new SimpleFileVisitor<Path>()
+                    {
+                        @Override
+                        public FileVisitResult visitFile(Path file, BasicFileAttributes attributes)
+                        {
+                            if (attributes.isRegularFile() && file.getFileName().toString().endsWith(".class")) {
+                                String path = relativePath(file);
+                                ClassRecord record = previous.getClasses().get(path);
+                                reads.add(pool.submit(() -> readClass(hierarchy, file, path, attributes, record, classFilesRead, classBytesRead)));
+                            }
+                            return FileVisitResult.CONTINUE;
+                        }
+                    });
+
+                    for (ForkJoinTask<ScannedClass> read : reads) {
+                        ScannedClass scannedClass = read.get();
+                        scanned.put(scannedClass.record.getPath(), scannedClass);
+                    }
+                }
+                metrics.add("classFiles", scanned.size());
+
+                // a class must be classified again when it, or one of its supertypes in the project, is new, changed or gone
+                Set<String> dirty = new HashSet<>();
+                Map<String, ClassFileHeader> projectClasses = new HashMap<>();
+                for (ScannedClass scannedClass : scanned.values()) {
+                    projectClasses.put(scannedClass.record.getHeader().getName(), scannedClass.record.getHeader());
+                    if (!scannedClass.unchanged) {
+                        dirty.add(scannedClass.record.getHeader().getName());
+                    }
+                }
+                for (ClassRecord record : previous.getClasses().values()) {
+                    if (!scanned.containsKey(record.getPath())) {
+                        dirty.add(record.getHeader().getName());
+                    }
+                }
+
+                Map<String, ClassRecord> classes = new LinkedHashMap<>();
+                int reused = 0;
+                try (BuildMetrics.Timer ignored = metrics.time("scan.classify")) {
+                    List<ForkJoinTask<ClassRecord>> classifications = new ArrayList<>();
+                    for (ScannedClass scannedClass : scanned.values()) {
+                        ClassRecord record = scannedClass.record;
+                        if (dependenciesUnchanged && scannedClass.unchanged && !inheritsFromAny(record.getHeader(), dirty, projectClasses)) {
+                            classes.put(record.getPath(), record);
+                            reused++;
+                        }
+                        else {
+                            classifications.add(pool.submit(() -> record.withPluginTypes(hierarchy.findSupertypes(record.getHeader().getName()))));
+                        }
+                    }
+                    for (ForkJoinTask<ClassRecord> classification : classifications) {
+                        ClassRecord record = classification.get();
+                        classes.put(record.getPath(), record);
+                    }
+                }
+                metrics.add("classesClassified", classes.size() - reused);
+                metrics.add("classesReused", reused);
+
+                Map<String, List<String>> implementations = new LinkedHashMap<>();
+                for (String pluginType : pluginTypes) {
+                    Set<String> names = new TreeSet<>();
+                    for (ClassRecord record : classes.values()) {
+                        if (record.getPluginTypes().contains(pluginType)) {
+                            names.add(record.getHeader().getName());
+                        }
+                    }
+                    implementations.put(pluginType, ImmutableList.copyOf(names));
+                }
+
+                return new Result(dependenciesFingerprint, new TreeMap<>(classes), implementations, classes.size() - reused);
+            }
+            finally {
+                // workers still running after a failure must stop before the hierarchy closes the jars they read
+                pool.shutdownNow();
+                pool.awaitTermination(1, TimeUnit.MINUTES);
+            }
+        }
+    }
+
+    private static ScannedClass readClass(ClassHierarchy hierarchy, Path file, String path, BasicFileAttributes attributes, ClassRecord previous, LongAdder classFilesRead, LongAdder classBytesRead)
+            throws IOException
+    {
+        long size = attributes.size();
+        long lastModified = attributes.lastModifiedTime().toMillis();
+        if (previous != null && previous.hasFingerprint(size, lastModified)) {
+            hierarchy.addProjectClass(previous.getHeader());
+            return new ScannedClass(previous, true);
+        }
+        ClassFileHeader header = hierarchy.readProjectClass(file.toFile());
+        classFilesRead.increment();
+        classBytesRead.add(size);
+        return new ScannedClass(new ClassRecord(path, size, lastModified, header, ImmutableSet.<String>of()), false);
+    }
+
+    private static boolean inheritsFromAny(ClassFileHeader header, Set<String> classNames, Map<String, ClassFileHeader> projectClasses)
+    {
+        if (classNames.isEmpty()) {
+            return false;
+        }
+        List<String> pending = new ArrayList<>();
+        Set<String> visited = new HashSet<>();
+        pending.add(header.getName());
+        while (!pending.isEmpty()) {
+            String name = pending.remove(pending.size() - 1);
+            if (!visited.add(name)) {
+                continue;
+            }
+            if (classNames.contains(name)) {
+                return true;
+            }
+            ClassFileHeader current = projectClasses.get(name);
+            if (current == null) {
+                // outside the project, so covered by the dependencies fingerprint
+                continue;
+            }
+            if (current.getSuperName() != null) {
+                pending.add(current.getSuperName());
+            }
+            pending.addAll(current.getInterfaces());
+        }
+        return false;
+    }
+
+    private String relativePath(Path file)
+    {
+        return classesDirectory.toPath().relativize(file).toString().replace(File.separatorChar, '/');
+    }
+
+    private static class ScannedClass
+    {
+        private final ClassRecord record;
+        private final boolean unchanged;
+
+        private ScannedClass(ClassRecord record, boolean unchanged)
+        {
+            this.record = record;
+            this.unchanged = unchanged;
+        }
+    }
+
+    static final class Result
+    {
+        private final String dependenciesFingerprint;
+        private final Map<String, ClassRecord> classes;
+        private final Map<String, List<String>> implementations;
+        private final int classifiedCount;
+
+        private Result(String dependenciesFingerprint, Map<String, ClassRecord> classes, Map<String, List<String>> implementations, int classifiedCount)
+        {
+            this.dependenciesFingerprint = dependenciesFingerprint;
+            this.classes = classes;
+            this.implementations = implementations;
+            this.classifiedCount = classifiedCount;
+        }
+
+        public String getDependenciesFingerprint()
+        {
+            return dependenciesFingerprint;
+        }
+
+        public Map<String, ClassRecord> getClasses()
+        {
+            return classes;
+        }
+
+        /**
+         * Implementing class names for every plugin type, in plugin type order.
+         */
+        public Map<String, List<String>> getImplementations()
+        {
+            return implementations;
+        }
+
+        /**
+         * Number of classes whose plugin types had to be resolved rather than reused.
+         */
+        public int getClassifiedCount()
+        {
+            return classifiedCount;
+        }
+    }
+}
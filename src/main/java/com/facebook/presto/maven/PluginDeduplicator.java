@@ -0,0 +1,278 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.maven;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.Hashing;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+import org.apache.maven.project.MavenProject;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Mojo that writes the runtime classpath of every Presto plugin in the reactor
+ * into one content-addressed store, so a jar bundled by many plugins is kept
+ * once. Files in the store are named by the SHA-256 of their contents. Each
+ * plugin then gets either a directory of hard links into the store, which is
+ * the layout Presto loads plugins from, or a manifest listing the store
+ * entries it needs. The per-plugin archives are not affected.
+ */
+@Mojo(name = "deduplicate-plugins", aggregator = true, requiresDependencyResolution = ResolutionScope.RUNTIME, threadSafe = true)
+public class PluginDeduplicator
+        extends AbstractMojo
+{
+    private static final Set<String> PLUGIN_PACKAGINGS = ImmutableSet.of("presto-plugin", "presto-plugin-native");
+    private static final String MANIFEST_HEADER = "presto-plugin-manifest\t1";
+
+    public enum LinkMode
+    {
+        /**
+         * A directory per plugin with hard links into the store, or copies where the file system has no hard links.
+         */
+        HARDLINK,
+        /**
+         * A manifest per plugin listing file names and store entries.
+         */
+        MANIFEST
+    }
+
+    @Parameter(property = "presto.dedup.outputDirectory", defaultValue = "${project.build.directory}/presto-plugins")
+    private File outputDirectory;
+
+    @Parameter(property = "presto.dedup.linkMode", defaultValue = "HARDLINK")
+    private LinkMode linkMode;
+
+    /**
+     * Number of threads hashing jars. Defaults to the number of processors.
+     */
+    @Parameter(property = "presto.dedup.parallelism", defaultValue = "0")
+    private int parallelism;
+
+    @Parameter(defaultValue = "${reactorProjects}", readonly = true)
+    private List<MavenProject> reactorProjects;
+
+    @Override
+    public void execute()
+            throws MojoExecutionException, MojoFailureException
+    {
+        Map<String, Map<String, File>> plugins = new TreeMap<>();
+        for (MavenProject project : reactorProjects) {
+            if (!PLUGIN_PACKAGINGS.contains(project.getPackaging())) {
+                continue;
+            }
+            File jar = new File(project.getBuild().getDirectory(), project.getBuild().getFinalName() + ".jar");
+            if (plugins.put(project.getArtifactId(), PluginLayout.getRuntimeClasspath(project, jar)) != null) {
+                throw new MojoExecutionException(format("%n%nMore than one Presto plugin in the reactor has artifactId %s.", project.getArtifactId()));
+            }
+        }
+        if (plugins.isEmpty()) {
+            getLog().info("No Presto plugins in the reactor to deduplicate");
+            return;
+        }
+
+        try {
+            Map<File, String> hashes = hashFiles(plugins);
+            File store = new File(outputDirectory, "store");
+
+            int bundledFiles = 0;
+            long bundledBytes = 0;
+            Map<String, File> stored = new HashMap<>();
+            for (Map<String, File> files : plugins.values()) {
+                for (File file : files.values()) {
+                    bundledFiles++;
+                    bundledBytes += file.length();
+                    stored.put(storeName(hashes.get(file), file), file);
+                }
+            }
+
+            long storedBytes = 0;
+            for (Map.Entry<String, File> entry : stored.entrySet()) {
+                File target = new File(store, entry.getKey());
+                storedBytes += entry.getValue().length();
+                if (!target.isFile() || target.length() != entry.getValue().length()) {
+                    CacheFiles.copy(entry.getValue(), target);
+                }
+            }
+            deleteOthers(store.toPath(), stored.keySet());
+
+            Set<String> outputs = new HashSet<>();
+            for (Map.Entry<String, Map<String, File>> plugin : plugins.entrySet()) {
+                if (linkMode == LinkMode.HARDLINK) {
+                    outputs.add(plugin.getKey());
+                    linkPlugin(new File(outputDirectory, "plugins/" + plugin.getKey()).toPath(), store, plugin.getValue(), hashes);
+                }
+                else {
+                    outputs.add(plugin.getKey() + ".manifest");
+                    writeManifest(new File(outputDirectory, "plugins/" + plugin.getKey() + ".manifest"), plugin.getValue(), hashes);
+                }
+            }
+            deleteOthers(new File(outputDirectory, "plugins").toPath(), outputs);
+
+            getLog().info(format("Deduplicated %s Presto plugins: %s bundled files (%s MB) are %s files (%s MB) in %s",
+                    plugins.size(),
+                    bundledFiles,
+                    bundledBytes / (1024 * 1024),
+                    stored.size(),
+                    storedBytes / (1024 * 1024),
+                    store));
+        }
+        catch (IOException | ExecutionException e) {
+            throw new MojoExecutionException("Failed to deduplicate Presto plugins", e);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException("Interrupted while deduplicating Presto plugins", e);
+        }
+    }
+
+    private Map<File, String> hashFiles(Map<String, Map<String, File>> plugins)
+            throws InterruptedException, ExecutionException
+    {
+        // plugins mostly share files from the local repository, so each path is hashed once
+        ForkJoinPool pool = new ForkJoinPool(getParallelism());
+        try {
+            Map<File, ForkJoinTask<String>> tasks = new LinkedHashMap<>();
+            for (Map<String, File> files : plugins.values()) {
+                for (File file : files.values()) {
+                    if (!tasks.containsKey(file)) {
+                        tasks.put(file, pool.submit(() -> FileHashing.hash(file, Hashing.sha256()).toString()));
+                    }
+                }
+            }
+            Map<File, String> hashes = new HashMap<>();
+            for (Map.Entry<File, ForkJoinTask<String>> task : tasks.entrySet()) {
+                hashes.put(task.getKey(), task.getValue().get());
+            }
+            return hashes;
+        }
+        finally {
+            pool.shutdownNow();
+            pool.awaitTermination(1, TimeUnit.MINUTES);
+        }
+    }
+
+    private void linkPlugin(Path directory, File store, Map<String, File> files, Map<File, String> hashes)
+            throws IOException
+    {
+        Files.createDirectories(directory);
+        for (Map.Entry<String, File> entry : files.entrySet()) {
+            Path link = directory.resolve(entry.getKey());
+            Path target = new File(store, storeName(hashes.get(entry.getValue()), entry.getValue())).toPath();
+            if (Files.exists(link) && Files.isSameFile(link, target)) {
+                continue;
+            }
+            Files.createDirectories(link.getParent());
+            Files.deleteIfExists(link);
+            try {
+                Files.createLink(link, target);
+            }
+            catch (UnsupportedOperationException | FileSystemException e) {
+                getLog().debug(format("Copying %s, since it cannot be linked: %s", link, e));
+                Files.copy(target, link);
+            }
+        }
+        // entries added to the archive by other goals may be in subdirectories
+        Set<String> topLevel = new HashSet<>();
+        for (String name : files.keySet()) {
+            topLevel.add(name.split("/", 2)[0]);
+        }
+        deleteOthers(directory, topLevel);
+    }
+
+    private static void writeManifest(File manifest, Map<String, File> files, Map<File, String> hashes)
+            throws IOException
+    {
+        StringBuilder contents = new StringBuilder();
+        contents.append(MANIFEST_HEADER).append('\n');
+        for (Map.Entry<String, File> entry : files.entrySet()) {
+            File file = entry.getValue();
+            contents.append(entry.getKey()).append('\t')
+                    .append("store/").append(storeName(hashes.get(file), file)).append('\t')
+                    .append(file.length()).append('\n');
+        }
+        CacheFiles.write(manifest, contents.toString().getBytes(UTF_8));
+    }
+
+    private static String storeName(String hash, File file)
+    {
+        String name = file.getName();
+        int extension = name.lastIndexOf('.');
+        return (extension < 0) ? hash : hash + name.substring(extension);
+    }
+
+    private static void deleteOthers(Path directory, Set<String> keep)
+            throws IOException
+    {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        List<Path> stale = new ArrayList<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+            for (Path entry : entries) {
+                if (!keep.contains(entry.getFileName().toString())) {
+                    stale.add(entry);
+                }
+            }
+        }
+        for (Path path : stale) {
+            deleteRecursively(path);
+        }
+    }
+
+    private static void deleteRecursively(Path path)
+            throws IOException
+    {
+        if (Files.isDirectory(path) && !Files.isSymbolicLink(path)) {
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(path)) {
+                for (Path entry : entries) {
+                    deleteRecursively(entry);
+                }
+            }
+        }
+        Files.deleteIfExists(path);
+    }
+
+    private int getParallelism()
+    {
+        if (parallelism > 0) {
+            return parallelism;
+        }
+        return Runtime.getRuntime().availableProcessors();
+    }
+}
@@ -0,0 +1,273 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.maven;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Applies a delta archive written by {@code package-plugin} to a Presto plugin
+ * directory that holds the previous release, which turns it into the new one.
+ * The delta holds the entries that were added or changed, the list of entries
+ * to remove, and the manifest of the new release, which the directory is
+ * checked against: before anything is written, every name must stay inside
+ * the directory, every entry the delta leaves alone must be present with the
+ * size, or with {@code --verify} also the hash, of the new release, and the
+ * directory must hold nothing else. Entries are
+ * replaced one at a time by moving a complete file into place.
+ * <p>
+ * It runs on servers without Maven, so it must only use the JDK:
+ * <pre>
+ * java -cp presto-maven-plugin.jar com.facebook.presto.maven.PluginDeltaTool [--verify] &lt;delta zip&gt; &lt;plugin directory&gt;
+ * </pre>
+ */
+final class PluginDeltaTool
+{
+    static final String DELTA_ENTRY = ".presto-plugin-delta";
+    static final String MANIFEST_ENTRY = ".presto-plugin-manifest";
+    static final String DELTA_HEADER = "presto-plugin-delta\t1";
+    static final String REMOVE_PREFIX = "remove\t";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private PluginDeltaTool() {}
+
+    public static void main(String[] args)
+    {
+        boolean verify = args.length == 3 && args[0].equals("--verify");
+        if (args.length != (verify ? 3 : 2)) {
+            System.err.println("usage: PluginDeltaTool [--verify] <delta zip> <plugin directory>");
+            System.exit(2);
+        }
+        try {
+            System.out.println(apply(Paths.get(args[args.length - 2]), Paths.get(args[args.length - 1]), verify));
+        }
+        catch (IOException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Applies the delta to the directory and returns a summary of the changes.
+     */
+    public static String apply(Path delta, Path directory, boolean verify)
+            throws IOException
+    {
+        try (ZipFile zip = new ZipFile(delta.toFile())) {
+            List<String> removals = readRemovals(zip, delta);
+            ZipEntry manifestEntry = zip.getEntry(MANIFEST_ENTRY);
+            if (manifestEntry == null) {
+                throw new IOException(format("%s has no %s", delta, MANIFEST_ENTRY));
+            }
+            PluginManifest manifest;
+            try (InputStream input = zip.getInputStream(manifestEntry)) {
+                manifest = PluginManifest.read(input);
+            }
+
+            // check the whole directory first, so a delta for another release changes nothing
+            Map<String, Path> targets = new HashMap<>();
+            for (String name : manifest.getEntries().keySet()) {
+                targets.put(name, resolve(directory, name, delta));
+            }
+            for (String name : removals) {
+                targets.put(name, resolve(directory, name, delta));
+            }
+            TreeSet<String> present = new TreeSet<>();
+            listFiles(directory, directory, present);
+            for (Map.Entry<String, PluginManifest.Entry> entry : manifest.getEntries().entrySet()) {
+                String name = entry.getKey();
+                if (zip.getEntry(name) != null) {
+                    continue;
+                }
+                Path file = targets.get(name);
+                if (!Files.isRegularFile(file) || Files.size(file) != entry.getValue().getSize() || (verify && !entry.getValue().getSha256().equals(hash(file)))) {
+                    throw new IOException(format("%s does not hold the release %s is a delta against: %s differs", directory, delta, name));
+                }
+            }
+            present.removeAll(manifest.getEntries().keySet());
+            present.removeAll(removals);
+            if (!present.isEmpty()) {
+                throw new IOException(format("%s does not hold the release %s is a delta against: %s is not part of it", directory, delta, present.first()));
+            }
+
+            int written = 0;
+            for (Map.Entry<String, PluginManifest.Entry> entry : manifest.getEntries().entrySet()) {
+                ZipEntry zipEntry = zip.getEntry(entry.getKey());
+                if (zipEntry != null) {
+                    write(zip, zipEntry, targets.get(entry.getKey()), entry.getValue());
+                    written++;
+                }
+            }
+            int removed = 0;
+            for (String name : removals) {
+                if (Files.deleteIfExists(targets.get(name))) {
+                    removed++;
+                }
+            }
+            return format("Applied %s to %s: %s entries written, %s removed, %s unchanged", delta.getFileName(), directory, written, removed, manifest.getEntries().size() - written);
+        }
+    }
+
+    /**
+     * Resolves a name from the delta in the directory, rejecting names that reach outside of it.
+     */
+    private static Path resolve(Path directory, String name, Path delta)
+            throws IOException
+    {
+        Path root = directory.toAbsolutePath().normalize();
+        Path file;
+        try {
+            if (root.getFileSystem().getPath(name).isAbsolute()) {
+                throw new IOException(format("%s names the absolute path %s", delta, name));
+            }
+            file = root.resolve(name).normalize();
+        }
+        catch (InvalidPathException e) {
+            throw new IOException(format("%s names the invalid path %s", delta, name), e);
+        }
+        if (file.equals(root) || !file.startsWith(root)) {
+            throw new IOException(format("%s names %s, which is outside of %s", delta, name, directory));
+        }
+        return file;
+    }
+
+    private static List<String> readRemovals(ZipFile zip, Path delta)
+            throws IOException
+    {
+        ZipEntry entry = zip.getEntry(DELTA_ENTRY);
+        if (entry == null) {
+            throw new IOException(format("%s is not a Presto plugin delta", delta));
+        }
+        List<String> removals = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(zip.getInputStream(entry), UTF_8))) {
+            if (!DELTA_HEADER.equals(reader.readLine())) {
+                throw new IOException(format("%s is not a Presto plugin delta this version can apply", delta));
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(REMOVE_PREFIX)) {
+                    removals.add(line.substring(REMOVE_PREFIX.length()));
+                }
+            }
+        }
+        return removals;
+    }
+
+    /**
+     * Extracts the entry next to the target, checks it against the manifest, and moves it into place.
+     */
+    private static void write(ZipFile zip, ZipEntry zipEntry, Path target, PluginManifest.Entry expected)
+            throws IOException
+    {
+        Files.createDirectories(target.toAbsolutePath().getParent());
+        Path temporary = Files.createTempFile(target.toAbsolutePath().getParent(), target.getFileName().toString(), ".tmp");
+        try {
+            MessageDigest digest = newDigest();
+            try (InputStream input = new DigestInputStream(zip.getInputStream(zipEntry), digest);
+                    OutputStream output = Files.newOutputStream(temporary)) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int read;
+                while ((read = input.read(buffer)) != -1) {
+                    output.write(buffer, 0, read);
+                }
+            }
+            if (!expected.getSha256().equals(toHex(digest.digest())) || Files.size(temporary) != expected.getSize()) {
+                throw new IOException(format("%s in the delta does not match its manifest", zipEntry.getName()));
+            }
+            try {
+                Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    private static void listFiles(Path root, Path directory, TreeSet<String> files)
+            throws IOException
+    {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+            for (Path entry : entries) {
+                if (Files.isDirectory(entry)) {
+                    listFiles(root, entry, files);
+                }
+                else {
+                    files.add(root.relativize(entry).toString().replace(root.getFileSystem().getSeparator(), "/"));
+                }
+            }
+        }
+    }
+
+    private static String hash(Path file)
+            throws IOException
+    {
+        MessageDigest digest = newDigest();
+        try (InputStream input = new DigestInputStream(Files.newInputStream(file), digest)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (input.read(buffer) != -1) {
+                // the digest sees every byte read
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    private static MessageDigest newDigest()
+    {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new AssertionError("Every JDK has SHA-256", e);
+        }
+    }
+
+    private static String toHex(byte[] bytes)
+    {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+}
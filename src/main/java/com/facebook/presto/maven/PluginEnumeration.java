@@ -0,0 +1,73 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.maven;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Enumerates what a plugin provides the way the server does on startup: every
+ * getter of the plugin is called, and every getter of the factories they
+ * return. Used by the probes that run in a forked JVM, so it must only use
+ * the JDK.
+ */
+final class PluginEnumeration
+{
+    private PluginEnumeration() {}
+
+    public static void enumerate(Object plugin)
+    {
+        for (Object provided : invokeGetters(plugin)) {
+            if (provided instanceof Iterable) {
+                for (Object factory : (Iterable<?>) provided) {
+                    if (factory != null && !(factory instanceof Class)) {
+                        invokeGetters(factory);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Calls every public no-argument getter of the object and returns the results.
+     * A getter that fails is reported and skipped, since plugins often leave some unimplemented.
+     */
+    private static List<Object> invokeGetters(Object object)
+    {
+        List<Object> results = new ArrayList<>();
+        Method[] methods = object.getClass().getMethods();
+        Arrays.sort(methods, (left, right) -> left.getName().compareTo(right.getName()));
+        for (Method method : methods) {
+            if (!method.getName().startsWith("get") ||
+                    method.getParameterCount() != 0 ||
+                    Modifier.isStatic(method.getModifiers()) ||
+                    method.getDeclaringClass() == Object.class) {
+                continue;
+            }
+            try {
+                method.setAccessible(true);
+                results.add(method.invoke(object));
+            }
+            catch (ReflectiveOperationException | RuntimeException e) {
+                Throwable cause = (e instanceof InvocationTargetException) ? e.getCause() : e;
+                System.err.println("Skipping " + object.getClass().getName() + "." + method.getName() + "(): " + cause);
+            }
+        }
+        return results;
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.maven;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.project.MavenProject;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static java.lang.String.format;
+
+/**
+ * The files of a Presto plugin archive, as laid out by the {@code presto-plugin.xml}
+ * provisio assembly: the project jar and its runtime dependencies, all at the root
+ * of the archive and named {@code artifactId-version[-classifier].extension}.
+ * Goals that add files to the archive, such as a class list, write them to the
+ * {@linkplain #getExtrasDirectory extras directory}, whose contents are added
+ * under the same relative paths. A dependency with a copy in the
+ * {@linkplain #getMinimizedDirectory minimized directory} is read from that
+ * copy, which the provisio assembly does not do.
+ */
+final class PluginLayout
+{
+    private PluginLayout() {}
+
+    public static File getExtrasDirectory(MavenProject project)
+    {
+        return new File(project.getBuild().getDirectory(), "presto-plugin/archive");
+    }
+
+    public static File getMinimizedDirectory(MavenProject project)
+    {
+        return new File(project.getBuild().getDirectory(), "presto-plugin/minimized");
+    }
+
+    /**
+     * Returns the archive entries, sorted by name, and the files they are read from.
+     */
+    public static Map<String, File> getRuntimeClasspath(MavenProject project, File projectJar)
+            throws MojoExecutionException
+    {
+        if (!projectJar.isFile()) {
+            throw new MojoExecutionException(format("%n%nPresto plugin jar %s does not exist. It must be packaged before the plugin archive.", projectJar));
+        }
+        Map<String, File> entries = new TreeMap<>();
+        add(entries, format("%s-%s.jar", project.getArtifactId(), project.getVersion()), projectJar);
+        for (Map.Entry<String, File> entry : getDependencies(project).entrySet()) {
+            add(entries, entry.getKey(), entry.getValue());
+        }
+        return Collections.unmodifiableMap(entries);
+    }
+
+    /**
+     * Returns the archive entries other than the project jar, sorted by name, and the files they are read from.
+     */
+    public static Map<String, File> getDependencies(MavenProject project)
+            throws MojoExecutionException
+    {
+        Map<String, File> entries = new TreeMap<>();
+        File minimizedDirectory = getMinimizedDirectory(project);
+        for (Artifact artifact : project.getArtifacts()) {
+            if (!Artifact.SCOPE_COMPILE.equals(artifact.getScope()) && !Artifact.SCOPE_RUNTIME.equals(artifact.getScope())) {
+                continue;
+            }
+            File file = artifact.getFile();
+            if (file == null || !file.isFile()) {
+                throw new MojoExecutionException(format("%n%nPresto plugin dependency %s is not packaged. Build it with 'package' or a later phase.", artifact.getId()));
+            }
+            String name = getFileName(artifact);
+            File minimized = new File(minimizedDirectory, name);
+            add(entries, name, minimized.isFile() ? minimized : file);
+        }
+
+        File extras = getExtrasDirectory(project);
+        if (extras.isDirectory()) {
+            Map<String, File> extraEntries = new TreeMap<>();
+            try {
+                Path root = extras.toPath();
+                Files.walkFileTree(root, new SimpleFileVisitor<Path>()
+                {
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attributes)
+                    {
+                        if (attributes.isRegularFile()) {
+                            extraEntries.put(root.relativize(file).toString().replace(File.separatorChar, '/'), file.toFile());
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            }
+            catch (IOException e) {
+                throw new MojoExecutionException(format("Failed to list %s", extras), e);
+            }
+            for (Map.Entry<String, File> entry : extraEntries.entrySet()) {
+                add(entries, entry.getKey(), entry.getValue());
+            }
+        }
+        return Collections.unmodifiableMap(entries);
+    }
+
+    static String getFileName(Artifact artifact)
+    {
+        StringBuilder name = new StringBuilder();
+        name.append(artifact.getArtifactId()).append('-').append(artifact.getVersion());
+        if (artifact.hasClassifier()) {
+            name.append('-').append(artifact.getClassifier());
+        }
+        return name.append('.').append(artifact.getArtifactHandler().getExtension()).toString();
+    }
+
+    private static void add(Map<String, File> entries, String name, File file)
+            throws MojoExecutionException
+    {
+        File existing = entries.put(name, file);
+        if (existing != null && !existing.equals(file)) {
+            throw new MojoExecutionException(format("%n%nPresto plugin archive entry %s would be written from both %s and %s.", name, existing, file));
+        }
+    }
+}
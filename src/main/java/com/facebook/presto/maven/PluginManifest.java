@@ -0,0 +1,132 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.maven;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * The SHA-256 hash and size of every entry of a Presto plugin archive. The
+ * {@code package-plugin} goal writes it next to the archive, so that a later
+ * release can be shipped as a delta against it, and {@link PluginDeltaTool}
+ * reads it on the servers, so it must only use the JDK.
+ * <p>
+ * The format is a header line followed by a {@code name}, {@code sha256} and
+ * {@code size} line per entry, separated by tabs and sorted by name.
+ */
+final class PluginManifest
+{
+    private static final String HEADER = "presto-plugin-hashes\t1";
+
+    private final Map<String, Entry> entries;
+
+    public PluginManifest(Map<String, Entry> entries)
+    {
+        this.entries = Collections.unmodifiableMap(new TreeMap<>(entries));
+    }
+
+    public Map<String, Entry> getEntries()
+    {
+        return entries;
+    }
+
+    public byte[] toBytes()
+    {
+        StringBuilder contents = new StringBuilder();
+        contents.append(HEADER).append('\n');
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            contents.append(entry.getKey()).append('\t')
+                    .append(entry.getValue().getSha256()).append('\t')
+                    .append(entry.getValue().getSize()).append('\n');
+        }
+        return contents.toString().getBytes(UTF_8);
+    }
+
+    public static PluginManifest read(InputStream input)
+            throws IOException
+    {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(input, UTF_8));
+        if (!HEADER.equals(reader.readLine())) {
+            throw new IOException("Not a Presto plugin manifest");
+        }
+        Map<String, Entry> entries = new TreeMap<>();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            String[] fields = line.split("\t");
+            if (fields.length != 3) {
+                throw new IOException(format("Invalid Presto plugin manifest line: %s", line));
+            }
+            try {
+                entries.put(fields[0], new Entry(fields[1], Long.parseLong(fields[2])));
+            }
+            catch (NumberFormatException e) {
+                throw new IOException(format("Invalid Presto plugin manifest line: %s", line), e);
+            }
+        }
+        return new PluginManifest(entries);
+    }
+
+    static final class Entry
+    {
+        private final String sha256;
+        private final long size;
+
+        public Entry(String sha256, long size)
+        {
+            this.sha256 = Objects.requireNonNull(sha256, "sha256 is null");
+            this.size = size;
+        }
+
+        public String getSha256()
+        {
+            return sha256;
+        }
+
+        public long getSize()
+        {
+            return size;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (this == obj) {
+                return true;
+            }
+            if (obj == null || getClass() != obj.getClass()) {
+                return false;
+            }
+            Entry other = (Entry) obj;
+            return size == other.size && sha256.equals(other.sha256);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(sha256, size);
+        }
+    }
+}
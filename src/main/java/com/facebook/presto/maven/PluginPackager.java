@@ -0,0 +1,495 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.maven;
+
+import com.facebook.presto.maven.PluginClassIndex.IndexedJar;
+import com.facebook.presto.maven.PluginZipWriter.DeflatedEntry;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashCodes;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Component;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+import org.apache.maven.project.MavenProject;
+import org.apache.maven.project.MavenProjectHelper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Mojo that packages a Presto plugin archive with the same layout as the
+ * {@code presto-plugin.xml} provisio assembly. Jars and other archives are
+ * stored as they are, since compressing them again gains nothing, and other
+ * files are deflated on a pool of workers. Entries are sorted by name and all
+ * carry the same timestamp, so the archive is reproducible. Unless disabled,
+ * the archive ends with a {@link PluginClassIndex} of the jars it holds. Only
+ * this goal writes the index, so archives of the provisio {@code presto-plugin}
+ * packaging have none.
+ * <p>
+ * The archive is only written when its inputs changed: a fingerprint of the
+ * classes directory, including the generated service descriptors, the
+ * contents of every other entry, the POM, the archive settings and this
+ * plugin is recorded with the archive, and a later build with the same
+ * fingerprint keeps the existing archive.
+ * <p>
+ * A {@link PluginManifest} of every archive entry, the class index included,
+ * is written and attached next to the archive. Given the manifest of the previous release, the goal also
+ * writes a delta archive with only the entries that were added or changed,
+ * which {@link PluginDeltaTool} applies to a server that has the previous
+ * release.
+ */
+@Mojo(name = "package-plugin", defaultPhase = LifecyclePhase.PACKAGE, requiresDependencyResolution = ResolutionScope.RUNTIME, threadSafe = true)
+public class PluginPackager
+        extends AbstractMojo
+{
+    private static final Set<String> STORED_EXTENSIONS = ImmutableSet.of("jar", "zip", "war", "ear", "gz", "tgz", "bz2", "xz");
+    private static final LruCache<String, HashCode> inputHashes = new LruCache<>("packageInputHashes", 1024 * 1024, hash -> 256);
+
+    @Parameter(defaultValue = "${project.build.directory}/${project.build.finalName}.jar")
+    private File jarFile;
+
+    @Parameter(defaultValue = "${project.build.directory}/${project.artifactId}-${project.version}.zip")
+    private File archiveFile;
+
+    /**
+     * Timestamp of every archive entry, as ISO-8601 or seconds since the epoch.
+     * Defaults to the earliest time a zip can record.
+     */
+    @Parameter(defaultValue = "${project.build.outputTimestamp}")
+    private String outputTimestamp;
+
+    /**
+     * Number of threads computing checksums and deflating entries. Defaults to the number of processors,
+     * divided among the modules a parallel build runs at once.
+     */
+    @Parameter(property = "presto.packager.parallelism", defaultValue = "0")
+    private int parallelism;
+
+    /**
+     * Whether to add a {@link PluginClassIndex} to the archive. The provisio assembly never adds one.
+     */
+    @Parameter(property = "presto.packager.classIndex", defaultValue = "true")
+    private boolean classIndex;
+
+    /**
+     * Write the archive even when its inputs have not changed since it was last written.
+     */
+    @Parameter(property = "presto.packager.force", defaultValue = "false")
+    private boolean forceCreation;
+
+    /**
+     * The classes the project jar is built from. They are fingerprinted instead of the jar,
+     * which records new timestamps whenever it is rebuilt.
+     */
+    @Parameter(defaultValue = "${project.build.outputDirectory}")
+    private File classesDirectory;
+
+    @Parameter(defaultValue = "${project.build.directory}/presto-maven-plugin/package-plugin.fingerprint")
+    private File fingerprintFile;
+
+    @Parameter(defaultValue = "${project.build.directory}/${project.artifactId}-${project.version}-manifest.txt")
+    private File manifestFile;
+
+    /**
+     * The manifest of the release to write a delta archive against. No delta is written unless it is set.
+     */
+    @Parameter(property = "presto.packager.previousManifest")
+    private File previousManifest;
+
+    @Parameter(defaultValue = "${project.build.directory}/${project.artifactId}-${project.version}-delta.zip")
+    private File deltaFile;
+
+    @Parameter(defaultValue = "${project}")
+    private MavenProject project;
+
+    @Parameter(defaultValue = "${session}", readonly = true)
+    private MavenSession session;
+
+    @Component
+    private MavenProjectHelper projectHelper;
+
+    @Override
+    public void execute()
+            throws MojoExecutionException, MojoFailureException
+    {
+        BuildMetrics metrics = new BuildMetrics();
+        try {
+            Map<String, File> entries;
+            try (BuildMetrics.Timer ignored = metrics.time("layout")) {
+                entries = PluginLayout.getRuntimeClasspath(project, jarFile);
+            }
+            Instant timestamp = parseTimestamp(outputTimestamp);
+
+            String fingerprint;
+            try (BuildMetrics.Timer ignored = metrics.time("fingerprint")) {
+                fingerprint = fingerprint(entries, timestamp);
+            }
+            catch (IOException e) {
+                throw new MojoExecutionException(format("Failed to fingerprint the inputs of %s", archiveFile), e);
+            }
+            if (!forceCreation && fingerprint.equals(readRecordedFingerprint())) {
+                metrics.add("upToDate", 1);
+                getLog().info(format("%s is up to date", archiveFile.getName()));
+                attachArtifacts();
+                return;
+            }
+
+            try (BuildMetrics.Timer ignored = metrics.time("writeArchive")) {
+                // an archive that fails half way must not be taken for an up to date one
+                Files.deleteIfExists(fingerprintFile.toPath());
+                writeArchive(entries, timestamp, readPreviousManifest(), metrics);
+                recordFingerprint(fingerprint);
+            }
+            catch (IOException | ExecutionException e) {
+                throw new MojoExecutionException(format("Failed to write Presto plugin archive %s", archiveFile), e);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new MojoExecutionException("Interrupted while writing Presto plugin archive", e);
+            }
+
+            metrics.add("entries", entries.size());
+            metrics.add("archiveBytes", archiveFile.length());
+            getLog().info(format("Packaged %s entries into %s", entries.size(), archiveFile.getName()));
+            attachArtifacts();
+        }
+        finally {
+            metrics.write(project, "package-plugin", getLog());
+        }
+    }
+
+    private void attachArtifacts()
+    {
+        project.getArtifact().setFile(archiveFile);
+        projectHelper.attachArtifact(project, "txt", "manifest", manifestFile);
+        if (previousManifest != null) {
+            projectHelper.attachArtifact(project, "zip", "delta", deltaFile);
+        }
+    }
+
+    private PluginManifest readPreviousManifest()
+            throws MojoExecutionException
+    {
+        if (previousManifest == null) {
+            return null;
+        }
+        try (InputStream input = Files.newInputStream(previousManifest.toPath())) {
+            return PluginManifest.read(input);
+        }
+        catch (IOException e) {
+            throw new MojoExecutionException(format("%n%nFailed to read the previous release manifest %s.", previousManifest), e);
+        }
+    }
+
+    private void writeArchive(Map<String, File> entries, Instant timestamp, PluginManifest previous, BuildMetrics metrics)
+            throws IOException, InterruptedException, ExecutionException
+    {
+        Files.createDirectories(archiveFile.getAbsoluteFile().getParentFile().toPath());
+        Path temporary = new File(archiveFile.getPath() + ".tmp").toPath();
+
+        ForkJoinPool pool = new ForkJoinPool(getParallelism());
+        try {
+            // checksums and compression run ahead on the pool while entries are written in order
+            List<ForkJoinTask<PreparedEntry>> prepared = new ArrayList<>();
+            for (Map.Entry<String, File> entry : entries.entrySet()) {
+                String name = entry.getKey();
+                Path file = entry.getValue().toPath();
+                prepared.add(pool.submit(() -> prepare(name, file, classIndex)));
+            }
+
+            Map<String, PluginManifest.Entry> hashes = new TreeMap<>();
+            // entries the packager writes itself rather than reading them from a file
+            Map<String, PluginZipWriter.DeflatedEntry> generated = new TreeMap<>();
+            try (PluginZipWriter writer = new PluginZipWriter(temporary, timestamp)) {
+                Map<String, IndexedJar> jars = new TreeMap<>();
+                Map<String, JarIndex> contents = new HashMap<>();
+                for (ForkJoinTask<PreparedEntry> task : prepared) {
+                    PreparedEntry entry = task.get();
+                    hashes.put(entry.name, new PluginManifest.Entry(entry.sha256.toString(), Files.size(entry.file)));
+                    if (entry.deflated == null) {
+                        writer.writeStored(entry.name, entry.file, entry.crc);
+                        metrics.add("storedEntries", 1);
+                    }
+                    else {
+                        writer.writeDeflated(entry.name, entry.deflated);
+                        metrics.add("deflatedEntries", 1);
+                    }
+                    if (entry.contents != null) {
+                        jars.put(entry.name, new IndexedJar(entry.name, Files.size(entry.file), entry.sha256));
+                        contents.put(entry.name, entry.contents);
+                    }
+                }
+                if (classIndex) {
+                    metrics.add("indexedJars", jars.size());
+                    ByteArrayOutputStream index = new ByteArrayOutputStream();
+                    PluginClassIndex.build(jars, contents).write(index);
+                    byte[] indexBytes = index.toByteArray();
+                    hashes.put(PluginClassIndex.FILE_NAME, new PluginManifest.Entry(Hashing.sha256().hashBytes(indexBytes).toString(), indexBytes.length));
+                    generated.put(PluginClassIndex.FILE_NAME, PluginZipWriter.deflate(indexBytes));
+                }
+                for (Map.Entry<String, PluginZipWriter.DeflatedEntry> entry : generated.entrySet()) {
+                    writer.writeDeflated(entry.getKey(), entry.getValue());
+                }
+            }
+
+            PluginManifest manifest = new PluginManifest(hashes);
+            CacheFiles.write(manifestFile, manifest.toBytes());
+            if (previous != null) {
+                writeDelta(prepared, generated, manifest, previous, timestamp, metrics);
+            }
+        }
+        catch (IOException | InterruptedException | ExecutionException | RuntimeException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+        finally {
+            pool.shutdownNow();
+            pool.awaitTermination(1, TimeUnit.MINUTES);
+        }
+
+        CacheFiles.replace(temporary, archiveFile.toPath());
+    }
+
+    /**
+     * Writes the entries that differ from the previous release, the entries to remove, and the new manifest.
+     */
+    private void writeDelta(List<ForkJoinTask<PreparedEntry>> prepared, Map<String, PluginZipWriter.DeflatedEntry> generated, PluginManifest manifest, PluginManifest previous, Instant timestamp, BuildMetrics metrics)
+            throws IOException, InterruptedException, ExecutionException
+    {
+        StringBuilder control = new StringBuilder();
+        control.append(PluginDeltaTool.DELTA_HEADER).append('\n');
+        for (String name : previous.getEntries().keySet()) {
+            if (!manifest.getEntries().containsKey(name)) {
+                control.append(PluginDeltaTool.REMOVE_PREFIX).append(name).append('\n');
+                metrics.add("deltaRemovedEntries", 1);
+            }
+        }
+
+        Path temporary = new File(deltaFile.getPath() + ".tmp").toPath();
+        try (PluginZipWriter writer = new PluginZipWriter(temporary, timestamp)) {
+            writer.writeDeflated(PluginDeltaTool.DELTA_ENTRY, PluginZipWriter.deflate(control.toString().getBytes(UTF_8)));
+            writer.writeDeflated(PluginDeltaTool.MANIFEST_ENTRY, PluginZipWriter.deflate(manifest.toBytes()));
+            for (ForkJoinTask<PreparedEntry> task : prepared) {
+                PreparedEntry entry = task.get();
+                if (manifest.getEntries().get(entry.name).equals(previous.getEntries().get(entry.name))) {
+                    continue;
+                }
+                if (entry.deflated == null) {
+                    writer.writeStored(entry.name, entry.file, entry.crc);
+                }
+                else {
+                    writer.writeDeflated(entry.name, entry.deflated);
+                }
+                metrics.add("deltaEntries", 1);
+            }
+            for (Map.Entry<String, PluginZipWriter.DeflatedEntry> entry : generated.entrySet()) {
+                if (!manifest.getEntries().get(entry.getKey()).equals(previous.getEntries().get(entry.getKey()))) {
+                    writer.writeDeflated(entry.getKey(), entry.getValue());
+                    metrics.add("deltaEntries", 1);
+                }
+            }
+        }
+        catch (IOException | InterruptedException | ExecutionException | RuntimeException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+        CacheFiles.replace(temporary, deltaFile.toPath());
+        getLog().info(format("Wrote %s with %s changed entries and %s removed against %s",
+                deltaFile.getName(),
+                metrics.counter("deltaEntries").sum(),
+                metrics.counter("deltaRemovedEntries").sum(),
+                previousManifest.getName()));
+    }
+
+    /**
+     * Hashes everything the archive is built from. The project jar stands for the classes directory.
+     */
+    private String fingerprint(Map<String, File> entries, Instant timestamp)
+            throws IOException
+    {
+        Hasher hasher = Hashing.sha256().newHasher();
+        File pluginClassPath = ForkedJvm.getPluginClassPath();
+        hasher.putString(format("%s:%s:%s%n", pluginClassPath, pluginClassPath.length(), pluginClassPath.lastModified()), UTF_8);
+        hasher.putString(format("timestamp=%s classIndex=%s%n", timestamp.getEpochSecond(), classIndex), UTF_8);
+        if (project.getFile() != null && project.getFile().isFile()) {
+            hasher.putBytes(hash(project.getFile()).asBytes());
+        }
+        if (previousManifest != null && previousManifest.isFile()) {
+            hasher.putBytes(hash(previousManifest).asBytes());
+        }
+        for (Map.Entry<String, File> entry : entries.entrySet()) {
+            hasher.putString(entry.getKey() + "\n", UTF_8);
+            if (entry.getValue().equals(jarFile) && classesDirectory.isDirectory()) {
+                hashDirectory(hasher, classesDirectory.toPath());
+            }
+            else {
+                hasher.putBytes(hash(entry.getValue()).asBytes());
+            }
+        }
+        return hasher.hash().toString();
+    }
+
+    private static void hashDirectory(Hasher hasher, Path directory)
+            throws IOException
+    {
+        List<Path> files;
+        try (Stream<Path> paths = Files.walk(directory)) {
+            files = paths.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        }
+        for (Path file : files) {
+            hasher.putString(directory.relativize(file).toString().replace(File.separatorChar, '/') + "\n", UTF_8);
+            hasher.putBytes(hash(file.toFile()).asBytes());
+        }
+    }
+
+    /**
+     * Hashes the file, reusing the hash from an earlier build while its size and modification time are unchanged.
+     */
+    private static HashCode hash(File file)
+            throws IOException
+    {
+        String key = file.getAbsolutePath() + ":" + file.length() + ":" + file.lastModified();
+        HashCode hash = inputHashes.get(key);
+        if (hash == null) {
+            hash = FileHashing.hash(file, Hashing.sha256());
+            inputHashes.put(key, hash);
+        }
+        return hash;
+    }
+
+    /**
+     * Returns the fingerprint recorded with the archive, or {@code null} if the archive was changed or removed since.
+     */
+    private String readRecordedFingerprint()
+    {
+        if (!fingerprintFile.isFile() || !archiveFile.isFile() || !manifestFile.isFile() || (previousManifest != null && !deltaFile.isFile())) {
+            return null;
+        }
+        try {
+            List<String> lines = Files.readAllLines(fingerprintFile.toPath(), UTF_8);
+            if (lines.size() != 2 || !lines.get(1).equals(describeArchive())) {
+                return null;
+            }
+            return lines.get(0);
+        }
+        catch (IOException e) {
+            getLog().debug(format("Ignoring unreadable %s", fingerprintFile), e);
+            return null;
+        }
+    }
+
+    private void recordFingerprint(String fingerprint)
+            throws IOException
+    {
+        CacheFiles.write(fingerprintFile, format("%s%n%s%n", fingerprint, describeArchive()).getBytes(UTF_8));
+    }
+
+    private String describeArchive()
+    {
+        return archiveFile.getAbsolutePath() + ":" + archiveFile.length() + ":" + archiveFile.lastModified();
+    }
+
+    private static PreparedEntry prepare(String name, Path file, boolean index)
+            throws IOException, NoSuchAlgorithmException
+    {
+        String extension = name.substring(name.lastIndexOf('.') + 1);
+        if (!STORED_EXTENSIONS.contains(extension)) {
+            byte[] contents = Files.readAllBytes(file);
+            return new PreparedEntry(name, file, 0, PluginZipWriter.deflate(contents), Hashing.sha256().hashBytes(contents), null);
+        }
+        MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+        long crc = PluginZipWriter.crc(file, sha256);
+        // only the jars the server puts on the plugin class path are indexed
+        JarIndex contents = (index && extension.equals("jar") && !name.contains("/")) ? JarIndex.ofJar(file.toFile()) : null;
+        return new PreparedEntry(name, file, crc, null, HashCodes.fromBytes(sha256.digest()), contents);
+    }
+
+    static Instant parseTimestamp(String value)
+            throws MojoExecutionException
+    {
+        // as with the Maven archivers, a single character means "not set"
+        if (value == null || value.trim().length() <= 1) {
+            return PluginZipWriter.DEFAULT_TIMESTAMP;
+        }
+        try {
+            if (value.chars().allMatch(Character::isDigit)) {
+                return Instant.ofEpochSecond(Long.parseLong(value));
+            }
+            return OffsetDateTime.parse(value).toInstant();
+        }
+        catch (NumberFormatException | DateTimeParseException e) {
+            throw new MojoExecutionException(format("%n%nInvalid project.build.outputTimestamp '%s'. Use ISO-8601, such as 2020-01-01T00:00:00Z, or seconds since the epoch.", value));
+        }
+    }
+
+    private int getParallelism()
+    {
+        if (parallelism > 0) {
+            return parallelism;
+        }
+        return Math.max(1, Runtime.getRuntime().availableProcessors() / Math.max(1, session.getRequest().getDegreeOfConcurrency()));
+    }
+
+    private static class PreparedEntry
+    {
+        private final String name;
+        private final Path file;
+        private final long crc;
+        private final DeflatedEntry deflated;
+        private final HashCode sha256;
+        private final JarIndex contents;
+
+        private PreparedEntry(String name, Path file, long crc, DeflatedEntry deflated, HashCode sha256, JarIndex contents)
+        {
+            this.name = name;
+            this.file = file;
+            this.crc = crc;
+            this.deflated = deflated;
+            this.sha256 = sha256;
+            this.contents = contents;
+        }
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.maven;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Filer;
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.annotation.processing.SupportedOptions;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic.Kind;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Annotation processor that writes the service descriptor of a Presto plugin
+ * while the plugin is compiled, so that {@code generate-service-descriptor}
+ * does not have to scan the class files afterwards. Every class compiled
+ * that implements {@code Plugin}, {@code CoordinatorPlugin} or
+ * {@code RouterPlugin}, or a type named by the
+ * {@code presto.additionalPluginTypes} option, is recorded, and the same
+ * single implementation rules as the goal apply. It needs nothing but the
+ * JDK and the compile class path, so it runs from the plugin jar alone.
+ * <p>
+ * IDEs compile only the changed sources. Implementations listed in the
+ * existing descriptor that were not compiled again are kept as long as they
+ * still implement the type, so an incremental build ends up with the same
+ * descriptor as a full one.
+ * <p>
+ * Projects opt in by adding this plugin to the annotation processor path of
+ * the compiler and setting {@code verifyOnly} on
+ * {@code generate-service-descriptor}, which then only checks the descriptor.
+ */
+@SupportedAnnotationTypes("*")
+@SupportedOptions(PluginServiceProcessor.ADDITIONAL_PLUGIN_TYPES_OPTION)
+public class PluginServiceProcessor
+        extends AbstractProcessor
+{
+    static final String ADDITIONAL_PLUGIN_TYPES_OPTION = "presto.additionalPluginTypes";
+
+    private static final List<String> PLUGIN_TYPES = Arrays.asList(
+            "com.facebook.presto.spi.Plugin",
+            "com.facebook.presto.spi.CoordinatorPlugin",
+            "com.facebook.presto.spi.RouterPlugin");
+
+    private final List<String> pluginTypes = new ArrayList<>(PLUGIN_TYPES);
+    private final Map<String, Set<String>> implementations = new LinkedHashMap<>();
+    private final Map<String, Element> implementationElements = new LinkedHashMap<>();
+    private final Set<String> compiledClasses = new HashSet<>();
+
+    @Override
+    public synchronized void init(ProcessingEnvironment processingEnv)
+    {
+        super.init(processingEnv);
+        String additional = processingEnv.getOptions().get(ADDITIONAL_PLUGIN_TYPES_OPTION);
+        if (additional != null) {
+            for (String pluginType : additional.split(",")) {
+                if (!pluginType.trim().isEmpty() && !pluginTypes.contains(pluginType.trim())) {
+                    pluginTypes.add(pluginType.trim());
+                }
+            }
+        }
+        for (String pluginType : pluginTypes) {
+            implementations.put(pluginType, new TreeSet<>());
+        }
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion()
+    {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv)
+    {
+        if (roundEnv.processingOver()) {
+            writeDescriptors();
+        }
+        else {
+            for (Element element : roundEnv.getRootElements()) {
+                record(element);
+            }
+        }
+        // other processors may claim the same annotations
+        return false;
+    }
+
+    private void record(Element element)
+    {
+        if (!(element instanceof TypeElement)) {
+            return;
+        }
+        TypeElement type = (TypeElement) element;
+        String className = processingEnv.getElementUtils().getBinaryName(type).toString();
+        compiledClasses.add(className);
+        if (type.getKind().isClass()) {
+            for (String pluginType : pluginTypes) {
+                if (implementsType(type, pluginType)) {
+                    implementations.get(pluginType).add(className);
+                    implementationElements.put(className, type);
+                }
+            }
+        }
+        for (Element enclosed : type.getEnclosedElements()) {
+            record(enclosed);
+        }
+    }
+
+    private void writeDescriptors()
+    {
+        Filer filer = processingEnv.getFiler();
+        Elements elements = processingEnv.getElementUtils();
+
+        // keep what an earlier compilation found in classes that were not compiled this time
+        for (String pluginType : pluginTypes) {
+            for (String className : readDescriptor(filer, pluginType)) {
+                TypeElement type = elements.getTypeElement(className.replace('$', '.'));
+                if (!compiledClasses.contains(className) && type != null && implementsType(type, pluginType)) {
+                    implementations.get(pluginType).add(className);
+                }
+            }
+        }
+        if (!checkImplementations()) {
+            return;
+        }
+
+        for (Map.Entry<String, Set<String>> entry : implementations.entrySet()) {
+            if (entry.getValue().isEmpty()) {
+                continue;
+            }
+            String pluginClass = entry.getValue().iterator().next();
+            try {
+                // an implementation kept from an earlier compilation has no element to originate from
+                Element origin = implementationElements.get(pluginClass);
+                Element[] origins = (origin == null) ? new Element[0] : new Element[] {origin};
+                FileObject descriptor = filer.createResource(StandardLocation.CLASS_OUTPUT, "", "META-INF/services/" + entry.getKey(), origins);
+                try (OutputStream output = descriptor.openOutputStream()) {
+                    output.write(pluginClass.getBytes(UTF_8));
+                }
+            }
+            catch (IOException e) {
+                error(format("Failed to write META-INF/services/%s: %s", entry.getKey(), e), null);
+            }
+        }
+    }
+
+    /**
+     * Reports the same violations as {@code generate-service-descriptor}, except for
+     * a missing implementation, which the goal reports for the whole project.
+     */
+    private boolean checkImplementations()
+    {
+        List<String> implementedTypes = new ArrayList<>();
+        for (Map.Entry<String, Set<String>> entry : implementations.entrySet()) {
+            if (!entry.getValue().isEmpty()) {
+                implementedTypes.add(entry.getKey());
+            }
+        }
+        if (implementedTypes.size() > 1) {
+            error(format("You have classes that implement multiple of %s. You can only have one plugin implementation per project.", describeTypes(pluginTypes)), null);
+            return false;
+        }
+        for (Map.Entry<String, Set<String>> entry : implementations.entrySet()) {
+            if (entry.getValue().size() > 1) {
+                StringBuilder classes = new StringBuilder();
+                for (String pluginClass : entry.getValue()) {
+                    classes.append(pluginClass).append(System.lineSeparator());
+                }
+                String message = format("You have more than one class that implements %s:%n%n%s%nYou can only have one per plugin project.", entry.getKey(), classes);
+                for (String pluginClass : entry.getValue()) {
+                    error(message, implementationElements.get(pluginClass));
+                }
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean implementsType(TypeElement type, String pluginType)
+    {
+        TypeElement pluginTypeElement = processingEnv.getElementUtils().getTypeElement(pluginType);
+        if (pluginTypeElement == null) {
+            // the type is not on the class path, so nothing can implement it
+            return false;
+        }
+        Types types = processingEnv.getTypeUtils();
+        TypeMirror erasure = types.erasure(type.asType());
+        return !type.getQualifiedName().contentEquals(pluginType) && types.isAssignable(erasure, types.erasure(pluginTypeElement.asType()));
+    }
+
+    private static List<String> readDescriptor(Filer filer, String pluginType)
+    {
+        List<String> classNames = new ArrayList<>();
+        try {
+            FileObject descriptor = filer.getResource(StandardLocation.CLASS_OUTPUT, "", "META-INF/services/" + pluginType);
+            for (String line : descriptor.getCharContent(true).toString().split("\n")) {
+                int comment = line.indexOf('#');
+                String className = ((comment < 0) ? line : line.substring(0, comment)).trim();
+                if (!className.isEmpty()) {
+                    classNames.add(className);
+                }
+            }
+        }
+        catch (IOException | IllegalArgumentException e) {
+            // no descriptor from an earlier compilation
+        }
+        return classNames;
+    }
+
+    private void error(String message, Element element)
+    {
+        Messager messager = processingEnv.getMessager();
+        if (element == null) {
+            messager.printMessage(Kind.ERROR, message);
+        }
+        else {
+            messager.printMessage(Kind.ERROR, message, element);
+        }
+    }
+
+    private static String describeTypes(List<String> types)
+    {
+        if (types.size() == 1) {
+            return types.get(0);
+        }
+        if (types.size() == 2) {
+            return types.get(0) + " or " + types.get(1);
+        }
+        return String.join(", ", types.subList(0, types.size() - 1)) + ", or " + types.get(types.size() - 1);
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.maven;
+
+import java.io.OutputStream;
+import java.lang.management.ClassLoadingMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Measures what loading a Presto plugin costs a server on startup: the time
+ * to instantiate the plugin and to enumerate its factories, the classes this
+ * loads, and the metaspace and retained heap they take. Runs in a forked JVM
+ * whose class path holds the SPI, and must only use the JDK.
+ * <p>
+ * Arguments: a comma separated list of plugin classes, a file listing the plugin class path one entry
+ * per line, a comma separated list of parent-first package prefixes, and the
+ * properties file to write the measurements to.
+ */
+final class PluginStartupProbe
+{
+    static final String INSTANTIATION_NANOS = "instantiationNanos";
+    static final String ENUMERATION_NANOS = "enumerationNanos";
+    static final String PLUGIN_CLASSES = "pluginClasses";
+    static final String LOADED_CLASSES = "loadedClasses";
+    static final String METASPACE_BYTES = "metaspaceBytes";
+    static final String HEAP_BYTES = "heapBytes";
+
+    // keeps the plugins reachable until the heap has been measured
+    private static final List<Object> plugins = new ArrayList<>();
+
+    private PluginStartupProbe() {}
+
+    public static void main(String[] args)
+            throws Exception
+    {
+        if (args.length != 4) {
+            System.err.println("usage: PluginStartupProbe <plugin classes> <class path file> <parent-first prefixes> <output>");
+            System.exit(2);
+        }
+
+        PluginClassLoader loader = PluginClassLoader.create(args[1], args[2], PluginStartupProbe.class.getClassLoader());
+        Thread.currentThread().setContextClassLoader(loader);
+        ClassLoadingMXBean classLoading = ManagementFactory.getClassLoadingMXBean();
+
+        collectGarbage();
+        long classesBefore = classLoading.getTotalLoadedClassCount();
+        long metaspaceBefore = getMetaspaceUsed();
+        long heapBefore = getHeapUsed();
+
+        long start = System.nanoTime();
+        for (String pluginClass : args[0].split(",")) {
+            plugins.add(loader.loadClass(pluginClass).getConstructor().newInstance());
+        }
+        long instantiated = System.nanoTime();
+        for (Object plugin : plugins) {
+            PluginEnumeration.enumerate(plugin);
+        }
+        long enumerated = System.nanoTime();
+
+        collectGarbage();
+        Properties measurements = new Properties();
+        measurements.setProperty(INSTANTIATION_NANOS, String.valueOf(instantiated - start));
+        measurements.setProperty(ENUMERATION_NANOS, String.valueOf(enumerated - instantiated));
+        measurements.setProperty(PLUGIN_CLASSES, String.valueOf(loader.getDefinedClasses().size()));
+        measurements.setProperty(LOADED_CLASSES, String.valueOf(classLoading.getTotalLoadedClassCount() - classesBefore));
+        measurements.setProperty(METASPACE_BYTES, String.valueOf(Math.max(0, getMetaspaceUsed() - metaspaceBefore)));
+        measurements.setProperty(HEAP_BYTES, String.valueOf(Math.max(0, getHeapUsed() - heapBefore)));
+        try (OutputStream output = Files.newOutputStream(Paths.get(args[3]))) {
+            measurements.store(output, "presto-maven-plugin startup measurements");
+        }
+
+        // plugins may leave non-daemon threads behind
+        System.exit(0);
+    }
+
+    private static void collectGarbage()
+    {
+        // a second collection picks up what finalization released in the first
+        System.gc();
+        System.runFinalization();
+        System.gc();
+    }
+
+    private static long getHeapUsed()
+    {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private static long getMetaspaceUsed()
+    {
+        long used = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.NON_HEAP && pool.getName().equals("Metaspace")) {
+                used += pool.getUsage().getUsed();
+            }
+        }
+        return used;
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.maven;
+
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+import org.apache.maven.project.MavenProject;
+import org.eclipse.aether.RepositorySystemSession;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.String.format;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/**
+ * Mojo that keeps a Presto plugin deployed to a local server up to date
+ * while it is recompiled, for example by an IDE. It watches the classes
+ * directory and the runtime dependencies, and after every change it
+ * regenerates the service descriptors the way
+ * {@code generate-service-descriptor} does, reusing its state so only
+ * changed classes are read, and syncs the plugin directory as an
+ * {@link ExplodedPlugin}. Instead of the project jar, the plugin directory
+ * holds a {@code classes} directory, which the server puts on the plugin
+ * class path like a jar.
+ * <p>
+ * Changes are batched until none arrive for the debounce time, so a bulk
+ * recompile syncs once. The goal runs until Maven is stopped, or until no
+ * change arrived for the idle timeout.
+ */
+@Mojo(name = "watch", requiresDependencyResolution = ResolutionScope.RUNTIME, threadSafe = true)
+public class PluginWatcher
+        extends AbstractMojo
+{
+    private static final String CLASSES = "classes";
+
+    /**
+     * The plugin directory of the server. The plugin is deployed to a subdirectory named {@code pluginName}.
+     */
+    @Parameter(property = "presto.deploy.directory", required = true)
+    private File deployDirectory;
+
+    @Parameter(property = "presto.deploy.pluginName", defaultValue = "${project.artifactId}")
+    private String pluginName;
+
+    /**
+     * Time, in milliseconds, without further changes after which a batch of changes is synced.
+     */
+    @Parameter(property = "presto.watch.debounceMillis", defaultValue = "300")
+    private long debounceMillis;
+
+    /**
+     * Stop after this many seconds without changes. Zero watches until Maven is stopped.
+     */
+    @Parameter(property = "presto.watch.idleTimeoutSeconds", defaultValue = "0")
+    private long idleTimeoutSeconds;
+
+    @Parameter(defaultValue = "${project.build.outputDirectory}")
+    private File classesDirectory;
+
+    @Parameter(defaultValue = "${project.build.directory}/presto-maven-plugin/service-descriptor.state")
+    private File stateFile;
+
+    /**
+     * Additional SPI interfaces, by binary name, to generate service descriptors for.
+     */
+    @Parameter
+    private final List<String> additionalPluginTypes = new ArrayList<>();
+
+    @Parameter(property = "presto.generator.parallelism", defaultValue = "0")
+    private int parallelism;
+
+    @Parameter(defaultValue = "${project}")
+    private MavenProject project;
+
+    @Parameter(defaultValue = "${session}", readonly = true)
+    private MavenSession session;
+
+    @Parameter(defaultValue = "${repositorySystemSession}")
+    private RepositorySystemSession repositorySession;
+
+    @Override
+    public void execute()
+            throws MojoExecutionException, MojoFailureException
+    {
+        if (!classesDirectory.isDirectory()) {
+            throw new MojoExecutionException(format("%n%nClasses directory %s does not exist. Compile the project before watching it.", classesDirectory));
+        }
+        Map<String, File> dependencies = PluginLayout.getDependencies(project);
+        ServiceDescriptorGenerator generator = new ServiceDescriptorGenerator(classesDirectory, stateFile, additionalPluginTypes, parallelism, project, session, getLog());
+        ExplodedPlugin plugin = new ExplodedPlugin(new File(deployDirectory, pluginName), repositorySession, getLog());
+
+        Path classesRoot = classesDirectory.toPath().toAbsolutePath();
+        try (WatchService watcher = FileSystems.getDefault().newWatchService()) {
+            Map<WatchKey, Path> directories = new HashMap<>();
+            // the parent shows the classes directory being removed and created again by a clean build
+            register(watcher, classesRoot.getParent(), directories);
+            registerTree(watcher, classesRoot, directories);
+            Set<Path> dependencyFiles = new HashSet<>();
+            for (File file : dependencies.values()) {
+                Path path = file.toPath().toAbsolutePath();
+                dependencyFiles.add(path);
+                register(watcher, path.getParent(), directories);
+            }
+
+            sync(generator, plugin, dependencies, true);
+            getLog().info(format("Watching %s and %s dependencies for changes to sync to %s", classesDirectory, dependencies.size(), plugin.getDirectory()));
+
+            while (true) {
+                WatchKey key = (idleTimeoutSeconds > 0) ? watcher.poll(idleTimeoutSeconds, TimeUnit.SECONDS) : watcher.take();
+                if (key == null) {
+                    getLog().info(format("No changes for %s seconds, stopping", idleTimeoutSeconds));
+                    return;
+                }
+
+                boolean classesChanged = false;
+                boolean dependenciesChanged = false;
+                while (key != null) {
+                    Path directory = directories.get(key);
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == OVERFLOW || directory == null) {
+                            // events were lost, so sync everything
+                            classesChanged = true;
+                            dependenciesChanged = true;
+                            continue;
+                        }
+                        Path path = directory.resolve((Path) event.context());
+                        if (path.startsWith(classesRoot)) {
+                            classesChanged = true;
+                            if (event.kind() == ENTRY_CREATE && Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                                registerTree(watcher, path, directories);
+                            }
+                        }
+                        else if (dependencyFiles.contains(path)) {
+                            dependenciesChanged = true;
+                        }
+                    }
+                    if (!key.reset()) {
+                        directories.remove(key);
+                    }
+                    key = watcher.poll(debounceMillis, TimeUnit.MILLISECONDS);
+                }
+
+                if (classesChanged || dependenciesChanged) {
+                    sync(generator, plugin, dependencies, classesChanged);
+                }
+            }
+        }
+        catch (IOException e) {
+            throw new MojoExecutionException(format("Failed to watch %s", classesDirectory), e);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException("Interrupted while watching for changes", e);
+        }
+    }
+
+    /**
+     * Regenerates the descriptors if classes changed and syncs the plugin. Failures are logged rather
+     * than thrown, since the classes directory is often incomplete while an IDE is compiling.
+     */
+    private void sync(ServiceDescriptorGenerator generator, ExplodedPlugin plugin, Map<String, File> dependencies, boolean regenerate)
+    {
+        BuildMetrics metrics = new BuildMetrics();
+        long start = System.nanoTime();
+        try {
+            if (regenerate) {
+                try (BuildMetrics.Timer ignored = metrics.time("generate")) {
+                    generator.generate(metrics);
+                }
+            }
+            Map<String, File> entries = new TreeMap<>(dependencies);
+            if (Files.isDirectory(classesDirectory.toPath())) {
+                Path root = classesDirectory.toPath();
+                Files.walkFileTree(root, new SimpleFileVisitor<Path>()
+                {
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attributes)
+                    {
+                        if (attributes.isRegularFile()) {
+                            entries.put(CLASSES + "/" + root.relativize(file).toString().replace(File.separatorChar, '/'), file.toFile());
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            }
+            plugin.sync(entries, metrics);
+        }
+        catch (MojoExecutionException e) {
+            getLog().error(e.getMessage().trim());
+            return;
+        }
+        catch (IOException e) {
+            getLog().warn(format("Failed to sync %s: %s", plugin.getDirectory(), e));
+            return;
+        }
+        getLog().info(format("Synced %s in %s ms: %s linked, %s copied, %s unchanged, %s removed",
+                pluginName,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+                metrics.counter("linked").sum(),
+                metrics.counter("copied").sum(),
+                metrics.counter("unchanged").sum(),
+                metrics.counter("removed").sum()));
+    }
+
+    private static void registerTree(WatchService watcher, Path root, Map<WatchKey, Path> directories)
+            throws IOException
+    {
+        if (!Files.isDirectory(root)) {
+            return;
+        }
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>()
+        {
+            @Override
+            public FileVisitResult preVisitDirectory(Path directory, BasicFileAttributes attributes)
+                    throws IOException
+            {
+                register(watcher, directory, directories);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private static void register(WatchService watcher, Path directory, Map<WatchKey, Path> directories)
+            throws IOException
+    {
+        if (directory != null && Files.isDirectory(directory)) {
+            directories.put(directory.register(watcher, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), directory);
+        }
+    }
+}
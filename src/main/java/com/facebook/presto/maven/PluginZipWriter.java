@@ -0,0 +1,269 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.maven;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Writes a zip archive whose entries are either stored, copied straight from
+ * a file with {@link FileChannel#transferTo}, or deflated ahead of time, so
+ * the expensive work can happen on other threads. Every entry gets the same
+ * timestamp and the central directory lists entries in the order they were
+ * written, so equal inputs produce identical archives. Zip64 is not supported.
+ */
+final class PluginZipWriter
+        implements Closeable
+{
+    private static final int LOCAL_FILE_HEADER = 0x04034b50;
+    private static final int CENTRAL_FILE_HEADER = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+    private static final int VERSION_STORED = 10;
+    private static final int VERSION_DEFLATED = 20;
+    private static final int FLAG_UTF8 = 0x0800;
+    private static final long MAX_ZIP32 = 0xFFFFFFFFL;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // the earliest time a zip can record
+    static final Instant DEFAULT_TIMESTAMP = LocalDateTime.of(1980, 1, 1, 0, 0).toInstant(ZoneOffset.UTC);
+
+    private final FileChannel output;
+    private final int dosTime;
+    private final int dosDate;
+    private final ByteArrayOutputStream centralDirectory = new ByteArrayOutputStream();
+    private final Set<String> names = new HashSet<>();
+    private int entries;
+    private boolean closed;
+
+    public PluginZipWriter(Path file, Instant timestamp)
+            throws IOException
+    {
+        LocalDateTime time = LocalDateTime.ofInstant(timestamp.isBefore(DEFAULT_TIMESTAMP) ? DEFAULT_TIMESTAMP : timestamp, ZoneOffset.UTC);
+        this.dosTime = (time.getHour() << 11) | (time.getMinute() << 5) | (time.getSecond() >> 1);
+        this.dosDate = ((time.getYear() - 1980) << 9) | (time.getMonthValue() << 5) | time.getDayOfMonth();
+        this.output = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Returns the CRC-32 of a file, which a stored entry needs before it is written.
+     */
+    public static long crc(Path file)
+            throws IOException
+    {
+        return crc(file, null);
+    }
+
+    /**
+     * Returns the CRC-32 of a file and feeds its contents to the digest in the same pass.
+     */
+    public static long crc(Path file, MessageDigest digest)
+            throws IOException
+    {
+        CRC32 crc = new CRC32();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                crc.update(buffer);
+                if (digest != null) {
+                    buffer.rewind();
+                    digest.update(buffer);
+                }
+                buffer.clear();
+            }
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Deflates entry contents for a later call to {@link #writeDeflated}.
+     */
+    public static DeflatedEntry deflate(byte[] contents)
+    {
+        CRC32 crc = new CRC32();
+        crc.update(contents);
+
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            deflater.setInput(contents);
+            deflater.finish();
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(contents.length / 2 + 64);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (!deflater.finished()) {
+                int length = deflater.deflate(buffer);
+                compressed.write(buffer, 0, length);
+            }
+            return new DeflatedEntry(compressed.toByteArray(), contents.length, crc.getValue());
+        }
+        finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Writes a file as a stored entry, copying its contents without passing them through the heap.
+     */
+    public void writeStored(String name, Path file, long crc)
+            throws IOException
+    {
+        try (FileChannel source = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = source.size();
+            long offset = writeHeaders(name, VERSION_STORED, 0, crc, size, size);
+            long transferred = 0;
+            while (transferred < size) {
+                long count = source.transferTo(transferred, size - transferred, output);
+                // a file that shrank has nothing left at the position and would never finish
+                checkState(count > 0, "%s changed while it was written", file);
+                transferred += count;
+            }
+            checkState(output.position() == offset + localHeaderSize(name) + size, "%s changed while it was written", file);
+        }
+    }
+
+    public void writeDeflated(String name, DeflatedEntry entry)
+            throws IOException
+    {
+        writeHeaders(name, VERSION_DEFLATED, 8, entry.crc, entry.compressed.length, entry.size);
+        writeFully(ByteBuffer.wrap(entry.compressed));
+    }
+
+    private long writeHeaders(String name, int version, int method, long crc, long compressedSize, long size)
+            throws IOException
+    {
+        checkState(!closed, "writer is closed");
+        checkArgument(names.add(name), "duplicate entry %s", name);
+        long offset = output.position();
+        if (compressedSize > MAX_ZIP32 || size > MAX_ZIP32 || offset > MAX_ZIP32 || entries == 0xFFFF) {
+            throw new IOException(format("Entry %s does not fit in a zip archive without zip64 extensions", name));
+        }
+        byte[] nameBytes = name.getBytes(UTF_8);
+
+        ByteBuffer local = ByteBuffer.allocate(localHeaderSize(name)).order(ByteOrder.LITTLE_ENDIAN);
+        local.putInt(LOCAL_FILE_HEADER)
+                .putShort((short) version)
+                .putShort((short) FLAG_UTF8)
+                .putShort((short) method)
+                .putShort((short) dosTime)
+                .putShort((short) dosDate)
+                .putInt((int) crc)
+                .putInt((int) compressedSize)
+                .putInt((int) size)
+                .putShort((short) nameBytes.length)
+                .putShort((short) 0)
+                .put(nameBytes);
+        local.flip();
+        writeFully(local);
+
+        ByteBuffer central = ByteBuffer.allocate(46 + nameBytes.length).order(ByteOrder.LITTLE_ENDIAN);
+        central.putInt(CENTRAL_FILE_HEADER)
+                .putShort((short) VERSION_DEFLATED)
+                .putShort((short) version)
+                .putShort((short) FLAG_UTF8)
+                .putShort((short) method)
+                .putShort((short) dosTime)
+                .putShort((short) dosDate)
+                .putInt((int) crc)
+                .putInt((int) compressedSize)
+                .putInt((int) size)
+                .putShort((short) nameBytes.length)
+                .putShort((short) 0)
+                .putShort((short) 0)
+                .putShort((short) 0)
+                .putShort((short) 0)
+                .putInt(0)
+                .putInt((int) offset)
+                .put(nameBytes);
+        centralDirectory.write(central.array(), 0, central.position());
+        entries++;
+        return offset;
+    }
+
+    private static int localHeaderSize(String name)
+    {
+        return 30 + name.getBytes(UTF_8).length;
+    }
+
+    private void writeFully(ByteBuffer buffer)
+            throws IOException
+    {
+        while (buffer.hasRemaining()) {
+            output.write(buffer);
+        }
+    }
+
+    @Override
+    public void close()
+            throws IOException
+    {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            long offset = output.position();
+            if (offset > MAX_ZIP32) {
+                throw new IOException("Archive does not fit in a zip archive without zip64 extensions");
+            }
+            writeFully(ByteBuffer.wrap(centralDirectory.toByteArray()));
+
+            ByteBuffer end = ByteBuffer.allocate(22).order(ByteOrder.LITTLE_ENDIAN);
+            end.putInt(END_OF_CENTRAL_DIRECTORY)
+                    .putShort((short) 0)
+                    .putShort((short) 0)
+                    .putShort((short) entries)
+                    .putShort((short) entries)
+                    .putInt(centralDirectory.size())
+                    .putInt((int) offset)
+                    .putShort((short) 0);
+            end.flip();
+            writeFully(end);
+        }
+        finally {
+            output.close();
+        }
+    }
+
+    static final class DeflatedEntry
+    {
+        private final byte[] compressed;
+        private final long size;
+        private final long crc;
+
+        private DeflatedEntry(byte[] compressed, long size, long crc)
+        {
+            this.compressed = compressed;
+            this.size = size;
+            this.crc = crc;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.maven;
+
+import org.apache.maven.AbstractMavenLifecycleParticipant;
+import org.apache.maven.MavenExecutionException;
+import org.apache.maven.execution.MavenSession;
+import org.codehaus.plexus.logging.Logger;
+
+import java.io.IOException;
+import java.util.List;
+
+import static java.lang.String.format;
+
+/**
+ * Scopes resources shared between modules to the build session. Maven only
+ * calls this when the plugin is loaded as a build extension, which the
+ * {@code presto-plugin} packaging requires anyway. At the end of the session
+ * it reports the hit rates of the {@link LruCache}s, which accumulate over
+ * every build of a Maven daemon, at debug level.
+ */
+public class PrestoLifecycleParticipant
+        extends AbstractMavenLifecycleParticipant
+{
+    private Logger logger;
+
+    @Override
+    public void afterProjectsRead(MavenSession session)
+    {
+        SharedJarCache.startSession();
+    }
+
+    @Override
+    public void afterSessionEnd(MavenSession session)
+            throws MavenExecutionException
+    {
+        try {
+            SharedJarCache.endSession();
+        }
+        catch (IOException e) {
+            throw new MavenExecutionException("Failed to close shared dependency jars", e);
+        }
+
+        List<String> caches = LruCache.describeAll();
+        if (!caches.isEmpty() && logger.isDebugEnabled()) {
+            StringBuilder message = new StringBuilder("presto-maven-plugin caches since the plugin was loaded:");
+            for (String cache : caches) {
+                message.append(format("%n  %s", cache));
+            }
+            logger.debug(message.toString());
+        }
+    }
+}
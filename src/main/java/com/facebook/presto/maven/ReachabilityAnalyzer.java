@@ -0,0 +1,245 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.maven;
+
+import com.facebook.presto.maven.ClassReachability.Source;
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+import org.apache.maven.project.MavenProject;
+import org.eclipse.aether.RepositorySystemSession;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Mojo that reports how much of each runtime dependency of a Presto plugin
+ * the plugin can actually reach. The walk starts at the classes listed in the
+ * service descriptors of the project, which include the generated plugin
+ * descriptor, and follows class references through the project classes and
+ * the jars bundled with the plugin. Dependencies none of whose classes are
+ * reached only add to the size and startup time of the plugin.
+ * <p>
+ * Classes that are only loaded by reflection can be kept reachable with keep
+ * rules. Service providers and class names in string constants are followed
+ * unless disabled.
+ */
+@Mojo(name = "analyze-reachability",
+        defaultPhase = LifecyclePhase.VERIFY,
+        requiresDependencyResolution = ResolutionScope.RUNTIME,
+        threadSafe = true)
+public class ReachabilityAnalyzer
+        extends AbstractMojo
+{
+    private static final String PROJECT_CLASSES = "project classes";
+
+    @Parameter(property = "presto.reachability.skip", defaultValue = "false")
+    private boolean skipReachabilityAnalysis;
+
+    @Parameter(property = "presto.reachability.failOnUnreachable", defaultValue = "false")
+    private boolean failOnUnreachableDependencies;
+
+    /**
+     * Classes that are always reachable, as binary names that may use {@code *}
+     * within a package and {@code **} across packages, e.g. {@code org.postgresql.**}.
+     */
+    @Parameter
+    private final Set<String> keepRules = new HashSet<>();
+
+    /**
+     * Whether reaching a service type reaches the providers registered for it in {@code META-INF/services}.
+     */
+    @Parameter(defaultValue = "true")
+    private boolean followServiceProviders;
+
+    /**
+     * Whether a string constant that names a class reaches that class.
+     */
+    @Parameter(defaultValue = "true")
+    private boolean followStringConstants;
+
+    @Parameter(defaultValue = "${project.build.outputDirectory}")
+    private File classesDirectory;
+
+    @Parameter(defaultValue = "${project}")
+    private MavenProject project;
+
+    @Parameter(defaultValue = "${repositorySystemSession}")
+    private RepositorySystemSession repositorySession;
+
+    @Override
+    public void execute()
+            throws MojoExecutionException, MojoFailureException
+    {
+        if (skipReachabilityAnalysis) {
+            getLog().info("Skipping reachability analysis");
+            return;
+        }
+
+        BuildMetrics metrics = new BuildMetrics();
+        try {
+            analyze(metrics);
+        }
+        finally {
+            metrics.write(project, "analyze-reachability", getLog());
+        }
+    }
+
+    private void analyze(BuildMetrics metrics)
+            throws MojoExecutionException
+    {
+        Set<String> roots = readServiceProviders(classesDirectory, "analyze-reachability");
+        List<Source> sources;
+        try (BuildMetrics.Timer ignored = metrics.time("index")) {
+            sources = indexSources(project, classesDirectory, repositorySession);
+        }
+
+        try (ClassReachability reachability = new ClassReachability(sources);
+                BuildMetrics.Timer ignored = metrics.time("walk")) {
+            reachability.walk(getStartClasses(reachability, roots, keepRules), followServiceProviders, followStringConstants, metrics);
+        }
+        catch (IOException e) {
+            throw new MojoExecutionException("Failed to analyze the classes reachable from the plugin.", e);
+        }
+
+        report(roots, sources);
+    }
+
+    /**
+     * Returns the project classes followed by the jars bundled with the plugin, in class path order.
+     */
+    static List<Source> indexSources(MavenProject project, File classesDirectory, RepositorySystemSession repositorySession)
+            throws MojoExecutionException
+    {
+        List<Source> sources = new ArrayList<>();
+        try {
+            JarIndexCache cache = JarIndexCache.forSession(repositorySession);
+            sources.add(new Source(PROJECT_CLASSES, classesDirectory, cache.get(classesDirectory)));
+            for (Artifact artifact : project.getArtifacts()) {
+                if (!Artifact.SCOPE_COMPILE.equals(artifact.getScope()) && !Artifact.SCOPE_RUNTIME.equals(artifact.getScope())) {
+                    continue;
+                }
+                if (artifact.getFile() == null || !artifact.getFile().exists()) {
+                    throw new MojoExecutionException(format("%n%nPresto plugin dependency %s is not packaged. Build it with 'package' or a later phase.", artifact.getId()));
+                }
+                sources.add(new Source(artifact.getId(), artifact.getFile(), cache.get(artifact.getFile())));
+            }
+        }
+        catch (IOException e) {
+            throw new MojoExecutionException("Failed to index plugin dependencies.", e);
+        }
+        return sources;
+    }
+
+    /**
+     * The roots of the walk and the classes on the class path that match a keep rule.
+     */
+    static Set<String> getStartClasses(ClassReachability reachability, Set<String> roots, Set<String> keepRules)
+    {
+        Set<String> start = new TreeSet<>(roots);
+        if (!keepRules.isEmpty()) {
+            List<String> globs = new ArrayList<>();
+            for (String rule : keepRules) {
+                globs.add(rule.replace('.', '/'));
+            }
+            start.addAll(reachability.findClasses(Globs.compile(globs)));
+        }
+        return start;
+    }
+
+    private void report(Set<String> roots, List<Source> sources)
+            throws MojoExecutionException
+    {
+        List<Source> dependencies = new ArrayList<>(sources.subList(1, sources.size()));
+        dependencies.sort(Comparator.comparingDouble(ReachabilityAnalyzer::reachedFraction).thenComparing(Source::getName));
+
+        // one message, so that modules of a parallel build do not interleave their reports
+        StringBuilder report = new StringBuilder(format("Classes reachable from %s:", roots));
+        Source projectClasses = sources.get(0);
+        report.append(format("%n  %5.1f%%  %6s of %6s  %s", 100 * reachedFraction(projectClasses), projectClasses.getReachedCount(), projectClasses.getClassCount(), PROJECT_CLASSES));
+        List<String> unreachable = new ArrayList<>();
+        for (Source dependency : dependencies) {
+            if (dependency.getClassCount() == 0) {
+                report.append(format("%n  %24s  %s", "no classes", dependency.getName()));
+                continue;
+            }
+            report.append(format("%n  %5.1f%%  %6s of %6s  %s", 100 * reachedFraction(dependency), dependency.getReachedCount(), dependency.getClassCount(), dependency.getName()));
+            if (dependency.getReachedCount() == 0) {
+                unreachable.add(dependency.getName());
+            }
+        }
+        getLog().info(report);
+
+        if (unreachable.isEmpty()) {
+            return;
+        }
+        StringBuilder list = new StringBuilder();
+        for (String name : unreachable) {
+            list.append(format("%n    %s", name));
+        }
+        String message = format("Presto plugin %s bundles %s dependencies without any reachable class:%s%nRemove them, exclude them, or add keep rules for classes loaded by reflection.", project.getArtifactId(), unreachable.size(), list);
+        if (failOnUnreachableDependencies) {
+            throw new MojoExecutionException(format("%n%n%s", message));
+        }
+        getLog().warn(message);
+    }
+
+    private static double reachedFraction(Source source)
+    {
+        return (source.getClassCount() == 0) ? 1 : source.getReachedCount() / (double) source.getClassCount();
+    }
+
+    /**
+     * Returns the classes listed in the service descriptors of the project, failing if there are none.
+     */
+    static Set<String> readServiceProviders(File classesDirectory, String goal)
+            throws MojoExecutionException
+    {
+        Set<String> providers = new TreeSet<>();
+        File[] files = new File(classesDirectory, "META-INF/services").listFiles(File::isFile);
+        for (File file : (files == null) ? new File[0] : files) {
+            try {
+                for (String line : Files.readAllLines(file.toPath(), UTF_8)) {
+                    int comment = line.indexOf('#');
+                    String provider = ((comment < 0) ? line : line.substring(0, comment)).trim();
+                    if (!provider.isEmpty()) {
+                        providers.add(provider);
+                    }
+                }
+            }
+            catch (IOException e) {
+                throw new MojoExecutionException(format("%n%nFailed to read service descriptor %s.", file), e);
+            }
+        }
+        if (providers.isEmpty()) {
+            throw new MojoExecutionException(format("%n%nNo service descriptors found in %s. Run generate-service-descriptor before %s.", new File(classesDirectory, "META-INF/services"), goal));
+        }
+        return providers;
+    }
+}
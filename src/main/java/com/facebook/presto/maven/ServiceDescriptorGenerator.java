@@ -17,42 +17,47 @@ import com.facebook.presto.spi.Plugin;
 import com.facebook.presto.spi.CoordinatorPlugin;
 import com.facebook.presto.spi.RouterPlugin;
 import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
-import com.google.common.io.Files;
 import org.apache.maven.artifact.Artifact;
+import org.apache.maven.execution.MavenSession;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.logging.Log;
 import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
 import org.apache.maven.plugins.annotations.ResolutionScope;
 import org.apache.maven.project.MavenProject;
-import org.codehaus.plexus.util.FileUtils;
 
 import java.io.File;
 import java.io.IOException;
-import java.net.URL;
-import java.net.URLClassLoader;
-import java.util.HashMap;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
 
 import static java.lang.String.format;
 
 /**
  * Mojo that generates the default service descriptor for Presto plugins to
- * {@code META-INF/services/com.facebook.presto.spi.Plugin} and
- * {@code META-INF/services/com.facebook.presto.spi.CoordinatorPlugin}.
+ * {@code META-INF/services/com.facebook.presto.spi.Plugin},
+ * {@code META-INF/services/com.facebook.presto.spi.CoordinatorPlugin} or
+ * {@code META-INF/services/com.facebook.presto.spi.RouterPlugin}.
  *
  * @author Jason van Zyl
  */
-@Mojo(name = "generate-service-descriptor", defaultPhase = LifecyclePhase.PACKAGE, requiresDependencyResolution = ResolutionScope.COMPILE)
+@Mojo(name = "generate-service-descriptor", defaultPhase = LifecyclePhase.PACKAGE, requiresDependencyResolution = ResolutionScope.COMPILE, threadSafe = true)
 public class ServiceDescriptorGenerator
         extends AbstractMojo
 {
     private static final String LS = System.getProperty("line.separator");
-    private static final Class<?>[] PLUGIN_TYPES = new Class<?>[] {Plugin.class, CoordinatorPlugin.class, RouterPlugin.class};
+    private static final List<String> PLUGIN_TYPES = ImmutableList.of(Plugin.class.getName(), CoordinatorPlugin.class.getName(), RouterPlugin.class.getName());
 
     @Parameter(defaultValue = "${project.build.outputDirectory}/META-INF/services/com.facebook.presto.spi.Plugin")
     private File servicesFile;
@@ -60,15 +65,86 @@ public class ServiceDescriptorGenerator
     @Parameter(defaultValue = "${project.build.outputDirectory}")
     private File classesDirectory;
 
+    /**
+     * Additional SPI interfaces, by binary name, to generate service descriptors for.
+     * They are checked in the same pass as the built-in plugin types.
+     */
+    @Parameter
+    private final List<String> additionalPluginTypes = new ArrayList<>();
+
+    /**
+     * Whether the descriptors are written during compilation by {@link PluginServiceProcessor}.
+     * The goal then only checks that they name a single plugin class of this project, without
+     * scanning the class files.
+     */
+    @Parameter(property = "presto.generator.verifyOnly", defaultValue = "false")
+    private boolean verifyOnly;
+
+    /**
+     * Number of threads that read and classify class files. Zero uses one thread per available processor,
+     * divided among the modules a parallel build runs at once.
+     */
+    @Parameter(property = "presto.generator.parallelism", defaultValue = "0")
+    private int parallelism;
+
+    /**
+     * Where the classes and descriptors seen by the previous run are recorded, so
+     * that later runs only read class files that were added or changed.
+     */
+    @Parameter(defaultValue = "${project.build.directory}/presto-maven-plugin/service-descriptor.state")
+    private File stateFile;
+
     @Parameter(defaultValue = "${project}")
     private MavenProject project;
 
+    @Parameter(defaultValue = "${session}", readonly = true)
+    private MavenSession session;
+
+    public ServiceDescriptorGenerator() {}
+
+    /**
+     * Configures the goal outside of a mojo execution, for {@link PluginWatcher} to run it on every change.
+     */
+    ServiceDescriptorGenerator(File classesDirectory, File stateFile, List<String> additionalPluginTypes, int parallelism, MavenProject project, MavenSession session, Log log)
+    {
+        this.classesDirectory = classesDirectory;
+        this.servicesFile = new File(classesDirectory, "META-INF/services/" + Plugin.class.getName());
+        this.stateFile = stateFile;
+        this.additionalPluginTypes.addAll(additionalPluginTypes);
+        this.parallelism = parallelism;
+        this.project = project;
+        this.session = session;
+        setLog(log);
+    }
+
     @Override
     public void execute()
             throws MojoExecutionException, MojoFailureException
     {
+        BuildMetrics metrics = new BuildMetrics();
+        try {
+            if (verifyOnly) {
+                verify(metrics);
+            }
+            else {
+                generate(metrics);
+            }
+        }
+        finally {
+            metrics.write(project, "generate-service-descriptor", getLog());
+        }
+    }
+
+    void generate(BuildMetrics metrics)
+            throws MojoExecutionException
+    {
+        ServiceDescriptorState previous;
+        try (BuildMetrics.Timer ignored = metrics.time("loadState")) {
+            previous = loadState();
+        }
+
         // If users have already provided their own service file then we will not overwrite it
-        if (servicesFile.exists()) {
+        if (servicesFile.exists() && !isGenerated(previous, servicesFile)) {
             return;
         }
 
@@ -76,97 +152,234 @@ public class ServiceDescriptorGenerator
             mkdirs(servicesFile.getParentFile());
         }
 
-        Map<Class<?>, List<Class<?>>> pluginClassMap = new HashMap<>();
+        List<String> pluginTypes = getPluginTypes(additionalPluginTypes);
+        PluginClassScanner.Result result;
 
         try {
-            URLClassLoader loader = createClassloaderFromCompileTimeDependencies();
-            for (Class<?> pluginType : PLUGIN_TYPES) {
-                pluginClassMap.put(pluginType, findImplementationsOf(pluginType, loader));
-            }
+            PluginClassScanner scanner = new PluginClassScanner(classesDirectory, getCompileTimeDependencies(), ImmutableSet.copyOf(pluginTypes), getParallelism());
+            result = scanner.scan(previous, metrics);
+        }
+        catch (ExecutionException e) {
+            throw new MojoExecutionException(format("%n%nError scanning for classes implementing %s.", describeTypes(pluginTypes, "and")), e.getCause());
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException("Interrupted while scanning for plugin classes.", e);
         }
         catch (Exception e) {
-            throw new MojoExecutionException(format("%n%nError scanning for classes implementing %s, %s, and %s.", Plugin.class.getName(), CoordinatorPlugin.class.getName(), RouterPlugin.class.getName()), e);
+            throw new MojoExecutionException(format("%n%nError scanning for classes implementing %s.", describeTypes(pluginTypes, "and")), e);
         }
+        getLog().debug(format("Classified %s of %s classes, reused the rest from %s", result.getClassifiedCount(), result.getClasses().size(), stateFile));
 
-        if (pluginClassMap.values().stream().allMatch(List::isEmpty)) {
-            throw new MojoExecutionException(format("%n%nYou must have at least one class that implements %s, %s, or %s.", Plugin.class.getName(), CoordinatorPlugin.class.getName(), RouterPlugin.class.getName()));
+        Map<String, List<String>> pluginClassMap = result.getImplementations();
+        checkPluginImplementations(pluginClassMap, pluginTypes);
+
+        Map<String, String> descriptors = new LinkedHashMap<>();
+        try (BuildMetrics.Timer ignored = metrics.time("writeDescriptors")) {
+            for (String pluginType : pluginClassMap.keySet()) {
+                List<String> pluginTypeClasses = pluginClassMap.get(pluginType);
+                if (pluginTypeClasses == null || pluginTypeClasses.isEmpty()) {
+                    continue;
+                }
+                File typeServicesFile = getServicesFile(pluginType);
+                writeServiceDescriptor(pluginTypeClasses, pluginType, typeServicesFile);
+                descriptors.put(typeServicesFile.getName(), pluginTypeClasses.get(0));
+            }
+
+            // descriptors from a previous run that no longer apply, e.g. after the plugin class was renamed or changed type
+            for (String servicesFileName : previous.getDescriptors().keySet()) {
+                File staleServicesFile = new File(servicesFile.getParentFile(), servicesFileName);
+                if (!descriptors.containsKey(servicesFileName) && isGenerated(previous, staleServicesFile)) {
+                    deleteServiceDescriptor(staleServicesFile);
+                }
+            }
         }
 
-        if (pluginClassMap.values().stream().filter(l -> !l.isEmpty()).count() > 1) {
-            throw new MojoExecutionException(format("%n%nYou have classes that implement multiple of %s, %s, or %s. You can only have one plugin implementation per project.", Plugin.class.getName(), CoordinatorPlugin.class.getName(), RouterPlugin.class.getName()));
+        if (result.getClassifiedCount() == 0 &&
+                result.getDependenciesFingerprint().equals(previous.getDependenciesFingerprint()) &&
+                result.getClasses().keySet().equals(previous.getClasses().keySet()) &&
+                descriptors.equals(previous.getDescriptors())) {
+            // every record was reused, so the state on disk, and the cached copy of it, are still current
+            return;
+        }
+        try (BuildMetrics.Timer ignored = metrics.time("storeState")) {
+            new ServiceDescriptorState(result.getDependenciesFingerprint(), result.getClasses(), descriptors).store(stateFile);
+        }
+        catch (IOException e) {
+            throw new MojoExecutionException(format("%n%nFailed to write %s.", stateFile), e);
+        }
+    }
+
+    private void verify(BuildMetrics metrics)
+            throws MojoExecutionException
+    {
+        List<String> pluginTypes = getPluginTypes(additionalPluginTypes);
+        Map<String, List<String>> pluginClassMap = new LinkedHashMap<>();
+        try (BuildMetrics.Timer ignored = metrics.time("verify")) {
+            for (String pluginType : pluginTypes) {
+                File typeServicesFile = getServicesFile(pluginType);
+                List<String> pluginClasses = new ArrayList<>();
+                if (typeServicesFile.isFile()) {
+                    for (String line : Files.readAllLines(typeServicesFile.toPath(), Charsets.UTF_8)) {
+                        int comment = line.indexOf('#');
+                        String pluginClass = ((comment < 0) ? line : line.substring(0, comment)).trim();
+                        if (pluginClass.isEmpty()) {
+                            continue;
+                        }
+                        if (!new File(classesDirectory, pluginClass.replace('.', '/') + ".class").isFile()) {
+                            throw new MojoExecutionException(format("%n%nMETA-INF/services/%s names %s, which is not a class of this project. Rebuild the project from a clean compile.", pluginType, pluginClass));
+                        }
+                        pluginClasses.add(pluginClass);
+                    }
+                }
+                pluginClassMap.put(pluginType, pluginClasses);
+            }
         }
+        catch (IOException e) {
+            throw new MojoExecutionException("Failed to read service descriptors.", e);
+        }
+        checkPluginImplementations(pluginClassMap, pluginTypes);
 
-        for (Class<?> pluginType : pluginClassMap.keySet()) {
-            List<Class<?>> pluginTypeClasses = pluginClassMap.get(pluginType);
-            if (pluginTypeClasses == null || pluginTypeClasses.isEmpty()) {
-                continue;
+        for (Map.Entry<String, List<String>> entry : pluginClassMap.entrySet()) {
+            if (!entry.getValue().isEmpty()) {
+                getLog().info(format("Verified META-INF/services/%s with %s", entry.getKey(), entry.getValue().get(0)));
             }
-            ensureSinglePluginImplementation(pluginTypeClasses, pluginType);
-            File typeServicesFile = servicesFile;
-            if (pluginType.equals(CoordinatorPlugin.class) || pluginType.equals(RouterPlugin.class)) {
-                typeServicesFile = new File(servicesFile.getParent() + "/" + pluginType.getName());
+        }
+    }
+
+    private ServiceDescriptorState loadState()
+            throws MojoExecutionException
+    {
+        try {
+            return ServiceDescriptorState.load(stateFile);
+        }
+        catch (IOException e) {
+            throw new MojoExecutionException(format("%n%nFailed to read %s.", stateFile), e);
+        }
+    }
+
+    private static boolean isGenerated(ServiceDescriptorState state, File servicesFile)
+            throws MojoExecutionException
+    {
+        try {
+            return state.isGenerated(servicesFile);
+        }
+        catch (IOException e) {
+            throw new MojoExecutionException(format("%n%nFailed to read %s.", servicesFile), e);
+        }
+    }
+
+    private File getServicesFile(String pluginType)
+    {
+        if (pluginType.equals(Plugin.class.getName())) {
+            return servicesFile;
+        }
+        return new File(servicesFile.getParent() + "/" + pluginType);
+    }
+
+    /**
+     * The built-in plugin types followed by the additional ones, without duplicates.
+     */
+    static List<String> getPluginTypes(List<String> additionalPluginTypes)
+    {
+        List<String> pluginTypes = Lists.newArrayList(PLUGIN_TYPES);
+        for (String pluginType : additionalPluginTypes) {
+            if (!pluginTypes.contains(pluginType)) {
+                pluginTypes.add(pluginType);
             }
-            writeServiceDescriptor(pluginTypeClasses, pluginType, typeServicesFile);
         }
+        return pluginTypes;
     }
 
-    private void writeServiceDescriptor(List<Class<?>> pluginClasses, Class<?> classImplementationTemplate, File servicesFileToWrite)
+    private void writeServiceDescriptor(List<String> pluginClasses, String classImplementationTemplate, File servicesFileToWrite)
             throws MojoExecutionException
     {
         try {
-            Class<?> pluginClass = pluginClasses.get(0);
-            Files.write(pluginClass.getName().getBytes(Charsets.UTF_8), servicesFileToWrite);
-            getLog().info(format("Wrote META-INF/services/%s with %s", classImplementationTemplate.getName(), pluginClass.getName()));
+            String pluginClass = pluginClasses.get(0);
+            // leave an identical descriptor untouched so later incremental steps see no change
+            if (servicesFileToWrite.isFile() && pluginClass.equals(ServiceDescriptorState.readDescriptor(servicesFileToWrite))) {
+                getLog().debug(format("META-INF/services/%s is up to date", classImplementationTemplate));
+                return;
+            }
+            Files.write(servicesFileToWrite.toPath(), pluginClass.getBytes(Charsets.UTF_8));
+            getLog().info(format("Wrote META-INF/services/%s with %s", classImplementationTemplate, pluginClass));
         }
         catch (IOException e) {
             throw new MojoExecutionException("Failed to write service descriptor.", e);
         }
     }
 
-    private void ensureSinglePluginImplementation(List<Class<?>> pluginClasses, Class<?> classImplementationTemplate)
+    private void deleteServiceDescriptor(File servicesFileToDelete)
+            throws MojoExecutionException
+    {
+        try {
+            Files.delete(servicesFileToDelete.toPath());
+            getLog().info(format("Removed stale META-INF/services/%s", servicesFileToDelete.getName()));
+        }
+        catch (IOException e) {
+            throw new MojoExecutionException("Failed to delete service descriptor.", e);
+        }
+    }
+
+    /**
+     * Checks that exactly one class implements exactly one of the plugin types.
+     */
+    static void checkPluginImplementations(Map<String, List<String>> pluginClassMap, List<String> pluginTypes)
+            throws MojoExecutionException
+    {
+        if (pluginClassMap.values().stream().allMatch(List::isEmpty)) {
+            throw new MojoExecutionException(format("%n%nYou must have at least one class that implements %s.", describeTypes(pluginTypes, "or")));
+        }
+
+        if (pluginClassMap.values().stream().filter(l -> !l.isEmpty()).count() > 1) {
+            throw new MojoExecutionException(format("%n%nYou have classes that implement multiple of %s. You can only have one plugin implementation per project.", describeTypes(pluginTypes, "or")));
+        }
+
+        for (Map.Entry<String, List<String>> entry : pluginClassMap.entrySet()) {
+            ensureSinglePluginImplementation(entry.getValue(), entry.getKey());
+        }
+    }
+
+    private static void ensureSinglePluginImplementation(List<String> pluginClasses, String classImplementationTemplate)
             throws MojoExecutionException
     {
         if (pluginClasses.size() > 1) {
             StringBuilder sb = new StringBuilder();
-            for (Class<?> pluginClass : pluginClasses) {
-                sb.append(pluginClass.getName()).append(LS);
+            for (String pluginClass : pluginClasses) {
+                sb.append(pluginClass).append(LS);
             }
-            throw new MojoExecutionException(format("%n%nYou have more than one class that implements %s:%n%n%s%nYou can only have one per plugin project.", classImplementationTemplate.getName(), sb));
+            throw new MojoExecutionException(format("%n%nYou have more than one class that implements %s:%n%n%s%nYou can only have one per plugin project.", classImplementationTemplate, sb));
         }
     }
 
-    private URLClassLoader createClassloaderFromCompileTimeDependencies()
-            throws Exception
+    private List<File> getCompileTimeDependencies()
     {
-        List<URL> urls = Lists.newArrayList();
-        urls.add(classesDirectory.toURI().toURL());
+        List<File> files = Lists.newArrayList();
         for (Artifact artifact : project.getArtifacts()) {
             if (artifact.getFile() != null) {
-                urls.add(artifact.getFile().toURI().toURL());
+                files.add(artifact.getFile());
             }
         }
-        return new URLClassLoader(urls.toArray(new URL[urls.size()]));
+        return files;
     }
 
-    private List<Class<?>> findImplementationsOf(Class<?> implementationTemplate, URLClassLoader searchRealm)
-            throws IOException, MojoExecutionException
+    private int getParallelism()
     {
-        List<Class<?>> implementations = Lists.newArrayList();
-        List<String> classes = FileUtils.getFileNames(classesDirectory, "**/*.class", null, false);
-        for (String classPath : classes) {
-            String className = classPath.substring(0, classPath.length() - 6).replace(File.separatorChar, '.');
-            try {
-                Class<?> implementation = searchRealm.loadClass(implementationTemplate.getName());
-                Class<?> clazz = searchRealm.loadClass(className);
-                if (implementation.isAssignableFrom(clazz)) {
-                    implementations.add(clazz);
-                }
-            }
-            catch (ClassNotFoundException e) {
-                throw new MojoExecutionException("Failed to load class.", e);
-            }
+        if (parallelism > 0) {
+            return parallelism;
+        }
+        return Math.max(1, Runtime.getRuntime().availableProcessors() / Math.max(1, session.getRequest().getDegreeOfConcurrency()));
+    }
+
+    static String describeTypes(List<String> types, String conjunction)
+    {
+        if (types.size() == 1) {
+            return types.get(0);
+        }
+        if (types.size() == 2) {
+            return format("%s %s %s", types.get(0), conjunction, types.get(1));
         }
-        return implementations;
+        return format("%s, %s %s", Joiner.on(", ").join(types.subList(0, types.size() - 1)), conjunction, types.get(types.size() - 1));
     }
 
     @SuppressWarnings("ResultOfMethodCallIgnored")
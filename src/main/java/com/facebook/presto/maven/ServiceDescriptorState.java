@@ -0,0 +1,272 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.maven;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * What {@code generate-service-descriptor} saw on its previous run: the
+ * fingerprint and header of every class file, the plugin types each class
+ * implements, and the descriptors it wrote. Stored as a small tab separated
+ * text file under the build directory. Loaded states are kept in a
+ * {@link LruCache} keyed by the size and modification time of the file, so
+ * a later build of an unchanged module in the same JVM does not parse it.
+ */
+final class ServiceDescriptorState
+{
+    private static final String HEADER = "# presto-maven-plugin service descriptor state";
+    private static final int VERSION = 1;
+    private static final String NONE = "-";
+
+    private static final Joiner TAB_JOINER = Joiner.on('\t');
+    private static final Splitter TAB_SPLITTER = Splitter.on('\t');
+    private static final Joiner LIST_JOINER = Joiner.on(',');
+    private static final Splitter LIST_SPLITTER = Splitter.on(',').omitEmptyStrings();
+
+    private static final LruCache<String, ServiceDescriptorState> loaded = new LruCache<>("serviceDescriptorState", 32 * 1024 * 1024, ServiceDescriptorState::getEstimatedBytes);
+
+    public static final ServiceDescriptorState EMPTY = new ServiceDescriptorState(NONE, ImmutableMap.<String, ClassRecord>of(), ImmutableMap.<String, String>of());
+
+    private final String dependenciesFingerprint;
+    private final Map<String, ClassRecord> classes;
+    private final Map<String, String> descriptors;
+
+    public ServiceDescriptorState(String dependenciesFingerprint, Map<String, ClassRecord> classes, Map<String, String> descriptors)
+    {
+        this.dependenciesFingerprint = checkNotNull(dependenciesFingerprint, "dependenciesFingerprint is null");
+        this.classes = ImmutableMap.copyOf(checkNotNull(classes, "classes is null"));
+        this.descriptors = ImmutableMap.copyOf(checkNotNull(descriptors, "descriptors is null"));
+    }
+
+    /**
+     * Fingerprint of the dependencies and plugin types the classes were classified against.
+     */
+    public String getDependenciesFingerprint()
+    {
+        return dependenciesFingerprint;
+    }
+
+    /**
+     * Class records keyed by path relative to the classes directory, using {@code /} as separator.
+     */
+    public Map<String, ClassRecord> getClasses()
+    {
+        return classes;
+    }
+
+    /**
+     * Generated descriptors, as service file name to the implementation written into it.
+     */
+    public Map<String, String> getDescriptors()
+    {
+        return descriptors;
+    }
+
+    /**
+     * Returns whether the file is a descriptor this mojo generated and nobody has changed since.
+     */
+    public boolean isGenerated(File servicesFile)
+            throws IOException
+    {
+        String implementation = descriptors.get(servicesFile.getName());
+        return implementation != null && servicesFile.isFile() && implementation.equals(readDescriptor(servicesFile));
+    }
+
+    public static String readDescriptor(File servicesFile)
+            throws IOException
+    {
+        return new String(Files.readAllBytes(servicesFile.toPath()), UTF_8).trim();
+    }
+
+    /**
+     * Loads the state, or returns {@link #EMPTY} if it is missing or was written by an incompatible version.
+     */
+    public static ServiceDescriptorState load(File file)
+            throws IOException
+    {
+        if (!file.isFile()) {
+            return EMPTY;
+        }
+        String key = cacheKey(file);
+        ServiceDescriptorState state = loaded.get(key);
+        if (state == null) {
+            state = read(file);
+            if (state != EMPTY) {
+                loaded.put(key, state);
+            }
+        }
+        return state;
+    }
+
+    private static ServiceDescriptorState read(File file)
+            throws IOException
+    {
+        String dependenciesFingerprint = NONE;
+        ImmutableMap.Builder<String, ClassRecord> classes = ImmutableMap.builder();
+        ImmutableMap.Builder<String, String> descriptors = ImmutableMap.builder();
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), UTF_8)) {
+            if (!HEADER.equals(reader.readLine())) {
+                return EMPTY;
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                List<String> fields = ImmutableList.copyOf(TAB_SPLITTER.split(line));
+                switch (fields.get(0)) {
+                    case "version":
+                        if (fields.size() != 2 || Integer.parseInt(fields.get(1)) != VERSION) {
+                            return EMPTY;
+                        }
+                        break;
+                    case "dependencies":
+                        dependenciesFingerprint = fields.get(1);
+                        break;
+                    case "class":
+                        ClassRecord record = new ClassRecord(
+                                fields.get(1),
+                                Long.parseLong(fields.get(2)),
+                                Long.parseLong(fields.get(3)),
+                                new ClassFileHeader(fields.get(4), NONE.equals(fields.get(5)) ? null : fields.get(5), ImmutableList.copyOf(LIST_SPLITTER.split(fields.get(6)))),
+                                ImmutableSet.copyOf(LIST_SPLITTER.split(fields.get(7))));
+                        classes.put(record.getPath(), record);
+                        break;
+                    case "descriptor":
+                        descriptors.put(fields.get(1), fields.get(2));
+                        break;
+                    default:
+                        return EMPTY;
+                }
+            }
+        }
+        catch (RuntimeException e) {
+            // a truncated or hand edited file is not worth failing the build over
+            return EMPTY;
+        }
+        return new ServiceDescriptorState(dependenciesFingerprint, classes.build(), descriptors.build());
+    }
+
+    public void store(File file)
+            throws IOException
+    {
+        Files.createDirectories(file.getParentFile().toPath());
+        File temporary = new File(file.getPath() + ".tmp");
+        try (Writer writer = new BufferedWriter(Files.newBufferedWriter(temporary.toPath(), UTF_8))) {
+            writer.write(HEADER + "\n");
+            writer.write(TAB_JOINER.join("version", VERSION) + "\n");
+            writer.write(TAB_JOINER.join("dependencies", dependenciesFingerprint) + "\n");
+            for (ClassRecord record : classes.values()) {
+                ClassFileHeader header = record.getHeader();
+                writer.write(TAB_JOINER.join(
+                        "class",
+                        record.getPath(),
+                        record.getSize(),
+                        record.getLastModified(),
+                        header.getName(),
+                        header.getSuperName() == null ? NONE : header.getSuperName(),
+                        LIST_JOINER.join(header.getInterfaces()),
+                        LIST_JOINER.join(record.getPluginTypes())) + "\n");
+            }
+            for (Map.Entry<String, String> descriptor : descriptors.entrySet()) {
+                writer.write(TAB_JOINER.join("descriptor", descriptor.getKey(), descriptor.getValue()) + "\n");
+            }
+        }
+        Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        loaded.put(cacheKey(file), this);
+    }
+
+    private static String cacheKey(File file)
+    {
+        return file.getAbsolutePath() + ":" + file.length() + ":" + file.lastModified();
+    }
+
+    private long getEstimatedBytes()
+    {
+        long bytes = LruCache.estimateBytes(descriptors.keySet()) + LruCache.estimateBytes(descriptors.values());
+        for (ClassRecord record : classes.values()) {
+            ClassFileHeader header = record.getHeader();
+            bytes += 128 + LruCache.estimateBytes(record.getPath()) + LruCache.estimateBytes(header.getName()) + LruCache.estimateBytes(header.getInterfaces());
+        }
+        return bytes;
+    }
+
+    static final class ClassRecord
+    {
+        private final String path;
+        private final long size;
+        private final long lastModified;
+        private final ClassFileHeader header;
+        private final Set<String> pluginTypes;
+
+        public ClassRecord(String path, long size, long lastModified, ClassFileHeader header, Set<String> pluginTypes)
+        {
+            this.path = checkNotNull(path, "path is null");
+            this.size = size;
+            this.lastModified = lastModified;
+            this.header = checkNotNull(header, "header is null");
+            this.pluginTypes = ImmutableSet.copyOf(checkNotNull(pluginTypes, "pluginTypes is null"));
+        }
+
+        public String getPath()
+        {
+            return path;
+        }
+
+        public long getSize()
+        {
+            return size;
+        }
+
+        public long getLastModified()
+        {
+            return lastModified;
+        }
+
+        public ClassFileHeader getHeader()
+        {
+            return header;
+        }
+
+        public Set<String> getPluginTypes()
+        {
+            return pluginTypes;
+        }
+
+        public boolean hasFingerprint(long size, long lastModified)
+        {
+            return this.size == size && this.lastModified == lastModified;
+        }
+
+        public ClassRecord withPluginTypes(Set<String> pluginTypes)
+        {
+            return new ClassRecord(path, size, lastModified, header, pluginTypes);
+        }
+    }
+}
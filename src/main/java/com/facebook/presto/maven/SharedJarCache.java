@@ -0,0 +1,269 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.maven;
+
+import com.google.common.io.ByteStreams;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Dependency jars opened for class file lookups, shared by every module of
+ * the build that depends on them. Each jar is opened once per path, size and
+ * modification time, and the headers read from it are kept with it, so the
+ * per module {@link ClassHierarchy} on top of it is cheap.
+ * <p>
+ * Jars are reference counted. A jar whose file changed since it was opened
+ * is closed as soon as its last user releases it. Otherwise jars stay open while the build session
+ * is running, so later modules can reuse them, and are closed when the session
+ * ends. Without a session, which is the case when the plugin is not loaded as a
+ * build extension, a jar is closed when its last user releases it.
+ * <p>
+ * The headers of a closed jar are kept in a bounded {@link LruCache}, so a
+ * later build in the same JVM, as with the Maven daemon, does not read the
+ * class files of an unchanged jar again.
+ */
+final class SharedJarCache
+{
+    private static final Map<File, SharedJar> jars = new HashMap<>();
+    private static final LruCache<JarKey, Map<String, ClassFileHeader>> closedJarHeaders = new LruCache<>("jarHeaders", 64 * 1024 * 1024, SharedJarCache::estimateBytes);
+    private static boolean sessionActive;
+
+    private SharedJarCache() {}
+
+    /**
+     * Keeps released jars open until {@link #endSession()}.
+     */
+    public static synchronized void startSession()
+    {
+        sessionActive = true;
+    }
+
+    /**
+     * Closes every jar that is not in use and stops retaining released jars.
+     */
+    public static synchronized void endSession()
+            throws IOException
+    {
+        sessionActive = false;
+
+        IOException failure = null;
+        for (Iterator<SharedJar> iterator = jars.values().iterator(); iterator.hasNext(); ) {
+            SharedJar jar = iterator.next();
+            if (jar.references == 0) {
+                iterator.remove();
+                try {
+                    close(jar);
+                }
+                catch (IOException e) {
+                    if (failure == null) {
+                        failure = e;
+                    }
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Returns the shared jar for the file. Every call must be paired with a call to {@link SharedJar#close()}.
+     */
+    public static synchronized SharedJar acquire(File file)
+            throws IOException
+    {
+        JarKey key = new JarKey(file);
+        SharedJar jar = jars.get(key.path);
+        if (jar != null && !jar.key.equals(key)) {
+            // the file changed since it was opened, so retire the old version
+            jars.remove(key.path);
+            jar.stale = true;
+            if (jar.references == 0) {
+                jar.zip.close();
+            }
+            jar = null;
+        }
+        if (jar == null) {
+            Map<String, ClassFileHeader> headers = closedJarHeaders.get(key);
+            jar = new SharedJar(key, new ZipFile(file), (headers == null) ? new ConcurrentHashMap<>() : headers);
+            jars.put(key.path, jar);
+        }
+        jar.references++;
+        return jar;
+    }
+
+    /**
+     * Retires the jar and forgets its headers, because the file is about to be rewritten
+     * in place. An unused jar is closed, so the file can be replaced.
+     */
+    public static synchronized void invalidate(File file)
+            throws IOException
+    {
+        File path = file.getAbsoluteFile();
+        SharedJar jar = jars.remove(path);
+        if (jar != null) {
+            jar.stale = true;
+            if (jar.references == 0) {
+                jar.zip.close();
+            }
+        }
+        closedJarHeaders.removeIf(key -> key.path.equals(path));
+    }
+
+    private static synchronized void release(SharedJar jar)
+            throws IOException
+    {
+        checkState(jar.references > 0, "jar %s released more often than acquired", jar.key.path);
+        jar.references--;
+        if (jar.references > 0 || (sessionActive && !jar.stale)) {
+            return;
+        }
+        if (!jar.stale) {
+            jars.remove(jar.key.path);
+        }
+        close(jar);
+    }
+
+    private static void close(SharedJar jar)
+            throws IOException
+    {
+        if (!jar.stale) {
+            closedJarHeaders.put(jar.key, jar.headers);
+        }
+        jar.zip.close();
+    }
+
+    private static long estimateBytes(Map<String, ClassFileHeader> headers)
+    {
+        long bytes = 64;
+        for (Map.Entry<String, ClassFileHeader> entry : headers.entrySet()) {
+            ClassFileHeader header = entry.getValue();
+            bytes += 64 + LruCache.estimateBytes(entry.getKey()) + LruCache.estimateBytes(header.getName()) + LruCache.estimateBytes(header.getInterfaces());
+        }
+        return bytes;
+    }
+
+    static final class SharedJar
+            implements Closeable
+    {
+        // a read-only stand-in for "no such class", since the map cannot hold nulls
+        private static final ClassFileHeader MISSING = new ClassFileHeader("", null, new ArrayList<String>());
+
+        private final JarKey key;
+        private final ZipFile zip;
+        private final Map<String, ClassFileHeader> headers;
+        private int references;
+        private boolean stale;
+
+        private SharedJar(JarKey key, ZipFile zip, Map<String, ClassFileHeader> headers)
+        {
+            this.key = key;
+            this.zip = zip;
+            this.headers = headers;
+        }
+
+        /**
+         * Returns the header of the class file stored under the resource name, or {@code null} if there is none.
+         * Headers read earlier, by any module, count as {@code jarHeaderCacheHits}.
+         */
+        public ClassFileHeader getHeader(String resourceName, BuildMetrics metrics)
+                throws IOException
+        {
+            ClassFileHeader header = headers.get(resourceName);
+            if (header == null) {
+                // modules of a parallel build may read the same header at once; keep the first
+                header = readHeader(resourceName, metrics);
+                ClassFileHeader existing = headers.putIfAbsent(resourceName, header);
+                if (existing != null) {
+                    header = existing;
+                }
+            }
+            else {
+                metrics.add("jarHeaderCacheHits", 1);
+            }
+            return (header == MISSING) ? null : header;
+        }
+
+        private ClassFileHeader readHeader(String resourceName, BuildMetrics metrics)
+                throws IOException
+        {
+            ZipEntry entry = zip.getEntry(resourceName);
+            if (entry == null) {
+                return MISSING;
+            }
+            try (InputStream input = zip.getInputStream(entry)) {
+                byte[] classFile = ByteStreams.toByteArray(input);
+                metrics.add("dependencyClassesRead", 1);
+                metrics.add("dependencyBytesRead", classFile.length);
+                return ClassFileHeader.read(classFile);
+            }
+        }
+
+        @Override
+        public void close()
+                throws IOException
+        {
+            release(this);
+        }
+    }
+
+    private static final class JarKey
+    {
+        private final File path;
+        private final long size;
+        private final long lastModified;
+
+        private JarKey(File file)
+        {
+            this.path = checkNotNull(file, "file is null").getAbsoluteFile();
+            this.size = path.length();
+            this.lastModified = path.lastModified();
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            JarKey other = (JarKey) o;
+            return size == other.size && lastModified == other.lastModified && path.equals(other.path);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            int result = path.hashCode();
+            result = 31 * result + (int) (size ^ (size >>> 32));
+            result = 31 * result + (int) (lastModified ^ (lastModified >>> 32));
+            return result;
+        }
+    }
+}
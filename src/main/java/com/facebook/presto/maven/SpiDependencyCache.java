@@ -0,0 +1,189 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.maven;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import org.apache.maven.artifact.Artifact;
+import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.repository.LocalRepository;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Caches the SPI dependency set of a presto-spi artifact in the repository
+ * session, so every module of a reactor shares one collection, in a
+ * {@link LruCache} keyed by the size and modification time of the jar and
+ * POM, so later builds in the same JVM skip even the checksum, and on disk
+ * next to the local repository, so later builds skip collection entirely.
+ * Disk entries record a checksum of the presto-spi jar and POM they were
+ * computed from and are ignored when it no longer matches.
+ */
+final class SpiDependencyCache
+{
+    private static final String SESSION_KEY_PREFIX = SpiDependencyCache.class.getName() + ":";
+    private static final String LOCK_KEY_PREFIX = "lock:";
+    private static final String HEADER = "# presto-spi dependencies collected by presto-maven-plugin";
+    private static final String CHECKSUM_PREFIX = "checksum=";
+    private static final LruCache<String, Set<String>> loaded = new LruCache<>("spiDependencies", 4 * 1024 * 1024, LruCache::estimateBytes);
+
+    private final RepositorySystemSession session;
+
+    public SpiDependencyCache(RepositorySystemSession session)
+    {
+        this.session = checkNotNull(session, "session is null");
+    }
+
+    /**
+     * Returns a monitor shared by every module of the session for the artifact.
+     * Modules of a parallel build hold it while looking up and computing the
+     * dependencies, so only the first of them collects.
+     */
+    public Object lock(Artifact spiArtifact)
+    {
+        String key = LOCK_KEY_PREFIX + sessionKey(spiArtifact);
+        session.getData().set(key, null, new Object());
+        return session.getData().get(key);
+    }
+
+    /**
+     * Returns the cached dependencies of the artifact, or {@code null} if neither cache has a valid entry.
+     */
+    @SuppressWarnings("unchecked")
+    public Set<String> get(Artifact spiArtifact)
+            throws IOException
+    {
+        Object cached = session.getData().get(sessionKey(spiArtifact));
+        if (cached != null) {
+            return (Set<String>) cached;
+        }
+
+        File file = getCacheFile(spiArtifact);
+        if (file == null) {
+            return null;
+        }
+        String fingerprint = fingerprint(spiArtifact);
+        Set<String> dependencies = loaded.get(fingerprint);
+        if (dependencies == null && file.isFile()) {
+            dependencies = read(file, checksum(spiArtifact));
+            if (dependencies != null) {
+                loaded.put(fingerprint, dependencies);
+            }
+        }
+        if (dependencies != null) {
+            session.getData().set(sessionKey(spiArtifact), dependencies);
+        }
+        return dependencies;
+    }
+
+    public void put(Artifact spiArtifact, Set<String> dependencies)
+            throws IOException
+    {
+        Set<String> immutableDependencies = ImmutableSet.copyOf(dependencies);
+        session.getData().set(sessionKey(spiArtifact), immutableDependencies);
+
+        File file = getCacheFile(spiArtifact);
+        if (file == null) {
+            return;
+        }
+        loaded.put(fingerprint(spiArtifact), immutableDependencies);
+        write(file, checksum(spiArtifact), immutableDependencies);
+    }
+
+    /**
+     * Returns the disk cache file, or {@code null} when the artifact is not a
+     * resolved jar, e.g. the classes directory of a reactor module.
+     */
+    private File getCacheFile(Artifact spiArtifact)
+    {
+        LocalRepository localRepository = session.getLocalRepository();
+        if (localRepository == null || localRepository.getBasedir() == null || spiArtifact.getFile() == null || !spiArtifact.getFile().isFile()) {
+            return null;
+        }
+        String name = spiArtifact.getGroupId() + "-" + spiArtifact.getArtifactId() + "-" + spiArtifact.getVersion() + ".txt";
+        return new File(localRepository.getBasedir(), ".cache/presto-maven-plugin/spi-dependencies/" + name);
+    }
+
+    private static String sessionKey(Artifact spiArtifact)
+    {
+        return SESSION_KEY_PREFIX + spiArtifact.getGroupId() + ":" + spiArtifact.getArtifactId() + ":" + spiArtifact.getVersion();
+    }
+
+    private static String fingerprint(Artifact spiArtifact)
+    {
+        File jar = spiArtifact.getFile();
+        File pom = getPomFile(jar);
+        return jar.getAbsolutePath() + ":" + jar.length() + ":" + jar.lastModified() + ":" + pom.length() + ":" + pom.lastModified();
+    }
+
+    /**
+     * Checksum of the presto-spi jar and, when present, the POM installed next to it.
+     */
+    private static String checksum(Artifact spiArtifact)
+            throws IOException
+    {
+        Hasher hasher = Hashing.sha256().newHasher();
+        File jar = spiArtifact.getFile();
+        hasher.putBytes(Files.readAllBytes(jar.toPath()));
+        File pom = getPomFile(jar);
+        if (pom.isFile()) {
+            hasher.putBytes(Files.readAllBytes(pom.toPath()));
+        }
+        return hasher.hash().toString();
+    }
+
+    private static File getPomFile(File jar)
+    {
+        return new File(jar.getParentFile(), jar.getName().replaceFirst("\\.jar$", "") + ".pom");
+    }
+
+    private static Set<String> read(File file, String checksum)
+            throws IOException
+    {
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), UTF_8)) {
+            if (!HEADER.equals(reader.readLine()) || !(CHECKSUM_PREFIX + checksum).equals(reader.readLine())) {
+                return null;
+            }
+            ImmutableSet.Builder<String> dependencies = ImmutableSet.builder();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty()) {
+                    dependencies.add(line);
+                }
+            }
+            return dependencies.build();
+        }
+    }
+
+    private static void write(File file, String checksum, Set<String> dependencies)
+            throws IOException
+    {
+        StringBuilder contents = new StringBuilder();
+        contents.append(HEADER).append('\n');
+        contents.append(CHECKSUM_PREFIX).append(checksum).append('\n');
+        for (String dependency : new TreeSet<>(dependencies)) {
+            contents.append(dependency).append('\n');
+        }
+        CacheFiles.write(file, contents.toString().getBytes(UTF_8));
+    }
+}
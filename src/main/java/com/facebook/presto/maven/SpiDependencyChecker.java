@@ -12,29 +12,19 @@ import org.apache.maven.plugins.annotations.ResolutionScope;
 import org.apache.maven.project.MavenProject;
 import org.eclipse.aether.RepositorySystem;
 import org.eclipse.aether.RepositorySystemSession;
-import org.eclipse.aether.artifact.DefaultArtifact;
-import org.eclipse.aether.collection.CollectRequest;
-import org.eclipse.aether.collection.CollectResult;
-import org.eclipse.aether.collection.DependencyCollectionException;
-import org.eclipse.aether.graph.Dependency;
-import org.eclipse.aether.graph.DependencyNode;
 
 import java.util.HashSet;
 import java.util.Set;
 
 import static java.lang.String.format;
-import static java.util.stream.Collectors.toSet;
 
 @Mojo(name = "check-spi-dependencies",
         defaultPhase = LifecyclePhase.VALIDATE,
-        requiresDependencyResolution = ResolutionScope.COMPILE_PLUS_RUNTIME)
+        requiresDependencyResolution = ResolutionScope.COMPILE_PLUS_RUNTIME,
+        threadSafe = true)
 public class SpiDependencyChecker
         extends AbstractMojo
 {
-    private static final String SPI_GROUP = "com.facebook.presto";
-    private static final String SPI_ARTIFACT = "presto-spi";
-    private static final String SPI_NAME = SPI_GROUP + ":" + SPI_ARTIFACT;
-
     @Parameter(defaultValue = "false")
     private boolean skipCheckSpiDependencies;
 
@@ -59,11 +49,29 @@ public class SpiDependencyChecker
             return;
         }
 
-        Set<String> spiDependencies = getSpiDependencies();
-        getLog().debug("SPI dependencies: " + spiDependencies);
+        BuildMetrics metrics = new BuildMetrics();
+        try {
+            Set<String> spiDependencies;
+            try (BuildMetrics.Timer ignored = metrics.time("spiDependencies")) {
+                spiDependencies = new SpiDependencyResolver(repositorySystem, repositorySession, getLog()).getSpiDependencies(project, metrics);
+            }
+            getLog().debug("SPI dependencies: " + spiDependencies);
 
-        for (Artifact artifact : project.getArtifacts()) {
-            if (isSpiArtifact(artifact)) {
+            try (BuildMetrics.Timer ignored = metrics.time("checkArtifacts")) {
+                checkArtifacts(project.getArtifacts(), spiDependencies, allowedProvidedDependencies);
+            }
+            metrics.add("artifactsChecked", project.getArtifacts().size());
+        }
+        finally {
+            metrics.write(project, "check-spi-dependencies", getLog());
+        }
+    }
+
+    static void checkArtifacts(Iterable<Artifact> artifacts, Set<String> spiDependencies, Set<String> allowedProvidedDependencies)
+            throws MojoExecutionException
+    {
+        for (Artifact artifact : artifacts) {
+            if (SpiDependencyResolver.isSpiArtifact(artifact)) {
                 continue;
             }
             String name = artifact.getGroupId() + ":" + artifact.getArtifactId();
@@ -83,59 +91,4 @@ public class SpiDependencyChecker
             }
         }
     }
-
-    private Set<String> getSpiDependencies()
-            throws MojoExecutionException
-    {
-        return getArtifactDependencies(getSpiDependency())
-                .getRoot().getChildren().stream()
-                .filter(node -> !node.getDependency().isOptional())
-                .map(DependencyNode::getArtifact)
-                .map(artifact -> artifact.getGroupId() + ":" + artifact.getArtifactId())
-                .collect(toSet());
-    }
-
-    private CollectResult getArtifactDependencies(Artifact artifact)
-            throws MojoExecutionException
-    {
-        try {
-            Dependency dependency = new Dependency(aetherArtifact(artifact), null);
-            return repositorySystem.collectDependencies(repositorySession, new CollectRequest(dependency, null));
-        }
-        catch (DependencyCollectionException e) {
-            throw new MojoExecutionException("Failed to resolve dependencies.", e);
-        }
-    }
-
-    private Artifact getSpiDependency()
-            throws MojoExecutionException
-    {
-        for (Artifact artifact : project.getArtifacts()) {
-            if (isSpiArtifact(artifact)) {
-                if (!"provided".equals(artifact.getScope())) {
-                    throw new MojoExecutionException(format("%n%nPresto plugin dependency %s must have scope 'provided'.", SPI_NAME));
-                }
-                return artifact;
-            }
-        }
-        throw new MojoExecutionException(format("%n%nPresto plugin must depend on %s.", SPI_NAME));
-    }
-
-    private static boolean isSpiArtifact(Artifact artifact)
-    {
-        return SPI_GROUP.equals(artifact.getGroupId()) &&
-                SPI_ARTIFACT.equals(artifact.getArtifactId()) &&
-                "jar".equals(artifact.getType()) &&
-                (artifact.getClassifier() == null);
-    }
-
-    private static org.eclipse.aether.artifact.Artifact aetherArtifact(Artifact artifact)
-    {
-        return new DefaultArtifact(
-                artifact.getGroupId(),
-                artifact.getArtifactId(),
-                artifact.getClassifier(),
-                artifact.getType(),
-                artifact.getVersion());
-    }
 }
@@ -0,0 +1,179 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.maven;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.project.MavenProject;
+import org.eclipse.aether.RepositorySystem;
+import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.artifact.DefaultArtifact;
+import org.eclipse.aether.collection.CollectRequest;
+import org.eclipse.aether.collection.CollectResult;
+import org.eclipse.aether.collection.DependencyCollectionException;
+import org.eclipse.aether.graph.Dependency;
+import org.eclipse.aether.graph.DependencyNode;
+import org.eclipse.aether.repository.LocalRepository;
+
+import java.io.IOException;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.lang.String.format;
+import static java.util.stream.Collectors.toSet;
+
+/**
+ * Determines the dependencies of the presto-spi artifact of a project, as
+ * {@code groupId:artifactId}. These are the artifacts the Presto server
+ * provides to plugins at runtime. The set is read from the presto-spi POM
+ * when possible and collected with the repository system otherwise, and is
+ * cached by the {@link SpiDependencyCache}.
+ */
+final class SpiDependencyResolver
+{
+    private static final String SPI_GROUP = "com.facebook.presto";
+    private static final String SPI_ARTIFACT = "presto-spi";
+    private static final String SPI_NAME = SPI_GROUP + ":" + SPI_ARTIFACT;
+
+    private final RepositorySystem repositorySystem;
+    private final RepositorySystemSession repositorySession;
+    private final Log log;
+
+    public SpiDependencyResolver(RepositorySystem repositorySystem, RepositorySystemSession repositorySession, Log log)
+    {
+        this.repositorySystem = checkNotNull(repositorySystem, "repositorySystem is null");
+        this.repositorySession = checkNotNull(repositorySession, "repositorySession is null");
+        this.log = checkNotNull(log, "log is null");
+    }
+
+    public Set<String> getSpiDependencies(MavenProject project, BuildMetrics metrics)
+            throws MojoExecutionException
+    {
+        Artifact spiArtifact = getSpiDependency(project);
+        SpiDependencyCache cache = new SpiDependencyCache(repositorySession);
+        synchronized (cache.lock(spiArtifact)) {
+            return getSpiDependencies(spiArtifact, cache, metrics);
+        }
+    }
+
+    private Set<String> getSpiDependencies(Artifact spiArtifact, SpiDependencyCache cache, BuildMetrics metrics)
+            throws MojoExecutionException
+    {
+        try {
+            Set<String> cached = cache.get(spiArtifact);
+            if (cached != null) {
+                log.debug("Using cached dependencies of " + spiArtifact);
+                metrics.add("spiCacheHits", 1);
+                return cached;
+            }
+        }
+        catch (IOException e) {
+            log.warn("Failed to read cached dependencies of " + spiArtifact, e);
+        }
+        metrics.add("spiCacheMisses", 1);
+
+        Set<String> spiDependencies = readSpiDependencies(spiArtifact);
+        if (spiDependencies == null) {
+            metrics.add("resolverCalls", 1);
+            spiDependencies = collectSpiDependencies(spiArtifact);
+        }
+        else {
+            metrics.add("spiPomReads", 1);
+        }
+        try {
+            cache.put(spiArtifact, spiDependencies);
+        }
+        catch (IOException e) {
+            log.warn("Failed to cache dependencies of " + spiArtifact, e);
+        }
+        return spiDependencies;
+    }
+
+    /**
+     * Fast path that reads the dependencies from the presto-spi POM in the local repository
+     * or embedded in the jar. Returns {@code null} if they cannot be determined that way.
+     */
+    private Set<String> readSpiDependencies(Artifact spiArtifact)
+    {
+        LocalRepository localRepository = repositorySession.getLocalRepository();
+        LocalPomDependencyReader reader = new LocalPomDependencyReader(localRepository == null ? null : localRepository.getBasedir());
+        try {
+            Set<String> spiDependencies = reader.readDependencies(spiArtifact);
+            if (spiDependencies == null) {
+                log.debug("Cannot determine dependencies of " + spiArtifact + " from its POM, collecting them instead");
+            }
+            return spiDependencies;
+        }
+        catch (IOException e) {
+            log.debug("Failed to read the POM of " + spiArtifact + ", collecting dependencies instead", e);
+            return null;
+        }
+    }
+
+    private Set<String> collectSpiDependencies(Artifact spiArtifact)
+            throws MojoExecutionException
+    {
+        return getArtifactDependencies(spiArtifact)
+                .getRoot().getChildren().stream()
+                .filter(node -> !node.getDependency().isOptional())
+                .map(DependencyNode::getArtifact)
+                .map(artifact -> artifact.getGroupId() + ":" + artifact.getArtifactId())
+                .collect(toSet());
+    }
+
+    private CollectResult getArtifactDependencies(Artifact artifact)
+            throws MojoExecutionException
+    {
+        try {
+            Dependency dependency = new Dependency(aetherArtifact(artifact), null);
+            return repositorySystem.collectDependencies(repositorySession, new CollectRequest(dependency, null));
+        }
+        catch (DependencyCollectionException e) {
+            throw new MojoExecutionException("Failed to resolve dependencies.", e);
+        }
+    }
+
+    private static Artifact getSpiDependency(MavenProject project)
+            throws MojoExecutionException
+    {
+        for (Artifact artifact : project.getArtifacts()) {
+            if (isSpiArtifact(artifact)) {
+                if (!"provided".equals(artifact.getScope())) {
+                    throw new MojoExecutionException(format("%n%nPresto plugin dependency %s must have scope 'provided'.", SPI_NAME));
+                }
+                return artifact;
+            }
+        }
+        throw new MojoExecutionException(format("%n%nPresto plugin must depend on %s.", SPI_NAME));
+    }
+
+    public static boolean isSpiArtifact(Artifact artifact)
+    {
+        return SPI_GROUP.equals(artifact.getGroupId()) &&
+                SPI_ARTIFACT.equals(artifact.getArtifactId()) &&
+                "jar".equals(artifact.getType()) &&
+                (artifact.getClassifier() == null);
+    }
+
+    private static org.eclipse.aether.artifact.Artifact aetherArtifact(Artifact artifact)
+    {
+        return new DefaultArtifact(
+                artifact.getGroupId(),
+                artifact.getArtifactId(),
+                artifact.getClassifier(),
+                artifact.getType(),
+                artifact.getVersion());
+    }
+}
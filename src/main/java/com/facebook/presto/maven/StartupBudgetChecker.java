@@ -0,0 +1,227 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.maven;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+import org.apache.maven.project.MavenProject;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Mojo that fails the build when loading the plugin costs a Presto server
+ * more than its budget. The plugins named in the service descriptors, found
+ * the same way {@code generate-service-descriptor} finds them, are loaded in
+ * a forked JVM through a child-first class loader like the one the server
+ * uses, instantiated, and their factories enumerated. The JVM measures the
+ * time both steps take, the classes they load, and how much metaspace and
+ * heap remain in use afterwards.
+ * <p>
+ * Budgets of zero are not checked. The measurements are recorded with the
+ * build metrics of the goal, so the build report tracks them over time.
+ */
+@Mojo(name = "check-startup-budget", defaultPhase = LifecyclePhase.PACKAGE, requiresDependencyResolution = ResolutionScope.COMPILE_PLUS_RUNTIME, threadSafe = true)
+public class StartupBudgetChecker
+        extends AbstractMojo
+{
+    @Parameter(property = "presto.startupBudget.skip", defaultValue = "false")
+    private boolean skipStartupBudget;
+
+    /**
+     * Longest time, in milliseconds, that loading and instantiating the plugins may take.
+     */
+    @Parameter(property = "presto.startupBudget.maxInstantiationMillis", defaultValue = "0")
+    private long maxInstantiationMillis;
+
+    /**
+     * Longest time, in milliseconds, that enumerating the factories of the plugins may take.
+     */
+    @Parameter(property = "presto.startupBudget.maxEnumerationMillis", defaultValue = "0")
+    private long maxEnumerationMillis;
+
+    /**
+     * Largest number of classes the plugin class loader may define.
+     */
+    @Parameter(property = "presto.startupBudget.maxPluginClasses", defaultValue = "0")
+    private long maxPluginClasses;
+
+    /**
+     * Largest metaspace growth, in megabytes, from loading the plugins.
+     */
+    @Parameter(property = "presto.startupBudget.maxMetaspaceMegabytes", defaultValue = "0")
+    private long maxMetaspaceMegabytes;
+
+    /**
+     * Largest heap, in megabytes, the plugins and their factories may retain.
+     */
+    @Parameter(property = "presto.startupBudget.maxHeapMegabytes", defaultValue = "0")
+    private long maxHeapMegabytes;
+
+    /**
+     * Additional SPI interfaces, by binary name, whose service descriptors name plugins to load.
+     */
+    @Parameter
+    private final List<String> additionalPluginTypes = new ArrayList<>();
+
+    @Parameter(defaultValue = "${project.build.outputDirectory}")
+    private File classesDirectory;
+
+    @Parameter(defaultValue = "${project.build.directory}/presto-maven-plugin/startup-budget.classpath")
+    private File classPathFile;
+
+    @Parameter(defaultValue = "${project.build.directory}/presto-maven-plugin/startup-budget.properties")
+    private File resultFile;
+
+    /**
+     * Packages loaded from the SPI rather than the plugin, as in the Presto plugin class loader.
+     */
+    @Parameter
+    private List<String> parentFirstPackages = ClassListGenerator.PARENT_FIRST_PACKAGES;
+
+    /**
+     * The java launcher of the forked JVM. Defaults to the one running Maven.
+     */
+    @Parameter(property = "presto.startupBudget.java")
+    private String javaExecutable;
+
+    @Parameter
+    private final List<String> jvmArguments = new ArrayList<>();
+
+    @Parameter(property = "presto.startupBudget.timeout", defaultValue = "300")
+    private int timeoutSeconds;
+
+    @Parameter(defaultValue = "${project}")
+    private MavenProject project;
+
+    @Override
+    public void execute()
+            throws MojoExecutionException, MojoFailureException
+    {
+        if (skipStartupBudget) {
+            getLog().info("Skipping startup budget check");
+            return;
+        }
+
+        ForkedPlugin plugin = ForkedPlugin.of(project, classesDirectory, ServiceDescriptorGenerator.getPluginTypes(additionalPluginTypes));
+        if (plugin.getPluginClasses().isEmpty()) {
+            getLog().info("No service descriptor for a Presto plugin, skipping startup budget check");
+            return;
+        }
+
+        BuildMetrics metrics = new BuildMetrics();
+        try {
+            check(plugin, metrics);
+        }
+        finally {
+            metrics.write(project, "check-startup-budget", getLog());
+        }
+    }
+
+    private void check(ForkedPlugin plugin, BuildMetrics metrics)
+            throws MojoExecutionException
+    {
+        List<String> pluginClasses = plugin.getPluginClasses();
+        try {
+            Files.deleteIfExists(resultFile.toPath());
+            CacheFiles.write(classPathFile, Joiner.on('\n').join(plugin.getPluginClassPath()).getBytes(UTF_8));
+        }
+        catch (IOException e) {
+            throw new MojoExecutionException(format("Failed to prepare %s", classPathFile), e);
+        }
+
+        try (BuildMetrics.Timer ignored = metrics.time("fork")) {
+            new ForkedJvm(javaExecutable, jvmArguments, timeoutSeconds, getLog()).run(
+                    plugin.getParentClassPath(),
+                    PluginStartupProbe.class,
+                    ImmutableList.of(
+                            Joiner.on(',').join(pluginClasses),
+                            classPathFile.getAbsolutePath(),
+                            Joiner.on(',').join(parentFirstPackages),
+                            resultFile.getAbsolutePath()));
+        }
+
+        Properties measurements = new Properties();
+        try (InputStream input = Files.newInputStream(resultFile.toPath())) {
+            measurements.load(input);
+        }
+        catch (IOException e) {
+            throw new MojoExecutionException(format("%n%nThe forked JVM did not write its measurements to %s.", resultFile), e);
+        }
+        long instantiationNanos = getMeasurement(measurements, PluginStartupProbe.INSTANTIATION_NANOS);
+        long enumerationNanos = getMeasurement(measurements, PluginStartupProbe.ENUMERATION_NANOS);
+        long pluginClassCount = getMeasurement(measurements, PluginStartupProbe.PLUGIN_CLASSES);
+        long loadedClassCount = getMeasurement(measurements, PluginStartupProbe.LOADED_CLASSES);
+        long metaspaceBytes = getMeasurement(measurements, PluginStartupProbe.METASPACE_BYTES);
+        long heapBytes = getMeasurement(measurements, PluginStartupProbe.HEAP_BYTES);
+
+        metrics.addTime("instantiate", instantiationNanos);
+        metrics.addTime("enumerate", enumerationNanos);
+        metrics.add("pluginClasses", pluginClassCount);
+        metrics.add("loadedClasses", loadedClassCount);
+        metrics.add("metaspaceBytes", metaspaceBytes);
+        metrics.add("heapBytes", heapBytes);
+
+        getLog().info(format("Startup of %s: instantiation %.1f ms, enumeration %.1f ms, %s plugin classes, %s classes loaded, metaspace %.1f MB, heap %.1f MB",
+                Joiner.on(", ").join(pluginClasses),
+                instantiationNanos / 1_000_000.0,
+                enumerationNanos / 1_000_000.0,
+                pluginClassCount,
+                loadedClassCount,
+                metaspaceBytes / (1024.0 * 1024.0),
+                heapBytes / (1024.0 * 1024.0)));
+
+        List<String> exceeded = new ArrayList<>();
+        checkBudget(exceeded, "instantiation", instantiationNanos / 1_000_000, maxInstantiationMillis, "ms");
+        checkBudget(exceeded, "enumeration", enumerationNanos / 1_000_000, maxEnumerationMillis, "ms");
+        checkBudget(exceeded, "plugin classes", pluginClassCount, maxPluginClasses, "classes");
+        checkBudget(exceeded, "metaspace", metaspaceBytes / (1024 * 1024), maxMetaspaceMegabytes, "MB");
+        checkBudget(exceeded, "heap", heapBytes / (1024 * 1024), maxHeapMegabytes, "MB");
+        if (!exceeded.isEmpty()) {
+            throw new MojoExecutionException(format("%n%nPresto plugin %s exceeds its startup budget:%s", project.getArtifactId(), Joiner.on("").join(exceeded)));
+        }
+    }
+
+    private static void checkBudget(List<String> exceeded, String name, long value, long budget, String unit)
+    {
+        if (budget > 0 && value > budget) {
+            exceeded.add(format("%n    %s: %s %s, budget %s %s", name, value, unit, budget, unit));
+        }
+    }
+
+    private long getMeasurement(Properties measurements, String key)
+            throws MojoExecutionException
+    {
+        String value = measurements.getProperty(key);
+        if (value == null) {
+            throw new MojoExecutionException(format("%n%n%s has no %s measurement.", resultFile, key));
+        }
+        return Long.parseLong(value);
+    }
+}
@@ -129,4 +129,45 @@ public class CheckerIntegrationTest
                 .assertLogText("You have classes that implement multiple of com.facebook.presto.spi.Plugin, com.facebook.presto.spi.CoordinatorPlugin, or com.facebook.presto.spi.RouterPlugin. " +
                         "You can only have one plugin implementation per project.");
     }
+
+    @Test
+    public void testDuplicateClasses()
+            throws Exception
+    {
+        File basedir = resources.getBasedir("duplicate-classes");
+        maven.forProject(basedir)
+                .execute("verify")
+                .assertLogText("[WARNING] 1 entries are packaged more than once, in project classes, com.google.guava:guava:jar:18.0:compile:")
+                .assertLogText("com/google/common/base/Strings.class")
+                .assertLogText("[WARNING] 1 classes in project classes shadow classes provided by com.facebook.presto:presto-spi:jar:0.151:provided:")
+                .assertLogText("com/facebook/presto/spi/ColumnHandle.class")
+                .assertNoLogText("com/google/common/base/Ascii.class")
+                .assertNoLogText("org/apache/commons/lang3/StringUtils.class")
+                .assertLogText("[ERROR] Presto plugin duplicate-classes has 1 duplicate classes or resources and 1 classes that shadow provided classes.");
+    }
+
+    @Test
+    public void testUnreachableDependency()
+            throws Exception
+    {
+        File basedir = resources.getBasedir("unreachable-dependency");
+        maven.forProject(basedir)
+                .execute("verify")
+                .assertLogText("com.google.guava:guava:jar:18.0:compile")
+                .assertLogText("[ERROR] Presto plugin unreachable-dependency bundles 1 dependencies without any reachable class:")
+                .assertLogText("org.apache.commons:commons-lang3:jar:3.8.1:compile");
+    }
+
+    @Test
+    public void testStartupBudget()
+            throws Exception
+    {
+        File basedir = resources.getBasedir("startup-budget");
+        maven.forProject(basedir)
+                .execute("verify")
+                .assertLogText("Startup of its.HeavyPlugin:")
+                .assertLogText("[ERROR] Presto plugin startup-budget exceeds its startup budget:")
+                .assertLogText("heap: ")
+                .assertNoLogText("plugin classes: ");
+    }
 }
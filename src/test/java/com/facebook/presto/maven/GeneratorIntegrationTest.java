@@ -1,6 +1,7 @@
 package com.facebook.presto.maven;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
 import io.takari.maven.testing.TestResources;
 import io.takari.maven.testing.executor.MavenRuntime;
 import io.takari.maven.testing.executor.MavenRuntime.MavenRuntimeBuilder;
@@ -11,11 +12,25 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 
 import java.io.File;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
+import static java.lang.String.format;
 import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.Files.delete;
+import static java.nio.file.Files.readAllBytes;
 import static java.nio.file.Files.readAllLines;
+import static java.nio.file.Files.write;
+import static java.util.Collections.sort;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 
 @RunWith(MavenJUnitTestRunner.class)
 @MavenVersions("3.3.9")
@@ -25,6 +40,7 @@ public class GeneratorIntegrationTest
     private static final String PLUGIN_DESCRIPTOR = "META-INF/services/com.facebook.presto.spi.Plugin";
     private static final String COORDINATOR_PLUGIN_DESCRIPTOR = "META-INF/services/com.facebook.presto.spi.CoordinatorPlugin";
     private static final String ROUTER_PLUGIN_DESCRIPTOR = "META-INF/services/com.facebook.presto.spi.RouterPlugin";
+    private static final int PARALLEL_REACTOR_MODULES = 24;
 
     @Rule
     public final TestResources resources = new TestResources();
@@ -52,6 +68,22 @@ public class GeneratorIntegrationTest
         assertEquals(ImmutableList.of("its.BasicPlugin"), lines);
     }
 
+    @Test
+    public void testCacheReport()
+            throws Exception
+    {
+        File basedir = resources.getBasedir("basic");
+        maven.forProject(basedir)
+                .withCliOptions("-X")
+                .execute("package")
+                .assertErrorFreeLog()
+                .assertLogText("presto-maven-plugin caches since the plugin was loaded:")
+                .assertLogText("  spiDependencies: ")
+                .assertLogText("  serviceDescriptorState: ")
+                .assertLogText("  jarHeaders: ")
+                .assertLogText(" lookups hit (");
+    }
+
     @Test
     public void testBasicCoordinatorPlugin()
             throws Exception
@@ -82,4 +114,162 @@ public class GeneratorIntegrationTest
         assertEquals(ImmutableList.of("its.BasicRouterPlugin"), lines);
     }
 
+    @Test
+    public void testRenamedPluginReplacesDescriptor()
+            throws Exception
+    {
+        File basedir = resources.getBasedir("basic");
+        maven.forProject(basedir)
+                .execute("package")
+                .assertErrorFreeLog();
+
+        File source = new File(basedir, "src/main/java/its/BasicPlugin.java");
+        String renamed = new String(readAllBytes(source.toPath()), UTF_8).replace("BasicPlugin", "RenamedPlugin");
+        write(new File(basedir, "src/main/java/its/RenamedPlugin.java").toPath(), renamed.getBytes(UTF_8));
+        delete(source.toPath());
+        delete(new File(basedir, "target/classes/its/BasicPlugin.class").toPath());
+
+        maven.forProject(basedir)
+                .execute("package")
+                .assertErrorFreeLog()
+                .assertLogText("Wrote META-INF/services/com.facebook.presto.spi.Plugin with its.RenamedPlugin");
+
+        File output = new File(basedir, "target/classes/" + PLUGIN_DESCRIPTOR);
+
+        List<String> lines = readAllLines(output.toPath(), UTF_8);
+        assertEquals(ImmutableList.of("its.RenamedPlugin"), lines);
+    }
+
+    @Test
+    public void testAnnotationProcessor()
+            throws Exception
+    {
+        File basedir = resources.getBasedir("annotation-processor");
+        maven.forProject(basedir)
+                .execute("package")
+                .assertErrorFreeLog()
+                .assertLogText("Verified META-INF/services/com.facebook.presto.spi.Plugin with its.BasicPlugin")
+                .assertNoLogText("Wrote META-INF/services/");
+
+        File output = new File(basedir, "target/classes/" + PLUGIN_DESCRIPTOR);
+
+        List<String> lines = readAllLines(output.toPath(), UTF_8);
+        assertEquals(ImmutableList.of("its.BasicPlugin"), lines);
+    }
+
+    @Test
+    public void testPrebuiltJar()
+            throws Exception
+    {
+        File basedir = resources.getBasedir("prebuilt-jar");
+        maven.forProject(basedir)
+                .execute("package")
+                .assertErrorFreeLog()
+                .assertLogText("Wrote META-INF/services/com.facebook.presto.spi.Plugin with its.PrebuiltPlugin into prebuilt-jar-1.0.jar");
+
+        File output = new File(basedir, "target/descriptors/" + PLUGIN_DESCRIPTOR);
+        assertEquals(ImmutableList.of("its.PrebuiltPlugin"), readAllLines(output.toPath(), UTF_8));
+        assertFalse(new File(basedir, "target/classes/" + PLUGIN_DESCRIPTOR).exists());
+
+        try (ZipFile jar = new ZipFile(new File(basedir, "target/prebuilt-jar-1.0.jar"))) {
+            ZipEntry descriptor = jar.getEntry(PLUGIN_DESCRIPTOR);
+            assertNotNull(descriptor);
+            try (InputStream input = jar.getInputStream(descriptor)) {
+                assertEquals("its.PrebuiltPlugin", new String(ByteStreams.toByteArray(input), UTF_8));
+            }
+            assertNotNull(jar.getEntry("its/PrebuiltPlugin.class"));
+        }
+    }
+
+    @Test
+    public void testParallelReactor()
+            throws Exception
+    {
+        File basedir = resources.getBasedir("parallel-reactor");
+        generatePluginModules(basedir, PARALLEL_REACTOR_MODULES);
+
+        // every module shares the SPI dependencies, the guava jar and the jar index cache
+        maven.forProject(basedir)
+                .withCliOptions("-T", "8")
+                .execute("package")
+                .assertErrorFreeLog()
+                .assertNoLogText("com.facebook.presto:presto-maven-plugin");
+        Map<String, String> parallel = readPluginOutputs(basedir, PARALLEL_REACTOR_MODULES);
+
+        maven.forProject(basedir)
+                .execute("clean", "package")
+                .assertErrorFreeLog();
+        Map<String, String> serial = readPluginOutputs(basedir, PARALLEL_REACTOR_MODULES);
+
+        assertEquals(serial, parallel);
+        for (int i = 0; i < PARALLEL_REACTOR_MODULES; i++) {
+            assertEquals(format("its.Plugin%02d", i), parallel.get(format("plugin-%02d descriptor", i)));
+        }
+    }
+
+    private static void generatePluginModules(File basedir, int count)
+            throws Exception
+    {
+        StringBuilder modules = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            String name = format("plugin-%02d", i);
+            modules.append(format("        <module>%s</module>%n", name));
+
+            File module = new File(basedir, name);
+            File sources = new File(module, "src/main/java/its");
+            sources.mkdirs();
+            write(new File(module, "pom.xml").toPath(), format("" +
+                    "<project xmlns=\"http://maven.apache.org/POM/4.0.0\">%n" +
+                    "    <modelVersion>4.0.0</modelVersion>%n" +
+                    "    <parent>%n" +
+                    "        <groupId>com.facebook.presto.maven.its</groupId>%n" +
+                    "        <artifactId>parallel-reactor</artifactId>%n" +
+                    "        <version>1.0</version>%n" +
+                    "    </parent>%n" +
+                    "    <artifactId>%s</artifactId>%n" +
+                    "    <packaging>presto-plugin</packaging>%n" +
+                    "</project>%n", name).getBytes(UTF_8));
+
+            // every class is classified through a project base class or guava classes in the shared jar
+            write(new File(sources, format("Base%02d.java", i)).toPath(), format("" +
+                    "package its;%n" +
+                    "public abstract class Base%02d {}%n", i).getBytes(UTF_8));
+            write(new File(sources, format("Plugin%02d.java", i)).toPath(), format("" +
+                    "package its;%n" +
+                    "public class Plugin%02d extends Base%02d implements com.facebook.presto.spi.Plugin {}%n", i, i).getBytes(UTF_8));
+            write(new File(sources, format("Names%02d.java", i)).toPath(), format("" +
+                    "package its;%n" +
+                    "public class Names%02d extends com.google.common.collect.ForwardingList<String> {%n" +
+                    "    private final java.util.List<String> names = new java.util.ArrayList<>();%n" +
+                    "    @Override%n" +
+                    "    protected java.util.List<String> delegate() { return names; }%n" +
+                    "}%n", i).getBytes(UTF_8));
+        }
+
+        File pom = new File(basedir, "pom.xml");
+        String contents = new String(readAllBytes(pom.toPath()), UTF_8);
+        write(pom.toPath(), contents.replace("    <modules>\n", "    <modules>\n" + modules).getBytes(UTF_8));
+    }
+
+    private static Map<String, String> readPluginOutputs(File basedir, int count)
+            throws Exception
+    {
+        Map<String, String> outputs = new TreeMap<>();
+        for (int i = 0; i < count; i++) {
+            String name = format("plugin-%02d", i);
+            File module = new File(basedir, name);
+            outputs.put(name + " descriptor", new String(readAllBytes(new File(module, "target/classes/" + PLUGIN_DESCRIPTOR).toPath()), UTF_8));
+
+            List<String> entries = new ArrayList<>();
+            try (ZipFile jar = new ZipFile(new File(module, format("target/%s-1.0.jar", name)))) {
+                Enumeration<? extends ZipEntry> enumeration = jar.entries();
+                while (enumeration.hasMoreElements()) {
+                    entries.add(enumeration.nextElement().getName());
+                }
+            }
+            sort(entries);
+            outputs.put(name + " entries", entries.toString());
+        }
+        return outputs;
+    }
 }
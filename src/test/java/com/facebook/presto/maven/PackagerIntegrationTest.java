@@ -0,0 +1,379 @@
+package com.facebook.presto.maven;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Ordering;
+import com.google.common.io.ByteStreams;
+import io.takari.maven.testing.TestResources;
+import io.takari.maven.testing.executor.MavenRuntime;
+import io.takari.maven.testing.executor.MavenRuntime.MavenRuntimeBuilder;
+import io.takari.maven.testing.executor.MavenVersions;
+import io.takari.maven.testing.executor.junit.MavenJUnitTestRunner;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.Files.createDirectories;
+import static java.nio.file.Files.delete;
+import static java.nio.file.Files.isSameFile;
+import static java.nio.file.Files.readAllBytes;
+import static java.nio.file.Files.readAllLines;
+import static java.nio.file.Files.write;
+import static java.util.Collections.list;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(MavenJUnitTestRunner.class)
+@MavenVersions("3.3.9")
+@SuppressWarnings({"JUnitTestNG", "PublicField"})
+public class PackagerIntegrationTest
+{
+    @Rule
+    public final TestResources resources = new TestResources();
+
+    public final MavenRuntime maven;
+
+    public PackagerIntegrationTest(MavenRuntimeBuilder mavenBuilder)
+            throws Exception
+    {
+        this.maven = mavenBuilder.withCliOptions("-B", "-U").build();
+    }
+
+    @Test
+    public void testNativePackaging()
+            throws Exception
+    {
+        File basedir = resources.getBasedir("native-packaging");
+        maven.forProject(basedir)
+                .execute("package")
+                .assertErrorFreeLog();
+
+        File archive = new File(basedir, "target/native-packaging-1.0.zip");
+        List<String> names = new ArrayList<>();
+        try (ZipFile zip = new ZipFile(archive)) {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                names.add(entry.getName());
+                if (entry.getName().endsWith(".jar")) {
+                    assertEquals(ZipEntry.STORED, entry.getMethod());
+                }
+            }
+
+            PluginClassIndex index;
+            try (InputStream input = zip.getInputStream(zip.getEntry(PluginClassIndex.FILE_NAME))) {
+                index = PluginClassIndex.read(input);
+            }
+            assertEquals("native-packaging-1.0.jar", index.findJar("its.BasicPlugin"));
+            assertEquals("guava-18.0.jar", index.findJar("com.google.common.base.Joiner"));
+        }
+        assertEquals(ImmutableList.of("guava-18.0.jar", "native-packaging-1.0.jar", PluginClassIndex.FILE_NAME), names);
+
+        // the jar is rebuilt with new timestamps, so compare archives of the same jar
+        byte[] first = readAllBytes(archive.toPath());
+        maven.forProject(basedir)
+                .withCliOptions("-Dpresto.packager.force=true")
+                .execute("presto:package-plugin")
+                .assertErrorFreeLog();
+        assertArrayEquals(first, readAllBytes(archive.toPath()));
+    }
+
+    @Test
+    public void testClassList()
+            throws Exception
+    {
+        File basedir = resources.getBasedir("class-list");
+        maven.forProject(basedir)
+                .execute("package")
+                .assertErrorFreeLog()
+                .assertLogText("Wrote class list for its.ClassListPlugin to ");
+
+        // the JVM lists the classes of its own loaders, such as the SPI, and the plugin loader defines the rest
+        File classList = new File(basedir, "target/presto-plugin/archive/cds/classlist");
+        File pluginClasses = new File(basedir, "target/presto-plugin/archive/cds/plugin-classes.txt");
+        assertTrue(readAllLines(classList.toPath(), UTF_8).contains("com/facebook/presto/spi/Plugin"));
+        List<String> pluginClassNames = readAllLines(pluginClasses.toPath(), UTF_8);
+        assertTrue(pluginClassNames.contains("its.ClassListPlugin"));
+        assertTrue(pluginClassNames.contains("com.google.common.collect.ImmutableList"));
+
+        try (ZipFile zip = new ZipFile(new File(basedir, "target/class-list-1.0.zip"))) {
+            for (File file : ImmutableList.of(classList, pluginClasses)) {
+                try (InputStream input = zip.getInputStream(zip.getEntry("cds/" + file.getName()))) {
+                    assertArrayEquals(readAllBytes(file.toPath()), ByteStreams.toByteArray(input));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testUpToDatePackaging()
+            throws Exception
+    {
+        File basedir = resources.getBasedir("native-packaging");
+        maven.forProject(basedir)
+                .execute("package")
+                .assertErrorFreeLog()
+                .assertLogText("Packaged 2 entries into native-packaging-1.0.zip");
+
+        File archive = new File(basedir, "target/native-packaging-1.0.zip");
+        long modified = archive.lastModified();
+        maven.forProject(basedir)
+                .execute("package")
+                .assertErrorFreeLog()
+                .assertLogText("native-packaging-1.0.zip is up to date")
+                .assertNoLogText("Packaged ");
+        assertEquals(modified, archive.lastModified());
+
+        File resource = new File(basedir, "src/main/resources/its/plugin.properties");
+        assertTrue(resource.getParentFile().mkdirs());
+        write(resource.toPath(), "name=native\n".getBytes(UTF_8));
+        maven.forProject(basedir)
+                .execute("package")
+                .assertErrorFreeLog()
+                .assertLogText("Packaged 2 entries into native-packaging-1.0.zip")
+                .assertNoLogText("is up to date");
+    }
+
+    @Test
+    public void testDeployExploded()
+            throws Exception
+    {
+        File basedir = resources.getBasedir("native-packaging");
+        File server = new File(basedir, "target/server/plugin");
+        maven.forProject(basedir)
+                .withCliOptions("-Dpresto.deploy.directory=" + server.getAbsolutePath())
+                .execute("package", "presto:deploy-exploded")
+                .assertErrorFreeLog()
+                .assertLogText(", 0 unchanged");
+
+        File plugin = new File(server, "native-packaging");
+        assertEquals(ImmutableList.of("guava-18.0.jar", "native-packaging-1.0.jar"), Ordering.natural().sortedCopy(ImmutableList.copyOf(plugin.list())));
+
+        // a file left by an earlier version of the plugin is removed
+        write(new File(plugin, "stale-1.0.jar").toPath(), new byte[0]);
+        maven.forProject(basedir)
+                .withCliOptions("-Dpresto.deploy.directory=" + server.getAbsolutePath())
+                .execute("presto:deploy-exploded")
+                .assertErrorFreeLog()
+                .assertLogText("0 linked, 0 copied, 2 unchanged, 1 removed");
+        assertFalse(new File(plugin, "stale-1.0.jar").exists());
+    }
+
+    @Test
+    public void testWatch()
+            throws Exception
+    {
+        File basedir = resources.getBasedir("native-packaging");
+        File server = new File(basedir, "target/server/plugin");
+        maven.forProject(basedir)
+                .withCliOptions("-Dpresto.deploy.directory=" + server.getAbsolutePath(), "-Dpresto.watch.idleTimeoutSeconds=1")
+                .execute("compile", "presto:watch")
+                .assertErrorFreeLog()
+                .assertLogText("Synced native-packaging in ")
+                .assertLogText("No changes for 1 seconds, stopping");
+
+        File plugin = new File(server, "native-packaging");
+        assertTrue(new File(plugin, "guava-18.0.jar").isFile());
+        assertTrue(new File(plugin, "classes/its/BasicPlugin.class").isFile());
+        assertEquals(ImmutableList.of("its.BasicPlugin"), readAllLines(new File(plugin, "classes/META-INF/services/com.facebook.presto.spi.Plugin").toPath(), UTF_8));
+    }
+
+    @Test
+    public void testWatchSyncsChanges()
+            throws Exception
+    {
+        File basedir = resources.getBasedir("native-packaging");
+        // generate the descriptor first, so the watch itself writes nothing to the classes directory
+        maven.forProject(basedir)
+                .execute("process-classes")
+                .assertErrorFreeLog();
+
+        File server = new File(basedir, "target/server/plugin");
+        File plugin = new File(server, "native-packaging");
+        File helper = new File(basedir, "target/classes/its/BasicHelper.class");
+        File deployedHelper = new File(plugin, "classes/its/BasicHelper.class");
+
+        // delete a class, as a recompile would, once the initial sync deployed it
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        Thread recompile = new Thread(() -> {
+            try {
+                long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(1);
+                while (!deployedHelper.isFile() && System.nanoTime() < deadline) {
+                    Thread.sleep(50);
+                }
+                delete(helper.toPath());
+            }
+            catch (Exception e) {
+                failure.set(e);
+            }
+        });
+        recompile.start();
+        maven.forProject(basedir)
+                .withCliOptions("-Dpresto.deploy.directory=" + server.getAbsolutePath(), "-Dpresto.watch.idleTimeoutSeconds=2")
+                .execute("presto:watch")
+                .assertErrorFreeLog()
+                .assertLogText("1 removed")
+                .assertLogText("No changes for 2 seconds, stopping");
+        recompile.join();
+        assertNull(failure.get());
+
+        // the initial sync and one for the deletion
+        long syncs = readAllLines(new File(basedir, "log.txt").toPath(), UTF_8).stream()
+                .filter(line -> line.contains("Synced native-packaging in "))
+                .count();
+        assertEquals(2, syncs);
+        assertFalse(deployedHelper.exists());
+        assertTrue(new File(plugin, "classes/its/BasicPlugin.class").isFile());
+    }
+
+    @Test
+    public void testDeltaPackaging()
+            throws Exception
+    {
+        File basedir = resources.getBasedir("native-packaging");
+        maven.forProject(basedir)
+                .execute("package")
+                .assertErrorFreeLog();
+
+        // the previous release, as unpacked on a server
+        File previousManifest = new File(basedir, "previous-manifest.txt");
+        write(previousManifest.toPath(), readAllBytes(new File(basedir, "target/native-packaging-1.0-manifest.txt").toPath()));
+        File server = new File(basedir, "server/native-packaging");
+        assertTrue(server.mkdirs());
+        try (ZipFile zip = new ZipFile(new File(basedir, "target/native-packaging-1.0.zip"))) {
+            for (ZipEntry entry : list(zip.entries())) {
+                File file = new File(server, entry.getName());
+                createDirectories(file.getParentFile().toPath());
+                try (InputStream input = zip.getInputStream(entry)) {
+                    write(file.toPath(), ByteStreams.toByteArray(input));
+                }
+            }
+        }
+        assertTrue(new File(server, PluginClassIndex.FILE_NAME).isFile());
+
+        File source = new File(basedir, "src/main/java/its/BasicPlugin.java");
+        String changed = new String(readAllBytes(source.toPath()), UTF_8)
+                .replace("import java.util.List;", "import java.util.ArrayList;\nimport java.util.List;")
+                .replace("return emptyList();", "return new ArrayList<>();");
+        write(source.toPath(), changed.getBytes(UTF_8));
+        maven.forProject(basedir)
+                .withCliOptions("-Dpresto.packager.previousManifest=" + previousManifest.getAbsolutePath())
+                .execute("package")
+                .assertErrorFreeLog()
+                .assertLogText("Wrote native-packaging-1.0-delta.zip with 2 changed entries and 0 removed against previous-manifest.txt");
+
+        // the class index records the checksum of every jar, so it changes with the project jar
+        File delta = new File(basedir, "target/native-packaging-1.0-delta.zip");
+        try (ZipFile zip = new ZipFile(delta)) {
+            assertNotNull(zip.getEntry("native-packaging-1.0.jar"));
+            assertNotNull(zip.getEntry(PluginClassIndex.FILE_NAME));
+            assertNull(zip.getEntry("guava-18.0.jar"));
+        }
+
+        assertEquals("Applied native-packaging-1.0-delta.zip to " + server.toPath() + ": 2 entries written, 0 removed, 1 unchanged",
+                PluginDeltaTool.apply(delta.toPath(), server.toPath(), true));
+        try (ZipFile zip = new ZipFile(new File(basedir, "target/native-packaging-1.0.zip"))) {
+            for (ZipEntry entry : list(zip.entries())) {
+                try (InputStream input = zip.getInputStream(entry)) {
+                    assertArrayEquals(entry.getName(), ByteStreams.toByteArray(input), readAllBytes(new File(server, entry.getName()).toPath()));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testMinimizedDependencies()
+            throws Exception
+    {
+        File basedir = resources.getBasedir("minimize-dependencies");
+        maven.forProject(basedir)
+                .execute("package")
+                .assertErrorFreeLog()
+                .assertLogText("Minimized 2 of 2 bundled jars");
+
+        File minimized = new File(basedir, "target/presto-plugin/minimized/guava-18.0.jar");
+        byte[] contents = readAllBytes(minimized.toPath());
+        try (ZipFile zip = new ZipFile(minimized)) {
+            assertNotNull(zip.getEntry("com/google/common/base/Joiner.class"));
+            assertNotNull(zip.getEntry("META-INF/MANIFEST.MF"));
+            assertNull(zip.getEntry("com/google/common/eventbus/EventBus.class"));
+        }
+        try (ZipFile zip = new ZipFile(new File(basedir, "target/minimize-dependencies-1.0.zip"));
+                InputStream input = zip.getInputStream(zip.getEntry("guava-18.0.jar"))) {
+            assertArrayEquals(contents, ByteStreams.toByteArray(input));
+        }
+
+        // the Java 9 variants of a multi-release jar are kept or pruned with their base class
+        try (ZipFile zip = new ZipFile(new File(basedir, "target/presto-plugin/minimized/log4j-api-2.17.2.jar"))) {
+            assertNotNull(zip.getEntry("org/apache/logging/log4j/util/ProcessIdUtil.class"));
+            assertNotNull(zip.getEntry("META-INF/versions/9/org/apache/logging/log4j/util/ProcessIdUtil.class"));
+            assertNull(zip.getEntry("org/apache/logging/log4j/LogManager.class"));
+            assertEquals(
+                    zip.getEntry("org/apache/logging/log4j/util/StackLocator.class") == null,
+                    zip.getEntry("META-INF/versions/9/org/apache/logging/log4j/util/StackLocator.class") == null);
+        }
+
+        // an unchanged plugin minimizes to identical bytes and leaves the copy alone
+        maven.forProject(basedir)
+                .execute("package")
+                .assertErrorFreeLog()
+                .assertLogText("guava-18.0.jar (unchanged)");
+        assertArrayEquals(contents, readAllBytes(minimized.toPath()));
+    }
+
+    @Test
+    public void testDeduplicatePlugins()
+            throws Exception
+    {
+        File basedir = resources.getBasedir("dedup-reactor");
+        maven.forProject(basedir)
+                .execute("package", "presto:deduplicate-plugins")
+                .assertErrorFreeLog()
+                .assertLogText("Deduplicated 2 Presto plugins: 4 bundled files");
+
+        // guava and the two plugin jars
+        File store = new File(basedir, "target/presto-plugins/store");
+        assertEquals(3, store.list().length);
+
+        File plugins = new File(basedir, "target/presto-plugins/plugins");
+        assertTrue(isSameFile(new File(plugins, "first/guava-18.0.jar").toPath(), new File(plugins, "second/guava-18.0.jar").toPath()));
+        assertTrue(new File(plugins, "first/first-1.0.jar").isFile());
+        assertTrue(new File(plugins, "second/second-1.0.jar").isFile());
+    }
+
+    @Test
+    public void testBuildReport()
+            throws Exception
+    {
+        File basedir = resources.getBasedir("dedup-reactor");
+        maven.forProject(basedir)
+                .execute("package", "presto:build-report")
+                .assertErrorFreeLog()
+                .assertLogText("Build report of 4 goal executions");
+
+        for (String module : ImmutableList.of("first", "second")) {
+            File metrics = new File(basedir, module + "/target/presto-maven-plugin/metrics");
+            assertTrue(new File(metrics, "check-spi-dependencies" + BuildMetrics.FILE_SUFFIX).isFile());
+            assertTrue(new File(metrics, "generate-service-descriptor" + BuildMetrics.FILE_SUFFIX).isFile());
+        }
+
+        String report = new String(readAllBytes(new File(basedir, "target/presto-maven-plugin/build-report.json").toPath()), UTF_8);
+        assertTrue(report.contains("\"goal\": \"generate-service-descriptor\""));
+        assertTrue(report.contains("\"classFiles\": "));
+        assertTrue(report.contains("\"artifactsChecked\": "));
+    }
+}
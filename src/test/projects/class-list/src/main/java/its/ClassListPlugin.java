@@ -0,0 +1,19 @@
+package its;
+
+import com.facebook.presto.spi.Plugin;
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+
+public class ClassListPlugin
+        implements Plugin
+{
+    // loaded by the plugin loader when the plugin is instantiated
+    private static final List<String> NAMES = ImmutableList.of("class-list");
+
+    @Override
+    public <T> List<T> getServices(Class<T> type)
+    {
+        return ImmutableList.of();
+    }
+}
@@ -0,0 +1,7 @@
+package com.google.common.base;
+
+// also packaged in guava, but ignored by the configuration
+public final class Ascii
+{
+    private Ascii() {}
+}
@@ -0,0 +1,7 @@
+package com.google.common.base;
+
+// also packaged in guava
+public final class Strings
+{
+    private Strings() {}
+}
@@ -0,0 +1,17 @@
+package its;
+
+import com.facebook.presto.spi.Plugin;
+
+import java.util.List;
+
+import static java.util.Collections.emptyList;
+
+public class DuplicatePlugin
+        implements Plugin
+{
+    @Override
+    public <T> List<T> getServices(Class<T> type)
+    {
+        return emptyList();
+    }
+}
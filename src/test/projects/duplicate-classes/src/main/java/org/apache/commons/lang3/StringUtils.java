@@ -0,0 +1,7 @@
+package org.apache.commons.lang3;
+
+// commons-lang3 is provided, but not by the SPI, so this shadows nothing at runtime
+public final class StringUtils
+{
+    private StringUtils() {}
+}
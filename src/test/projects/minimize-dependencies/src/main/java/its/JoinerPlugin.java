@@ -0,0 +1,20 @@
+package its;
+
+import com.facebook.presto.spi.Plugin;
+import com.google.common.base.Joiner;
+import org.apache.logging.log4j.util.ProcessIdUtil;
+
+import java.util.List;
+
+import static java.util.Collections.emptyList;
+
+public class JoinerPlugin
+        implements Plugin
+{
+    @Override
+    public <T> List<T> getServices(Class<T> type)
+    {
+        Joiner.on(", ").join(type.getName(), "no services", ProcessIdUtil.getProcessId());
+        return emptyList();
+    }
+}
@@ -0,0 +1,20 @@
+package its;
+
+import com.facebook.presto.spi.Plugin;
+
+import java.util.List;
+
+import static java.util.Collections.emptyList;
+
+public class HeavyPlugin
+        implements Plugin
+{
+    // retained for as long as the plugin is loaded, well over the heap budget
+    private static final byte[] LOOKUP_TABLE = new byte[64 * 1024 * 1024];
+
+    @Override
+    public <T> List<T> getServices(Class<T> type)
+    {
+        return emptyList();
+    }
+}
@@ -0,0 +1,16 @@
+package its;
+
+import com.facebook.presto.spi.Plugin;
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+
+public class GuavaPlugin
+        implements Plugin
+{
+    @Override
+    public <T> List<T> getServices(Class<T> type)
+    {
+        return ImmutableList.of();
+    }
+}